@@ -0,0 +1,118 @@
+package io.prometheus.client.exporter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of an INT value, rendered as a summary: quantiles over a sliding time window
+ * plus the count and sum of all the observed values.
+ * <p>
+ * The quantiles are estimated by {@link QuantileSketch}es. Each ingest thread writes to the
+ * sketches of its stripe, allocated the first time a value is observed on it, and the stripes are
+ * merged when the distribution is collected. Each stripe has a sketch for the current and the
+ * previous window, so the quantiles cover between one and two windows of values.
+ * <p>
+ * The threads are given the stripes round-robin the first time they observe a value, so the first
+ * {@link #STRIPES} ingest threads each have their own. Further threads share stripes: the sketch
+ * buckets are atomic, so a shared stripe stays exact, but its cache lines are contended.
+ */
+class Distribution {
+
+    private static final int STRIPES = 4;
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+    // Same stripe of every distribution for a given thread
+    private static final ThreadLocal<Integer> STRIPE =
+            ThreadLocal.withInitial(() -> NEXT_STRIPE.getAndIncrement() & (STRIPES - 1));
+
+    private final long windowNanos;
+    private final AtomicReferenceArray<Window[]> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * @param windowNanos length of a window
+     */
+    Distribution(long windowNanos) {
+        if (windowNanos <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Observes a value.
+     *
+     * @param value value
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    void observe(double value, long nowNanos) {
+        long epoch = Math.floorDiv(nowNanos, windowNanos);
+        Window window = stripe()[(int) epoch & 1];
+        if (window.epoch != epoch) {
+            window.reset(epoch);
+        }
+        window.sketch.add(value);
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Gets the values of the current and previous windows.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return merged bucket counts, of {@link QuantileSketch#BUCKETS} length
+     */
+    long[] snapshot(long nowNanos) {
+        long epoch = Math.floorDiv(nowNanos, windowNanos);
+        long[] counts = new long[QuantileSketch.BUCKETS];
+        for (int i = 0; i < STRIPES; i++) {
+            Window[] windows = stripes.get(i);
+            if (windows == null) {
+                continue;
+            }
+            for (Window window : windows) {
+                if (window.epoch == epoch || window.epoch == epoch - 1) {
+                    window.sketch.mergeInto(counts);
+                }
+            }
+        }
+        return counts;
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    double sum() {
+        return sum.sum();
+    }
+
+    private Window[] stripe() {
+        int i = STRIPE.get();
+        Window[] windows = stripes.get(i);
+        if (windows == null) {
+            windows = new Window[] {new Window(), new Window()};
+            if (!stripes.compareAndSet(i, null, windows)) {
+                windows = stripes.get(i);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Sketch of the values observed in a window.
+     */
+    private static final class Window {
+        final QuantileSketch sketch = new QuantileSketch();
+        volatile long epoch = Long.MIN_VALUE;
+
+        synchronized void reset(long epoch) {
+            if (this.epoch != epoch) {
+                sketch.clear();
+                this.epoch = epoch;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the last rendered exposition of a registry, in plain text and gzip, along with the metrics
+ * generation it was rendered at.
+ * <p>
+ * The exposition is rendered again once the generation changed or it is older than the max age, which
+ * bounds the staleness of the metrics that do not advance the generation. Only one thread renders at
+ * a time: the scrapes that arrive while it renders wait for it and get the same bytes. The gzip bytes
+ * are compressed once, by the first scrape that accepts gzip.
+ * <p>
+ * Every exposition has an entity tag, which only changes when a render gives different bytes, so that
+ * a scraper that already has the exposition can be answered that it did not change. As long as the
+ * generation did not change since the last exposition was rendered, such a scraper is answered from
+ * the last entity tag, without rendering or even looking at the max age.
+ */
+class ExpositionCache {
+
+    private final CollectorRegistry registry;
+    private final MetricsGeneration generation;
+    private final long maxAgeNanos;
+    // Tells the entity tags of this cache from the ones of a previous process
+    private final String instance = Integer.toHexString(ThreadLocalRandom.current().nextInt());
+    private volatile Exposition current;
+    // Version of the current exposition, guarded by the cache's monitor
+    private long version;
+
+    /**
+     * @param registry registry to render
+     * @param generation generation of the metrics of the registry, or null to only expire by age
+     * @param maxAgeNanos time after which the exposition is rendered again, even if the generation did not change
+     */
+    ExpositionCache(CollectorRegistry registry, MetricsGeneration generation, long maxAgeNanos) {
+        this.registry = registry;
+        this.generation = generation;
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    /**
+     * Gets an exposition of the registry that is up to date.
+     *
+     * @return exposition
+     * @throws IOException if the registry could not be rendered
+     */
+    Exposition get() throws IOException {
+        Exposition seen = current;
+        if (fresh(seen, currentGeneration())) {
+            return seen;
+        }
+        synchronized (this) {
+            Exposition exposition = current;
+            if (exposition != seen) {
+                // Rendered while this scrape was waiting
+                return exposition;
+            }
+            long generation = currentGeneration();
+            if (fresh(exposition, generation)) {
+                return exposition;
+            }
+            long renderedNanos = System.nanoTime();
+            byte[] plain = render(registry);
+            if (exposition == null || !Arrays.equals(exposition.plain, plain)) {
+                version++;
+            }
+            exposition = new Exposition(generation, renderedNanos, plain, "W/\"" + instance + "-" + version + "\"");
+            current = exposition;
+            return exposition;
+        }
+    }
+
+    /**
+     * Gets the last exposition if the scraper already has it and the generation did not change since it was
+     * rendered, without rendering anything. Without a generation, the exposition must also be younger than the
+     * max age.
+     *
+     * @param ifNoneMatch If-None-Match header of the scrape, may be null
+     * @return the exposition the scraper has, or null if the exposition has to be rendered and compared
+     */
+    Exposition notModified(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return null;
+        }
+        Exposition exposition = current;
+        if (exposition == null || !exposition.matches(ifNoneMatch)) {
+            return null;
+        }
+        if (generation != null ? exposition.generation == generation.get() : fresh(exposition, 0)) {
+            return exposition;
+        }
+        return null;
+    }
+
+    private long currentGeneration() {
+        return generation != null ? generation.get() : 0;
+    }
+
+    private boolean fresh(Exposition exposition, long generation) {
+        return exposition != null && exposition.generation == generation
+                && System.nanoTime() - exposition.renderedNanos < maxAgeNanos;
+    }
+
+    private static byte[] render(CollectorRegistry registry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        OutputStreamWriter osw = new OutputStreamWriter(bytes);
+        TextFormat.write004(osw, registry.filteredMetricFamilySamples(Collections.<String>emptySet()));
+        osw.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rendered exposition of a registry.
+     */
+    static final class Exposition {
+        /**
+         * Metrics generation the exposition was rendered at.
+         */
+        final long generation;
+        final long renderedNanos;
+        final byte[] plain;
+
+        /**
+         * Weak entity tag of the exposition, the same for the plain and the gzip bytes.
+         */
+        final String etag;
+        private byte[] gzip;
+
+        Exposition(long generation, long renderedNanos, byte[] plain, String etag) {
+            this.generation = generation;
+            this.renderedNanos = renderedNanos;
+            this.plain = plain;
+            this.etag = etag;
+        }
+
+        /**
+         * Checks whether the exposition is one the scraper already has.
+         *
+         * @param ifNoneMatch If-None-Match header of the scrape, may be null
+         * @return true if the header lists the entity tag of the exposition
+         */
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            String tag = etag.substring(2);
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals("*") || candidate.equals(etag) || candidate.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Gets the exposition compressed with gzip, compressing it on the first call.
+         *
+         * @return gzip bytes
+         * @throws IOException if the exposition could not be compressed
+         */
+        synchronized byte[] gzip() throws IOException {
+            if (gzip == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 4 + 64);
+                GZIPOutputStream os = new GZIPOutputStream(bytes);
+                os.write(plain);
+                os.close();
+                gzip = bytes.toByteArray();
+            }
+            return gzip;
+        }
+    }
+}
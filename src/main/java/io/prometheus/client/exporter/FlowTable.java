@@ -0,0 +1,440 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.exporter.PathTable.Path;
+import org.onosproject.monitoring.packet.Ip4Address;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Per flow state of the INT exporter, indexed by the packed 5-tuple of the flow.
+ * <p>
+ * A flow key is two longs: the source and destination IPv4 addresses, then the
+ * ports and the IP protocol. Lookups probe open-addressed primitive arrays, so
+ * a report of a known flow allocates nothing. The flow label is rendered once,
+ * when the flow is first seen.
+ * <p>
+ * The table is split in segments that are locked independently, so ingest
+ * channels only contend when they look up flows of the same segment. Each
+ * segment keeps its flows in least recently used order. The number of flows
+ * of the whole table is bounded: a new flow first takes a slot of the table,
+ * and when there is none left the least recently used flow of the table, the
+ * oldest of the segment tails, is evicted to free one. Flows idle for longer
+ * than the idle timeout are removed by {@link #expire(long)}. Every removed
+ * flow is handed to the eviction listener.
+ */
+class FlowTable {
+
+    /**
+     * Why a flow was removed from the table.
+     */
+    enum EvictionCause {
+        /** No report of the flow was received within the idle timeout. */
+        IDLE,
+        /** The flow was the least recently used one of a full table. */
+        CAPACITY;
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Receives the flows removed from the table, e.g. to remove their metrics.
+     */
+    interface EvictionListener {
+        void evicted(Flow flow, EvictionCause cause);
+    }
+
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int maxFlows;
+    // Flows in the segments, plus the slots taken by flows about to be inserted
+    private final AtomicInteger flowCount = new AtomicInteger();
+    private final long idleTimeoutNanos;
+    private final EvictionListener listener;
+
+    /**
+     * @param maxFlows maximum number of flows of the table
+     * @param idleTimeoutNanos time after which a flow with no reports is expired
+     * @param listener receives the removed flows
+     */
+    FlowTable(int maxFlows, long idleTimeoutNanos, EvictionListener listener) {
+        if (maxFlows <= 0) {
+            throw new IllegalArgumentException("maxFlows must be positive");
+        }
+        if (idleTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(INITIAL_SEGMENT_CAPACITY);
+        }
+        this.maxFlows = maxFlows;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.listener = listener;
+    }
+
+    /**
+     * Packs the addresses of a flow into the first long of its key.
+     *
+     * @param srcIp source IPv4 address
+     * @param dstIp destination IPv4 address
+     * @return first long of the flow key
+     */
+    static long keyHigh(int srcIp, int dstIp) {
+        return ((long) srcIp << 32) | (dstIp & 0xffffffffL);
+    }
+
+    /**
+     * Packs the ports and protocol of a flow into the second long of its key.
+     *
+     * @param srcPort source L4 port
+     * @param dstPort destination L4 port
+     * @param protocol IP protocol
+     * @return second long of the flow key
+     */
+    static long keyLow(int srcPort, int dstPort, int protocol) {
+        return ((long) (srcPort & 0xffff) << 24) | ((long) (dstPort & 0xffff) << 8) | (protocol & 0xff);
+    }
+
+    /**
+     * Gets the state of a flow, creating it when the flow is seen for the first time,
+     * and marks it as the most recently used flow.
+     *
+     * @param keyHigh first long of the flow key
+     * @param keyLow second long of the flow key
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return flow state
+     */
+    Flow flow(long keyHigh, long keyLow, long nowNanos) {
+        int hash = hash(keyHigh, keyLow);
+        Segment segment = segments[hash >>> 28];
+        synchronized (segment) {
+            Flow flow = segment.get(keyHigh, keyLow, hash);
+            if (flow != null) {
+                segment.unlink(flow);
+                segment.linkFirst(flow);
+                flow.lastSeenNanos = nowNanos;
+                return flow;
+            }
+        }
+        // A new flow, which may evict flows of other segments: the segment is not locked meanwhile
+        reserve();
+        synchronized (segment) {
+            Flow flow = segment.get(keyHigh, keyLow, hash);
+            if (flow != null) {
+                // Inserted by another channel in the meantime
+                flowCount.decrementAndGet();
+                segment.unlink(flow);
+            } else {
+                flow = new Flow(keyHigh, keyLow);
+                segment.put(flow, hash);
+            }
+            segment.linkFirst(flow);
+            flow.lastSeenNanos = nowNanos;
+            return flow;
+        }
+    }
+
+    /**
+     * Takes a slot of the table for a new flow, evicting the least recently used flows until one is free.
+     */
+    private void reserve() {
+        while (true) {
+            int count = flowCount.get();
+            if (count < maxFlows) {
+                if (flowCount.compareAndSet(count, count + 1)) {
+                    return;
+                }
+            } else if (!evictLeastRecentlyUsed()) {
+                // Every slot is taken by a flow being inserted by another channel
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used flow of the table, i.e. the oldest of the segment tails.
+     *
+     * @return true if a flow was evicted
+     */
+    private boolean evictLeastRecentlyUsed() {
+        Segment oldest = null;
+        long oldestSeenNanos = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Flow tail = segment.tail;
+                if (tail != null && (oldest == null || tail.lastSeenNanos - oldestSeenNanos < 0)) {
+                    oldest = segment;
+                    oldestSeenNanos = tail.lastSeenNanos;
+                }
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        Flow evicted;
+        synchronized (oldest) {
+            evicted = oldest.tail;
+            if (evicted == null) {
+                return false;
+            }
+            oldest.remove(evicted);
+        }
+        flowCount.decrementAndGet();
+        listener.evicted(evicted, EvictionCause.CAPACITY);
+        return true;
+    }
+
+    /**
+     * Removes the flows that had no report within the idle timeout.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return number of removed flows
+     */
+    int expire(long nowNanos) {
+        int expired = 0;
+        for (Segment segment : segments) {
+            while (true) {
+                Flow flow;
+                synchronized (segment) {
+                    flow = segment.tail;
+                    if (flow == null || nowNanos - flow.lastSeenNanos < idleTimeoutNanos) {
+                        break;
+                    }
+                    segment.remove(flow);
+                }
+                flowCount.decrementAndGet();
+                listener.evicted(flow, EvictionCause.IDLE);
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Calls the given action for every flow of the table. Each segment is locked while its flows are visited.
+     *
+     * @param action action to call
+     */
+    void forEach(Consumer<Flow> action) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Flow flow = segment.head; flow != null; flow = flow.older) {
+                    action.accept(flow);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of flows in the table.
+     *
+     * @return number of flows
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Hashes a flow key.
+     *
+     * @param keyHigh first long of the flow key
+     * @param keyLow second long of the flow key
+     * @return hash of the flow key
+     */
+    static int hash(long keyHigh, long keyLow) {
+        long h = keyHigh * 0x9E3779B97F4A7C15L + keyLow;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Open-addressed table of flows with linear probing, plus a doubly linked list of the
+     * same flows from the most to the least recently used. Guarded by its own monitor.
+     */
+    private static final class Segment {
+        long[] highs;
+        long[] lows;
+        Flow[] flows;
+        int size;
+        Flow head;
+        Flow tail;
+
+        Segment(int capacity) {
+            highs = new long[capacity];
+            lows = new long[capacity];
+            flows = new Flow[capacity];
+        }
+
+        Flow get(long keyHigh, long keyLow, int hash) {
+            int mask = flows.length - 1;
+            for (int i = hash & mask; flows[i] != null; i = (i + 1) & mask) {
+                if (highs[i] == keyHigh && lows[i] == keyLow) {
+                    return flows[i];
+                }
+            }
+            return null;
+        }
+
+        void put(Flow flow, int hash) {
+            if ((size + 1) * 4 > flows.length * 3) {
+                resize();
+            }
+            insert(flow, hash);
+            size++;
+        }
+
+        private void insert(Flow flow, int hash) {
+            int mask = flows.length - 1;
+            int i = hash & mask;
+            while (flows[i] != null) {
+                i = (i + 1) & mask;
+            }
+            highs[i] = flow.keyHigh;
+            lows[i] = flow.keyLow;
+            flows[i] = flow;
+        }
+
+        /**
+         * Removes a flow of the segment. The entries that follow it in its probe
+         * sequence are shifted back, so lookups never need tombstones.
+         */
+        void remove(Flow flow) {
+            unlink(flow);
+            int mask = flows.length - 1;
+            int i = hash(flow.keyHigh, flow.keyLow) & mask;
+            while (flows[i] != flow) {
+                i = (i + 1) & mask;
+            }
+            int hole = i;
+            for (int j = (hole + 1) & mask; flows[j] != null; j = (j + 1) & mask) {
+                int home = hash(highs[j], lows[j]) & mask;
+                // Move the entry into the hole unless its home slot lies cyclically in (hole, j]
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    highs[hole] = highs[j];
+                    lows[hole] = lows[j];
+                    flows[hole] = flows[j];
+                    hole = j;
+                }
+            }
+            flows[hole] = null;
+            size--;
+        }
+
+        void linkFirst(Flow flow) {
+            flow.newer = null;
+            flow.older = head;
+            if (head != null) {
+                head.newer = flow;
+            } else {
+                tail = flow;
+            }
+            head = flow;
+        }
+
+        void unlink(Flow flow) {
+            if (flow.newer != null) {
+                flow.newer.older = flow.older;
+            } else {
+                head = flow.older;
+            }
+            if (flow.older != null) {
+                flow.older.newer = flow.newer;
+            } else {
+                tail = flow.newer;
+            }
+            flow.newer = null;
+            flow.older = null;
+        }
+
+        private void resize() {
+            Flow[] oldFlows = flows;
+            highs = new long[oldFlows.length * 2];
+            lows = new long[oldFlows.length * 2];
+            flows = new Flow[oldFlows.length * 2];
+            for (Flow flow : oldFlows) {
+                if (flow != null) {
+                    insert(flow, hash(flow.keyHigh, flow.keyLow));
+                }
+            }
+        }
+    }
+
+    /**
+     * State of a flow.
+     */
+    static final class Flow {
+        final long keyHigh;
+        final long keyLow;
+
+        /**
+         * 5-tuple-flow as string, e.g. 10.0.0.1:5000:10.0.0.2:6000:17
+         */
+        final String label;
+
+        /**
+         * Last path the flow was reported on. Changed while holding the flow's monitor.
+         */
+        volatile FlowPath path;
+
+        // Guarded by the segment of the flow
+        long lastSeenNanos;
+        Flow newer;
+        Flow older;
+
+        Flow(long keyHigh, long keyLow) {
+            this.keyHigh = keyHigh;
+            this.keyLow = keyLow;
+            this.label = new StringBuilder()
+                    .append(Ip4Address.valueOf((int) (keyHigh >>> 32))).append(':')
+                    .append((int) (keyLow >>> 24) & 0xffff).append(':')
+                    .append(Ip4Address.valueOf((int) keyHigh)).append(':')
+                    .append((int) (keyLow >>> 8) & 0xffff).append(':')
+                    .append((int) keyLow & 0xff)
+                    .toString();
+        }
+    }
+
+    /**
+     * Path of a flow with the last latencies reported on it. Replaced as a whole when the path changes.
+     * <p>
+     * The latencies are written by the ingest channels and read when the metrics are collected. They
+     * are ints, so a reader sees either the previous or the next value.
+     */
+    static final class FlowPath {
+        final Path path;
+
+        /**
+         * Switches of the path, shared with {@link #path}.
+         */
+        final int[] switchIds;
+
+        /**
+         * Switches of the path and flow label, e.g. s1.s2.s3.-10.0.0.1:5000:10.0.0.2:6000:17
+         */
+        final String label;
+
+        /**
+         * Latency of each hop of the path, in the order of {@link #switchIds}.
+         */
+        final int[] hopLatencies;
+
+        int flowLatency;
+
+        FlowPath(Path path, String label) {
+            this.path = path;
+            this.switchIds = path.switchIds;
+            this.label = label;
+            this.hopLatencies = new int[switchIds.length];
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package io.prometheus.client.exporter;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.common.TextFormat;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
@@ -17,6 +23,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 import com.sun.net.httpserver.HttpHandler;
@@ -34,6 +41,14 @@ import com.sun.net.httpserver.HttpExchange;
  * </pre>
  * */
 public class HTTPServer {
+    /**
+     * Size of the buffers a streamed scrape is written through.
+     */
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    static final String SHARD_PATH = "/metrics/shard/";
+    static final String SWITCH_PATH = "/metrics/switch/";
+
     private static class LocalByteArray extends ThreadLocal<ByteArrayOutputStream> {
         protected ByteArrayOutputStream initialValue()
         {
@@ -44,20 +59,42 @@ public class HTTPServer {
     static class HTTPMetricHandler implements HttpHandler {
         private CollectorRegistry registry;
         private final LocalByteArray response = new LocalByteArray();
+        private final ExpositionCache cache;
+        private final boolean streaming;
 
         HTTPMetricHandler(CollectorRegistry registry) {
+          this(registry, null, false);
+        }
+
+        /**
+         * @param registry registry to expose
+         * @param cache cache of the full exposition of the registry, or null to render every scrape
+         * @param streaming whether the scrapes that are not served from the cache are streamed
+         */
+        HTTPMetricHandler(CollectorRegistry registry, ExpositionCache cache, boolean streaming) {
           this.registry = registry;
+          this.cache = cache;
+          this.streaming = streaming;
         }
 
 
         public void handle(HttpExchange t) throws IOException {
             String query = t.getRequestURI().getRawQuery();
+            Set<String> names = parseQuery(query);
+            if (cache != null && names.isEmpty()) {
+                handleCached(t);
+                return;
+            }
+            if (streaming) {
+                writeStreaming(t, registry.filteredMetricFamilySamples(names));
+                return;
+            }
 
             ByteArrayOutputStream response = this.response.get();
             response.reset();
             OutputStreamWriter osw = new OutputStreamWriter(response);
             TextFormat.write004(osw,
-                    registry.filteredMetricFamilySamples(parseQuery(query)));
+                    registry.filteredMetricFamilySamples(names));
             osw.flush();
             osw.close();
             response.flush();
@@ -80,6 +117,109 @@ public class HTTPServer {
             t.close();
         }
 
+        /**
+         * Sends the cached exposition, so concurrent scrapes get the same bytes without rendering them again,
+         * or only tells the scraper it did not change if it already has it.
+         */
+        private void handleCached(HttpExchange t) throws IOException {
+            String ifNoneMatch = t.getRequestHeaders().getFirst("If-None-Match");
+            ExpositionCache.Exposition exposition = cache.notModified(ifNoneMatch);
+            if (exposition == null) {
+                exposition = cache.get();
+            }
+            t.getResponseHeaders().set("ETag", exposition.etag);
+            if (exposition.matches(ifNoneMatch)) {
+                // The scraper already has this exposition
+                t.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                t.close();
+                return;
+            }
+            t.getResponseHeaders().set("Content-Type",
+                    TextFormat.CONTENT_TYPE_004);
+            byte[] body;
+            if (shouldUseCompression(t)) {
+                t.getResponseHeaders().set("Content-Encoding", "gzip");
+                body = exposition.gzip();
+            } else {
+                body = exposition.plain;
+            }
+            t.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+            t.getResponseBody().write(body);
+            t.close();
+        }
+    }
+
+    /**
+     * Renders the metric families straight into a chunked response through a fixed size buffer,
+     * so the memory of a scrape does not grow with the number of series.
+     */
+    static void writeStreaming(HttpExchange t, Enumeration<Collector.MetricFamilySamples> mfs)
+            throws IOException {
+        t.getResponseHeaders().set("Content-Type",
+                TextFormat.CONTENT_TYPE_004);
+        boolean gzip = shouldUseCompression(t);
+        if (gzip) {
+            t.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        // A length of 0 selects the chunked transfer encoding
+        t.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+        OutputStream os = t.getResponseBody();
+        if (gzip) {
+            os = new GZIPOutputStream(os, STREAM_BUFFER_SIZE);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os), STREAM_BUFFER_SIZE);
+        try {
+            TextFormat.write004(writer, mfs);
+            writer.flush();
+        } finally {
+            // Finishes the gzip stream and the last chunk
+            writer.close();
+            t.close();
+        }
+    }
+
+    /**
+     * Serves the shards of the sharded metrics under /metrics/shard/{n} and the switches under
+     * /metrics/switch/{id}, streamed like the full exposition.
+     */
+    static class ShardHandler implements HttpHandler {
+        private final ShardedMetrics sharded;
+
+        ShardHandler(ShardedMetrics sharded) {
+            this.sharded = sharded;
+        }
+
+        public void handle(HttpExchange t) throws IOException {
+            List<Collector.MetricFamilySamples> mfs = shardSamples(sharded, t.getRequestURI().getPath());
+            if (mfs == null) {
+                t.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                t.close();
+                return;
+            }
+            writeStreaming(t, Collections.enumeration(mfs));
+        }
+    }
+
+    /**
+     * Collects the metrics a shard or switch path asks for.
+     *
+     * @param sharded sharded metrics
+     * @param path path of the request, e.g. /metrics/shard/3 or /metrics/switch/42
+     * @return metric families, or null if the path does not name a shard or a switch
+     */
+    static List<Collector.MetricFamilySamples> shardSamples(ShardedMetrics sharded, String path) {
+        try {
+            if (path.startsWith(SHARD_PATH)) {
+                int shard = Integer.parseInt(path.substring(SHARD_PATH.length()));
+                return shard >= 0 && shard < sharded.shards() ? sharded.collectShard(shard) : null;
+            }
+            if (path.startsWith(SWITCH_PATH)) {
+                return sharded.collectSwitch(Integer.parseInt(path.substring(SWITCH_PATH.length())));
+            }
+        } catch (NumberFormatException e) {
+            // Not a shard or switch number
+        }
+        return null;
     }
 
     protected static boolean shouldUseCompression(HttpExchange exchange) {
@@ -138,17 +278,167 @@ public class HTTPServer {
 
 
     /**
-     * Start a HTTP server serving Prometheus metrics from the given registry.
+     * Builds a HTTP server, optionally caching the exposition of its registry.
+     * <p>
+     * Example Usage:
+     * <pre>
+     * {@code
+     * HTTPServer server = HTTPServer.builder()
+     *         .withPort(1234)
+     *         .withRegistry(registry)
+     *         .withGeneration(generation)
+     *         .withCacheMaxAge(1000)
+     *         .build();
+     * }
+     * </pre>
      */
-    public HTTPServer(InetSocketAddress addr, CollectorRegistry registry, boolean daemon) throws IOException {
+    public static class Builder {
+        private InetSocketAddress address = new InetSocketAddress(0);
+        private CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+        private boolean daemon;
+        private MetricsGeneration generation;
+        private long cacheMaxAgeMillis;
+        private boolean streaming;
+        private ShardedMetrics sharded;
+
+        /**
+         * Sets the port the server listens on, on every address.
+         *
+         * @param port HTTP port, or 0 for an ephemeral port
+         * @return this
+         */
+        public Builder withPort(int port) {
+            this.address = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * Sets the address the server listens on.
+         *
+         * @param address socket address
+         * @return this
+         */
+        public Builder withAddress(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * Sets the registry to expose, the default registry if not set.
+         *
+         * @param registry registry
+         * @return this
+         */
+        public Builder withRegistry(CollectorRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * Sets whether the server threads are daemon threads.
+         *
+         * @param daemon true for daemon threads
+         * @return this
+         */
+        public Builder withDaemonThreads(boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * Caches the exposition of the registry until the generation of its metrics changes.
+         *
+         * @param generation generation advanced on every change of the metrics
+         * @return this
+         */
+        public Builder withGeneration(MetricsGeneration generation) {
+            this.generation = generation;
+            return this;
+        }
+
+        /**
+         * Caches the exposition of the registry for at most the given time, which also bounds the staleness
+         * of the metrics that do not advance the generation.
+         *
+         * @param cacheMaxAgeMillis max age of the cached exposition in milliseconds, or 0 for no limit
+         * @return this
+         */
+        public Builder withCacheMaxAge(long cacheMaxAgeMillis) {
+            this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+            return this;
+        }
+
+        /**
+         * Streams the scrapes that are not served from the cache through a fixed size buffer with the
+         * chunked transfer encoding, instead of rendering them in a per thread buffer that grows to the
+         * size of the exposition.
+         *
+         * @param streaming true to stream the scrapes
+         * @return this
+         */
+        public Builder withStreaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        /**
+         * Serves the shards of the given metrics under /metrics/shard/{n} and each switch under
+         * /metrics/switch/{id}, so that they can be scraped in parallel as separate targets.
+         *
+         * @param sharded sharded metrics
+         * @return this
+         */
+        public Builder withShardedMetrics(ShardedMetrics sharded) {
+            this.sharded = sharded;
+            return this;
+        }
+
+        /**
+         * Starts the server.
+         *
+         * @return the started server
+         * @throws IOException if the server could not bind
+         */
+        public HTTPServer build() throws IOException {
+            return new HTTPServer(this);
+        }
+    }
+
+    /**
+     * Creates a builder of HTTP server.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private HTTPServer(Builder builder) throws IOException {
+        ExpositionCache cache = null;
+        if (builder.generation != null || builder.cacheMaxAgeMillis > 0) {
+            cache = new ExpositionCache(builder.registry, builder.generation, builder.cacheMaxAgeMillis > 0 ?
+                    TimeUnit.MILLISECONDS.toNanos(builder.cacheMaxAgeMillis) : Long.MAX_VALUE);
+        }
         server = HttpServer.create();
-        server.bind(addr, 3);
-        HttpHandler mHandler = new HTTPMetricHandler(registry);
+        server.bind(builder.address, 3);
+        HttpHandler mHandler = new HTTPMetricHandler(builder.registry, cache, builder.streaming);
         server.createContext("/", mHandler);
         server.createContext("/metrics", mHandler);
-        executorService = Executors.newFixedThreadPool(5, DaemonThreadFactory.defaultThreadFactory(daemon));
+        if (builder.sharded != null) {
+            HttpHandler shardHandler = new ShardHandler(builder.sharded);
+            server.createContext(SHARD_PATH, shardHandler);
+            server.createContext(SWITCH_PATH, shardHandler);
+        }
+        executorService = Executors.newFixedThreadPool(5, DaemonThreadFactory.defaultThreadFactory(builder.daemon));
         server.setExecutor(executorService);
-        start(daemon);
+        start(builder.daemon);
+    }
+
+    /**
+     * Start a HTTP server serving Prometheus metrics from the given registry.
+     */
+    public HTTPServer(InetSocketAddress addr, CollectorRegistry registry, boolean daemon) throws IOException {
+        this(builder().withAddress(addr).withRegistry(registry).withDaemonThreads(daemon));
     }
 
     /**
@@ -0,0 +1,819 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.FlowTable.FlowPath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+import static java.lang.String.valueOf;
+
+/**
+ * Holds the INT metric values in primitive tables and renders them into samples only when the
+ * registry is collected, so that a report costs hash probes and array stores instead of label lookups.
+ * <p>
+ * The flow and hop latencies are kept with the current path of each flow in the flow table of the
+ * exporter. The queue congestion and egress port TX utilization are kept per (switch, queue) and
+ * per (switch, port).
+ * <p>
+ * With the {@link INTExporter.MetricLayout#PER_SWITCH_FAMILIES} layout, each switch has its own families:
+ * <pre>
+ * hop_latency_duration_s1{flow="10.0.0.1:5000:10.0.0.2:6000:17"} 80
+ * queue_congestion_status_percentage_s1{queueId="0"} 5
+ * egress_port_tx_utilization_percentage_s1{port_id="2"} 5
+ * </pre>
+ * With the {@link INTExporter.MetricLayout#SWITCH_LABEL} layout, the switch is a label of fixed families:
+ * <pre>
+ * hop_latency_duration{switch_id="1",flow="10.0.0.1:5000:10.0.0.2:6000:17"} 80
+ * queue_congestion_status_percentage{switch_id="1",queueId="0"} 5
+ * egress_port_tx_utilization_percentage{switch_id="1",port_id="2"} 5
+ * </pre>
+ * In both layouts, flow_latency_duration{flowandpath="s1.s2.s3.-10.0.0.1:5000:10.0.0.2:6000:17"} holds
+ * the total latency of each flow and its path. When the exporter tracks the {@link TopFlows}, only the
+ * top flows get hop_latency_duration and flow_latency_duration series; the others are only counted in
+ * the per path and per switch aggregates.
+ * <p>
+ * The hop latency, queue occupancy and queue congestion of every report are also observed in per switch
+ * {@link Distribution}s, rendered as summaries with a switch_id label whatever the layout:
+ * <pre>
+ * hop_latency_distribution{switch_id="1",quantile="0.99"} 80
+ * hop_latency_distribution_count{switch_id="1"} 1000
+ * hop_latency_distribution_sum{switch_id="1"} 42000
+ * </pre>
+ * The reports of all the flows on a path are aggregated per path, whatever the number of flows:
+ * <pre>
+ * path_latency_distribution{path="s1.s2.s3",quantile="0.99"} 240
+ * path_reports_total{path="s1.s2.s3"} 1000
+ * path_last_seen_timestamp_seconds{path="s1.s2.s3"} 1.5E9
+ * </pre>
+ * When the hops carry their time stamps, the latency of each link between two consecutive hops, from the
+ * egress of a switch to the ingress of the next one, is observed in a distribution per link:
+ * <pre>
+ * link_latency_distribution{src_switch_id="1",src_port_id="2",dst_switch_id="2",dst_port_id="1",quantile="0.99"} 12
+ * </pre>
+ * The sequence numbers of the reports of each source, i.e. hardware subsystem of a switch, are tracked by a
+ * {@link SequenceTracker} to account for the lost reports:
+ * <pre>
+ * int_collector_sequence_lost_total{switch_id="1",hw_id="0"} 12
+ * int_collector_report_loss_ratio{switch_id="1",hw_id="0"} 0.001
+ * </pre>
+ * The drop and congestion reports, with the D or Q bit set, are counted per switch and queue:
+ * <pre>
+ * packet_drop_reports_total{switch_id="1",queue_id="0"} 3
+ * queue_congestion_reports_total{switch_id="1",queue_id="0"} 7
+ * </pre>
+ * The maximum and minimum hop latency, queue congestion and egress port TX utilization since the last
+ * collect are kept in {@link PeakTable}s, so that bursts between two scrapes or pushes are not missed:
+ * <pre>
+ * hop_latency_max{switch_id="1"} 400
+ * queue_congestion_status_max{switch_id="1",queueId="0"} 90
+ * egress_port_tx_utilization_min{switch_id="1",port_id="2"} 5
+ * </pre>
+ * The metrics can also be collected for a subset of the switches, e.g. a shard of them, so that the
+ * switches can be scraped in parallel. Each series belongs to one switch: the hop, queue, port, distribution,
+ * sequence, event and bound series to their switch, the flow and path series to the last switch of the path, which
+ * sends the reports, and the link series to the switch the link enters.
+ */
+class INTCollector extends Collector implements Collector.Describable {
+
+    static final String HOP_LATENCY = "hop_latency_duration";
+    static final String FLOW_LATENCY = "flow_latency_duration";
+    static final String QUEUE_CONGESTION = "queue_congestion_status_percentage";
+    static final String EGRESS_PORT_TX_UTILIZATION = "egress_port_tx_utilization_percentage";
+
+    static final String HOP_LATENCY_DISTRIBUTION = "hop_latency_distribution";
+    static final String QUEUE_OCCUPANCY_DISTRIBUTION = "queue_occupancy_distribution";
+    static final String QUEUE_CONGESTION_DISTRIBUTION = "queue_congestion_distribution";
+
+    static final String LINK_LATENCY_DISTRIBUTION = "link_latency_distribution";
+    static final String PATH_LATENCY_DISTRIBUTION = "path_latency_distribution";
+    static final String PATH_REPORTS = "path_reports_total";
+    static final String PATH_LAST_SEEN = "path_last_seen_timestamp_seconds";
+    static final String SEQUENCE_REPORTS = "int_collector_sequence_reports_total";
+    static final String SEQUENCE_LOST = "int_collector_sequence_lost_total";
+    static final String SEQUENCE_DUPLICATES = "int_collector_sequence_duplicates_total";
+    static final String SEQUENCE_REORDERED = "int_collector_sequence_reordered_total";
+    static final String SEQUENCE_WRAPS = "int_collector_sequence_wraps_total";
+    static final String SEQUENCE_RESETS = "int_collector_sequence_resets_total";
+    static final String REPORT_LOSS_RATIO = "int_collector_report_loss_ratio";
+    static final String DROP_REPORTS = "packet_drop_reports_total";
+    static final String CONGESTION_REPORTS = "queue_congestion_reports_total";
+    static final String HOP_LATENCY_MAX = "hop_latency_max";
+    static final String HOP_LATENCY_MIN = "hop_latency_min";
+    static final String QUEUE_CONGESTION_MAX = "queue_congestion_status_max";
+    static final String QUEUE_CONGESTION_MIN = "queue_congestion_status_min";
+    static final String EGRESS_PORT_TX_UTILIZATION_MAX = "egress_port_tx_utilization_max";
+    static final String EGRESS_PORT_TX_UTILIZATION_MIN = "egress_port_tx_utilization_min";
+
+    /**
+     * Length of the windows of the distributions, whose quantiles cover the last one to two windows.
+     */
+    static final long DISTRIBUTION_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final String HOP_LATENCY_HELP = "Shows hop latency for each flow";
+    private static final String FLOW_LATENCY_HELP = "Shows total flows latency and its path";
+    private static final String QUEUE_CONGESTION_HELP = "Shows queue congestion status of each queue for the switch";
+    private static final String EGRESS_PORT_TX_UTILIZATION_HELP =
+            "Shows egress port TX utilization for each switch port";
+    private static final String HOP_LATENCY_DISTRIBUTION_HELP = "Distribution of the hop latency of each switch";
+    private static final String QUEUE_OCCUPANCY_DISTRIBUTION_HELP =
+            "Distribution of the queue occupancy of each switch";
+    private static final String QUEUE_CONGESTION_DISTRIBUTION_HELP =
+            "Distribution of the queue congestion status of each switch";
+    private static final String LINK_LATENCY_DISTRIBUTION_HELP =
+            "Distribution of the latency of each link between two consecutive hops";
+    private static final String PATH_LATENCY_DISTRIBUTION_HELP = "Distribution of the total latency of each path";
+    private static final String PATH_REPORTS_HELP = "Number of reports of the flows on each path";
+    private static final String PATH_LAST_SEEN_HELP =
+            "Time of the last report on each path, in seconds since the epoch";
+    private static final String SEQUENCE_REPORTS_HELP = "Number of reports received from each source";
+    private static final String SEQUENCE_LOST_HELP =
+            "Estimated number of reports of each source lost before being processed, from the sequence number gaps";
+    private static final String SEQUENCE_DUPLICATES_HELP =
+            "Number of reports of each source with a repeated sequence number";
+    private static final String SEQUENCE_REORDERED_HELP = "Number of reports of each source received out of order";
+    private static final String SEQUENCE_WRAPS_HELP =
+            "Number of times the sequence number of each source wrapped around";
+    private static final String SEQUENCE_RESETS_HELP = "Number of times each source restarted its sequence numbers";
+    private static final String REPORT_LOSS_RATIO_HELP =
+            "Estimated ratio of the reports of each source lost since it was first seen";
+    private static final String DROP_REPORTS_HELP = "Number of reports of dropped packets of each queue";
+    private static final String CONGESTION_REPORTS_HELP = "Number of reports of congestion of each queue";
+    private static final String HOP_LATENCY_MAX_HELP = "Maximum hop latency of each switch since the last collect";
+    private static final String HOP_LATENCY_MIN_HELP = "Minimum hop latency of each switch since the last collect";
+    private static final String QUEUE_CONGESTION_MAX_HELP =
+            "Maximum queue congestion status of each queue since the last collect";
+    private static final String QUEUE_CONGESTION_MIN_HELP =
+            "Minimum queue congestion status of each queue since the last collect";
+    private static final String EGRESS_PORT_TX_UTILIZATION_MAX_HELP =
+            "Maximum egress port TX utilization of each switch port since the last collect";
+    private static final String EGRESS_PORT_TX_UTILIZATION_MIN_HELP =
+            "Minimum egress port TX utilization of each switch port since the last collect";
+
+    private static final List<String> SWITCH_HOP_LATENCY_LABELS = Arrays.asList("switch_id", "flow");
+    private static final List<String> SWITCH_QUEUE_CONGESTION_LABELS = Arrays.asList("switch_id", "queueId");
+    private static final List<String> SWITCH_EGRESS_PORT_TX_UTILIZATION_LABELS =
+            Arrays.asList("switch_id", "port_id");
+    private static final List<String> SWITCH_LABELS = Collections.singletonList("switch_id");
+    private static final List<String> SOURCE_LABELS = Arrays.asList("switch_id", "hw_id");
+    private static final List<String> SWITCH_QUEUE_LABELS = Arrays.asList("switch_id", "queue_id");
+    private static final List<String> PATH_LABELS = Collections.singletonList("path");
+    private static final List<String> LINK_LABELS =
+            Arrays.asList("src_switch_id", "src_port_id", "dst_switch_id", "dst_port_id");
+    private static final List<String> HOP_LATENCY_LABELS = Collections.singletonList("flow");
+    private static final List<String> FLOW_LATENCY_LABELS = Collections.singletonList("flowandpath");
+    private static final List<String> QUEUE_CONGESTION_LABELS = Collections.singletonList("queueId");
+    private static final List<String> EGRESS_PORT_TX_UTILIZATION_LABELS = Collections.singletonList("port_id");
+
+    private final FlowTable flows;
+    private final PathTable paths;
+    private final LinkTable links;
+    private final TopFlows topFlows;
+    private final boolean switchLabel;
+    // Names the registry knows this collector by, from describe(), as it records them on registration
+    private final Set<String> describedNames = new HashSet<>();
+
+    /**
+     * Last value per (switch, queue) and per (switch, port), keyed by the switch id in the 32 most significant
+     * bits and the queue or port id in the others.
+     */
+    private final LongDoubleTable queueCongestion = new LongDoubleTable();
+    private final LongDoubleTable egressPortTxUtilization = new LongDoubleTable();
+
+    /**
+     * Bounds since the last collect, keyed by the switch id for the hop latency and as the last values
+     * for the queue congestion and egress port TX utilization.
+     */
+    private final PeakTable hopLatencyPeaks = new PeakTable();
+    private final PeakTable queueCongestionPeaks = new PeakTable();
+    private final PeakTable egressPortTxUtilizationPeaks = new PeakTable();
+
+    private final SwitchTable<SwitchMetrics> switches = new SwitchTable<>();
+
+    /**
+     * Sequence trackers of each switch, by hardware id.
+     */
+    private final SwitchTable<AtomicReferenceArray<SequenceTracker>> sources = new SwitchTable<>();
+    private static final int HW_IDS = 64;
+
+    /**
+     * Drop and congestion report counts of each switch, by queue id.
+     */
+    private final SwitchTable<QueueEvents> events = new SwitchTable<>();
+    private static final int QUEUE_IDS = 256;
+
+    /**
+     * @param flows flow table holding the flow and hop latencies
+     * @param paths path table holding the per path aggregates
+     * @param links link table holding the link latencies
+     * @param topFlows flows that get per flow series, or null to export every flow
+     * @param layout layout of the per switch metrics
+     */
+    INTCollector(FlowTable flows, PathTable paths, LinkTable links, TopFlows topFlows,
+                 INTExporter.MetricLayout layout) {
+        this.flows = flows;
+        this.paths = paths;
+        this.links = links;
+        this.topFlows = topFlows;
+        this.switchLabel = layout == INTExporter.MetricLayout.SWITCH_LABEL;
+        for (MetricFamilySamples family : describe()) {
+            describedNames.add(family.name);
+            if (family.type == Type.SUMMARY) {
+                describedNames.add(family.name + "_count");
+                describedNames.add(family.name + "_sum");
+            }
+        }
+    }
+
+    void setQueueCongestion(int switchId, int queueId, int value) {
+        long key = key(switchId, queueId);
+        queueCongestion.set(key, value);
+        queueCongestionPeaks.observe(key, value);
+    }
+
+    void setEgressPortTxUtilization(int switchId, short egressPortId, int value) {
+        long key = key(switchId, egressPortId);
+        egressPortTxUtilization.set(key, value);
+        egressPortTxUtilizationPeaks.observe(key, value);
+    }
+
+    /**
+     * Observes the values of a hop in the distributions and hop latency bounds of its switch.
+     *
+     * @param switchId switch id
+     * @param hopLatency hop latency
+     * @param queueOccupancy queue occupancy
+     * @param queueCongestion queue congestion
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    void observeHop(int switchId, int hopLatency, int queueOccupancy, int queueCongestion, long nowNanos) {
+        hopLatencyPeaks.observe(switchId, hopLatency);
+        SwitchMetrics metrics = switches.get(switchId, id -> new SwitchMetrics());
+        // The INT values are unsigned
+        metrics.hopLatency.observe(hopLatency & 0xffffffffL, nowNanos);
+        metrics.queueOccupancy.observe(queueOccupancy & 0xffffffffL, nowNanos);
+        metrics.queueCongestion.observe(queueCongestion & 0xffffffffL, nowNanos);
+    }
+
+    /**
+     * Counts the flows that get per flow series, i.e. the top flows that were reported with INT metadata,
+     * and their flow and hop latency series.
+     *
+     * @return number of flows and number of series
+     */
+    long[] exportedFlows() {
+        TopFlows.Keys top = topFlows != null ? topFlows.top() : null;
+        long[] counts = new long[2];
+        flows.forEach(flow -> {
+            FlowPath path = flow.path;
+            if (path == null || top != null && !top.contains(flow.keyHigh, flow.keyLow)) {
+                return;
+            }
+            counts[0]++;
+            counts[1] += path.switchIds.length + 1;
+        });
+        return counts;
+    }
+
+    /**
+     * Accounts for the sequence number of a report.
+     *
+     * @param switchId switch that sent the report
+     * @param hwId hardware subsystem of the switch that sent the report
+     * @param sequence sequence number of the report
+     */
+    void reportReceived(int switchId, int hwId, int sequence) {
+        AtomicReferenceArray<SequenceTracker> trackers = sources.get(switchId,
+                id -> new AtomicReferenceArray<>(HW_IDS));
+        int i = hwId & (HW_IDS - 1);
+        SequenceTracker tracker = trackers.get(i);
+        if (tracker == null) {
+            trackers.compareAndSet(i, null, new SequenceTracker());
+            tracker = trackers.get(i);
+        }
+        tracker.report(sequence);
+    }
+
+    /**
+     * Counts a drop or congestion report.
+     *
+     * @param switchId switch that sent the report
+     * @param queueId queue the report is about
+     * @param dropped whether the report is about dropped packets, i.e. has the D bit set
+     * @param congestion whether the report is about congestion, i.e. has the Q bit set
+     */
+    void reportEvents(int switchId, int queueId, boolean dropped, boolean congestion) {
+        QueueEvents queues = events.get(switchId, id -> new QueueEvents());
+        int i = queueId & (QUEUE_IDS - 1);
+        if (dropped) {
+            queues.drops.incrementAndGet(i);
+        }
+        if (congestion) {
+            queues.congestions.incrementAndGet(i);
+        }
+    }
+
+    /**
+     * Observes the latency of the link from a switch to the next switch of a path.
+     * <p>
+     * The latency is the difference of two 32-bit time stamps of the switches, which wrap around:
+     * the int subtraction of the time stamps is the latency as long as it is below 2^31 ticks. A
+     * negative difference means that the clocks of the switches are not in sync and is ignored.
+     *
+     * @param srcSwitchId switch the link leaves
+     * @param srcPortId egress port of the switch the link leaves
+     * @param dstSwitchId switch the link enters
+     * @param dstPortId ingress port of the switch the link enters
+     * @param latency ingress time stamp of the destination switch minus egress time stamp of the source switch
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    void observeLink(int srcSwitchId, short srcPortId, int dstSwitchId, short dstPortId, int latency,
+                     long nowNanos) {
+        if (latency >= 0) {
+            links.link(srcSwitchId, srcPortId, dstSwitchId, dstPortId).observed(latency, nowNanos);
+        }
+    }
+
+    /**
+     * Describes the families that exist whatever the switches, so that the registry can serve them by name.
+     */
+    @Override
+    public List<MetricFamilySamples> describe() {
+        List<MetricFamilySamples.Sample> none = Collections.emptyList();
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        mfs.add(new MetricFamilySamples(FLOW_LATENCY, Type.GAUGE, FLOW_LATENCY_HELP, none));
+        if (switchLabel) {
+            mfs.add(new MetricFamilySamples(HOP_LATENCY, Type.GAUGE, HOP_LATENCY_HELP, none));
+            mfs.add(new MetricFamilySamples(QUEUE_CONGESTION, Type.GAUGE, QUEUE_CONGESTION_HELP, none));
+            mfs.add(new MetricFamilySamples(EGRESS_PORT_TX_UTILIZATION, Type.GAUGE, EGRESS_PORT_TX_UTILIZATION_HELP,
+                    none));
+        }
+        mfs.add(new MetricFamilySamples(HOP_LATENCY_DISTRIBUTION, Type.SUMMARY, HOP_LATENCY_DISTRIBUTION_HELP, none));
+        mfs.add(new MetricFamilySamples(QUEUE_OCCUPANCY_DISTRIBUTION, Type.SUMMARY, QUEUE_OCCUPANCY_DISTRIBUTION_HELP,
+                none));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION_DISTRIBUTION, Type.SUMMARY,
+                QUEUE_CONGESTION_DISTRIBUTION_HELP, none));
+        mfs.add(new MetricFamilySamples(LINK_LATENCY_DISTRIBUTION, Type.SUMMARY, LINK_LATENCY_DISTRIBUTION_HELP,
+                none));
+        mfs.add(new MetricFamilySamples(PATH_LATENCY_DISTRIBUTION, Type.SUMMARY, PATH_LATENCY_DISTRIBUTION_HELP,
+                none));
+        mfs.add(new MetricFamilySamples(PATH_REPORTS, Type.COUNTER, PATH_REPORTS_HELP, none));
+        mfs.add(new MetricFamilySamples(PATH_LAST_SEEN, Type.GAUGE, PATH_LAST_SEEN_HELP, none));
+        mfs.add(new MetricFamilySamples(SEQUENCE_REPORTS, Type.COUNTER, SEQUENCE_REPORTS_HELP, none));
+        mfs.add(new MetricFamilySamples(SEQUENCE_LOST, Type.COUNTER, SEQUENCE_LOST_HELP, none));
+        mfs.add(new MetricFamilySamples(SEQUENCE_DUPLICATES, Type.COUNTER, SEQUENCE_DUPLICATES_HELP, none));
+        mfs.add(new MetricFamilySamples(SEQUENCE_REORDERED, Type.COUNTER, SEQUENCE_REORDERED_HELP, none));
+        mfs.add(new MetricFamilySamples(SEQUENCE_WRAPS, Type.COUNTER, SEQUENCE_WRAPS_HELP, none));
+        mfs.add(new MetricFamilySamples(SEQUENCE_RESETS, Type.COUNTER, SEQUENCE_RESETS_HELP, none));
+        mfs.add(new MetricFamilySamples(REPORT_LOSS_RATIO, Type.GAUGE, REPORT_LOSS_RATIO_HELP, none));
+        mfs.add(new MetricFamilySamples(DROP_REPORTS, Type.COUNTER, DROP_REPORTS_HELP, none));
+        mfs.add(new MetricFamilySamples(CONGESTION_REPORTS, Type.COUNTER, CONGESTION_REPORTS_HELP, none));
+        mfs.add(new MetricFamilySamples(HOP_LATENCY_MAX, Type.GAUGE, HOP_LATENCY_MAX_HELP, none));
+        mfs.add(new MetricFamilySamples(HOP_LATENCY_MIN, Type.GAUGE, HOP_LATENCY_MIN_HELP, none));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION_MAX, Type.GAUGE, QUEUE_CONGESTION_MAX_HELP, none));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION_MIN, Type.GAUGE, QUEUE_CONGESTION_MIN_HELP, none));
+        mfs.add(new MetricFamilySamples(EGRESS_PORT_TX_UTILIZATION_MAX, Type.GAUGE,
+                EGRESS_PORT_TX_UTILIZATION_MAX_HELP, none));
+        mfs.add(new MetricFamilySamples(EGRESS_PORT_TX_UTILIZATION_MIN, Type.GAUGE,
+                EGRESS_PORT_TX_UTILIZATION_MIN_HELP, none));
+        return mfs;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        return collect(switchId -> true);
+    }
+
+    /**
+     * Tells whether the registry serves any of the given names from this collector, i.e. whether one of them is
+     * described by {@link #describe()}.
+     *
+     * @param names metric names
+     * @return true if one of the names is described
+     */
+    boolean isDescribed(Set<String> names) {
+        for (String name : names) {
+            if (describedNames.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the per switch families among the given names, e.g. hop_latency_duration_s1. These families
+     * come and go with the switches, so {@link #describe()} can't list them and the registry does not
+     * serve them by name. Nothing is reset, as the bounds are not per switch families.
+     *
+     * @param names metric names
+     * @return per switch families with one of the names, empty with the switch label layout
+     */
+    List<MetricFamilySamples> collectPerSwitchFamilies(Set<String> names) {
+        Set<Integer> switchIds = new HashSet<>();
+        if (!switchLabel) {
+            for (String name : names) {
+                Integer switchId = perSwitchFamilySwitchId(name);
+                if (switchId != null) {
+                    switchIds.add(switchId);
+                }
+            }
+        }
+        if (switchIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        for (MetricFamilySamples family : collectPerSwitchFamilies(switchIds::contains)) {
+            if (names.contains(family.name)) {
+                mfs.add(family);
+            }
+        }
+        return mfs;
+    }
+
+    private static Integer perSwitchFamilySwitchId(String name) {
+        for (String family : new String[] {HOP_LATENCY, QUEUE_CONGESTION, EGRESS_PORT_TX_UTILIZATION}) {
+            if (name.length() > family.length() + 2 && name.startsWith(family + "_s")) {
+                try {
+                    return Integer.valueOf(name.substring(family.length() + 2));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renders the series of the switches accepted by the given filter, skipping the others in the tables
+     * before any sample is built. The bounds of the accepted switches are reset as by {@link #collect()},
+     * the ones of the other switches are kept for their own collect.
+     *
+     * @param switchFilter filter of the switch ids
+     * @return metric families, with the same names as {@link #collect()}
+     */
+    List<MetricFamilySamples> collect(IntPredicate switchFilter) {
+        List<MetricFamilySamples> mfs = switchLabel ? collectSwitchLabel(switchFilter)
+                : collectPerSwitchFamilies(switchFilter);
+        collectDistributions(mfs, switchFilter);
+        collectSequences(mfs, switchFilter);
+        collectEvents(mfs, switchFilter);
+        collectPeaks(mfs, switchFilter);
+        return mfs;
+    }
+
+    /**
+     * Gets the shard of a switch, spreading consecutive switch ids over the shards.
+     *
+     * @param switchId switch id
+     * @param shards number of shards
+     * @return shard, from 0 to shards - 1
+     */
+    static int shard(int switchId, int shards) {
+        int h = switchId * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards);
+    }
+
+    private void collectSequences(List<MetricFamilySamples> mfs, IntPredicate switchFilter) {
+        Map<Integer, AtomicReferenceArray<SequenceTracker>> bySwitch = new TreeMap<>();
+        sources.forEach((switchId, trackers) -> {
+            if (switchFilter.test(switchId)) {
+                bySwitch.put(switchId, trackers);
+            }
+        });
+        List<MetricFamilySamples.Sample> reports = new ArrayList<>();
+        List<MetricFamilySamples.Sample> lost = new ArrayList<>();
+        List<MetricFamilySamples.Sample> duplicates = new ArrayList<>();
+        List<MetricFamilySamples.Sample> reordered = new ArrayList<>();
+        List<MetricFamilySamples.Sample> wraps = new ArrayList<>();
+        List<MetricFamilySamples.Sample> resets = new ArrayList<>();
+        List<MetricFamilySamples.Sample> lossRatios = new ArrayList<>();
+        for (Map.Entry<Integer, AtomicReferenceArray<SequenceTracker>> entry : bySwitch.entrySet()) {
+            for (int hwId = 0; hwId < HW_IDS; hwId++) {
+                SequenceTracker tracker = entry.getValue().get(hwId);
+                if (tracker == null) {
+                    continue;
+                }
+                List<String> labelValues = Arrays.asList(valueOf(entry.getKey()), valueOf(hwId));
+                reports.add(new MetricFamilySamples.Sample(SEQUENCE_REPORTS, SOURCE_LABELS, labelValues,
+                        tracker.received.sum()));
+                lost.add(new MetricFamilySamples.Sample(SEQUENCE_LOST, SOURCE_LABELS, labelValues,
+                        Math.max(0, tracker.lost.sum())));
+                duplicates.add(new MetricFamilySamples.Sample(SEQUENCE_DUPLICATES, SOURCE_LABELS, labelValues,
+                        tracker.duplicates.sum()));
+                reordered.add(new MetricFamilySamples.Sample(SEQUENCE_REORDERED, SOURCE_LABELS, labelValues,
+                        tracker.reordered.sum()));
+                wraps.add(new MetricFamilySamples.Sample(SEQUENCE_WRAPS, SOURCE_LABELS, labelValues,
+                        tracker.wraps.sum()));
+                resets.add(new MetricFamilySamples.Sample(SEQUENCE_RESETS, SOURCE_LABELS, labelValues,
+                        tracker.resets.sum()));
+                lossRatios.add(new MetricFamilySamples.Sample(REPORT_LOSS_RATIO, SOURCE_LABELS, labelValues,
+                        tracker.lossRatio()));
+            }
+        }
+        mfs.add(new MetricFamilySamples(SEQUENCE_REPORTS, Type.COUNTER, SEQUENCE_REPORTS_HELP, reports));
+        mfs.add(new MetricFamilySamples(SEQUENCE_LOST, Type.COUNTER, SEQUENCE_LOST_HELP, lost));
+        mfs.add(new MetricFamilySamples(SEQUENCE_DUPLICATES, Type.COUNTER, SEQUENCE_DUPLICATES_HELP, duplicates));
+        mfs.add(new MetricFamilySamples(SEQUENCE_REORDERED, Type.COUNTER, SEQUENCE_REORDERED_HELP, reordered));
+        mfs.add(new MetricFamilySamples(SEQUENCE_WRAPS, Type.COUNTER, SEQUENCE_WRAPS_HELP, wraps));
+        mfs.add(new MetricFamilySamples(SEQUENCE_RESETS, Type.COUNTER, SEQUENCE_RESETS_HELP, resets));
+        mfs.add(new MetricFamilySamples(REPORT_LOSS_RATIO, Type.GAUGE, REPORT_LOSS_RATIO_HELP, lossRatios));
+    }
+
+    private void collectEvents(List<MetricFamilySamples> mfs, IntPredicate switchFilter) {
+        Map<Integer, QueueEvents> bySwitch = new TreeMap<>();
+        events.forEach((switchId, queues) -> {
+            if (switchFilter.test(switchId)) {
+                bySwitch.put(switchId, queues);
+            }
+        });
+        List<MetricFamilySamples.Sample> drops = new ArrayList<>();
+        List<MetricFamilySamples.Sample> congestions = new ArrayList<>();
+        for (Map.Entry<Integer, QueueEvents> entry : bySwitch.entrySet()) {
+            QueueEvents queues = entry.getValue();
+            for (int queueId = 0; queueId < QUEUE_IDS; queueId++) {
+                long dropCount = queues.drops.get(queueId);
+                long congestionCount = queues.congestions.get(queueId);
+                // Only the queues reported on
+                if (dropCount == 0 && congestionCount == 0) {
+                    continue;
+                }
+                List<String> labelValues = Arrays.asList(valueOf(entry.getKey()), valueOf(queueId));
+                drops.add(new MetricFamilySamples.Sample(DROP_REPORTS, SWITCH_QUEUE_LABELS, labelValues, dropCount));
+                congestions.add(new MetricFamilySamples.Sample(CONGESTION_REPORTS, SWITCH_QUEUE_LABELS, labelValues,
+                        congestionCount));
+            }
+        }
+        mfs.add(new MetricFamilySamples(DROP_REPORTS, Type.COUNTER, DROP_REPORTS_HELP, drops));
+        mfs.add(new MetricFamilySamples(CONGESTION_REPORTS, Type.COUNTER, CONGESTION_REPORTS_HELP, congestions));
+    }
+
+    /**
+     * Renders the bounds since the last collect, and resets them.
+     */
+    private void collectPeaks(List<MetricFamilySamples> mfs, IntPredicate switchFilter) {
+        List<MetricFamilySamples.Sample> hopLatencyMax = new ArrayList<>();
+        List<MetricFamilySamples.Sample> hopLatencyMin = new ArrayList<>();
+        hopLatencyPeaks.collect(key -> switchFilter.test((int) key), (key, max, min) -> {
+            List<String> labelValues = Collections.singletonList(valueOf((int) key));
+            hopLatencyMax.add(new MetricFamilySamples.Sample(HOP_LATENCY_MAX, SWITCH_LABELS, labelValues, max));
+            hopLatencyMin.add(new MetricFamilySamples.Sample(HOP_LATENCY_MIN, SWITCH_LABELS, labelValues, min));
+        });
+        List<MetricFamilySamples.Sample> queueMax = new ArrayList<>();
+        List<MetricFamilySamples.Sample> queueMin = new ArrayList<>();
+        queueCongestionPeaks.collect(key -> switchFilter.test(switchId(key)), (key, max, min) -> {
+            List<String> labelValues = Arrays.asList(valueOf(switchId(key)), valueOf(id(key)));
+            queueMax.add(new MetricFamilySamples.Sample(QUEUE_CONGESTION_MAX, SWITCH_QUEUE_CONGESTION_LABELS,
+                    labelValues, max));
+            queueMin.add(new MetricFamilySamples.Sample(QUEUE_CONGESTION_MIN, SWITCH_QUEUE_CONGESTION_LABELS,
+                    labelValues, min));
+        });
+        List<MetricFamilySamples.Sample> portMax = new ArrayList<>();
+        List<MetricFamilySamples.Sample> portMin = new ArrayList<>();
+        egressPortTxUtilizationPeaks.collect(key -> switchFilter.test(switchId(key)), (key, max, min) -> {
+            List<String> labelValues = Arrays.asList(valueOf(switchId(key)), valueOf(id(key)));
+            portMax.add(new MetricFamilySamples.Sample(EGRESS_PORT_TX_UTILIZATION_MAX,
+                    SWITCH_EGRESS_PORT_TX_UTILIZATION_LABELS, labelValues, max));
+            portMin.add(new MetricFamilySamples.Sample(EGRESS_PORT_TX_UTILIZATION_MIN,
+                    SWITCH_EGRESS_PORT_TX_UTILIZATION_LABELS, labelValues, min));
+        });
+        mfs.add(new MetricFamilySamples(HOP_LATENCY_MAX, Type.GAUGE, HOP_LATENCY_MAX_HELP, hopLatencyMax));
+        mfs.add(new MetricFamilySamples(HOP_LATENCY_MIN, Type.GAUGE, HOP_LATENCY_MIN_HELP, hopLatencyMin));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION_MAX, Type.GAUGE, QUEUE_CONGESTION_MAX_HELP, queueMax));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION_MIN, Type.GAUGE, QUEUE_CONGESTION_MIN_HELP, queueMin));
+        mfs.add(new MetricFamilySamples(EGRESS_PORT_TX_UTILIZATION_MAX, Type.GAUGE,
+                EGRESS_PORT_TX_UTILIZATION_MAX_HELP, portMax));
+        mfs.add(new MetricFamilySamples(EGRESS_PORT_TX_UTILIZATION_MIN, Type.GAUGE,
+                EGRESS_PORT_TX_UTILIZATION_MIN_HELP, portMin));
+    }
+
+    private void collectDistributions(List<MetricFamilySamples> mfs, IntPredicate switchFilter) {
+        Map<Integer, SwitchMetrics> bySwitch = new TreeMap<>();
+        switches.forEach((switchId, metrics) -> {
+            if (switchFilter.test(switchId)) {
+                bySwitch.put(switchId, metrics);
+            }
+        });
+        long now = System.nanoTime();
+        List<MetricFamilySamples.Sample> hopLatencies = new ArrayList<>();
+        List<MetricFamilySamples.Sample> queueOccupancies = new ArrayList<>();
+        List<MetricFamilySamples.Sample> queueCongestions = new ArrayList<>();
+        for (Map.Entry<Integer, SwitchMetrics> entry : bySwitch.entrySet()) {
+            List<String> switchId = Collections.singletonList(valueOf(entry.getKey()));
+            addSummarySamples(hopLatencies, HOP_LATENCY_DISTRIBUTION, SWITCH_LABELS, switchId,
+                    entry.getValue().hopLatency, now);
+            addSummarySamples(queueOccupancies, QUEUE_OCCUPANCY_DISTRIBUTION, SWITCH_LABELS, switchId,
+                    entry.getValue().queueOccupancy, now);
+            addSummarySamples(queueCongestions, QUEUE_CONGESTION_DISTRIBUTION, SWITCH_LABELS, switchId,
+                    entry.getValue().queueCongestion, now);
+        }
+        List<MetricFamilySamples.Sample> linkLatencies = new ArrayList<>();
+        links.forEach(link -> {
+            // The link belongs to the switch it enters
+            if (switchFilter.test((int) link.keyHigh)) {
+                addSummarySamples(linkLatencies, LINK_LATENCY_DISTRIBUTION, LINK_LABELS, link.labelValues,
+                        link.latency, now);
+            }
+        });
+        mfs.add(new MetricFamilySamples(HOP_LATENCY_DISTRIBUTION, Type.SUMMARY, HOP_LATENCY_DISTRIBUTION_HELP,
+                hopLatencies));
+        mfs.add(new MetricFamilySamples(QUEUE_OCCUPANCY_DISTRIBUTION, Type.SUMMARY, QUEUE_OCCUPANCY_DISTRIBUTION_HELP,
+                queueOccupancies));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION_DISTRIBUTION, Type.SUMMARY,
+                QUEUE_CONGESTION_DISTRIBUTION_HELP, queueCongestions));
+        mfs.add(new MetricFamilySamples(LINK_LATENCY_DISTRIBUTION, Type.SUMMARY, LINK_LATENCY_DISTRIBUTION_HELP,
+                linkLatencies));
+
+        List<MetricFamilySamples.Sample> pathLatencies = new ArrayList<>();
+        List<MetricFamilySamples.Sample> pathReports = new ArrayList<>();
+        List<MetricFamilySamples.Sample> pathLastSeen = new ArrayList<>();
+        long nowMillis = System.currentTimeMillis();
+        paths.forEach(path -> {
+            if (!switchFilter.test(sinkSwitchId(path.switchIds))) {
+                return;
+            }
+            List<String> labelValues = Collections.singletonList(path.label);
+            addSummarySamples(pathLatencies, PATH_LATENCY_DISTRIBUTION, PATH_LABELS, labelValues, path.latency, now);
+            pathReports.add(new MetricFamilySamples.Sample(PATH_REPORTS, PATH_LABELS, labelValues,
+                    path.reports.sum()));
+            double lastSeenMillis = nowMillis - (now - path.lastSeenNanos) / 1e6;
+            pathLastSeen.add(new MetricFamilySamples.Sample(PATH_LAST_SEEN, PATH_LABELS, labelValues,
+                    lastSeenMillis / 1000));
+        });
+        mfs.add(new MetricFamilySamples(PATH_LATENCY_DISTRIBUTION, Type.SUMMARY, PATH_LATENCY_DISTRIBUTION_HELP,
+                pathLatencies));
+        mfs.add(new MetricFamilySamples(PATH_REPORTS, Type.COUNTER, PATH_REPORTS_HELP, pathReports));
+        mfs.add(new MetricFamilySamples(PATH_LAST_SEEN, Type.GAUGE, PATH_LAST_SEEN_HELP, pathLastSeen));
+    }
+
+    private static void addSummarySamples(List<MetricFamilySamples.Sample> samples, String name,
+                                          List<String> labelNames, List<String> labelValues,
+                                          Distribution distribution, long nowNanos) {
+        long[] counts = distribution.snapshot(nowNanos);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        List<String> quantileLabelNames = new ArrayList<>(labelNames);
+        quantileLabelNames.add("quantile");
+        for (double quantile : QUANTILES) {
+            List<String> quantileLabelValues = new ArrayList<>(labelValues);
+            quantileLabelValues.add(Collector.doubleToGoString(quantile));
+            samples.add(new MetricFamilySamples.Sample(name, quantileLabelNames, quantileLabelValues,
+                    QuantileSketch.quantile(counts, total, quantile)));
+        }
+        samples.add(new MetricFamilySamples.Sample(name + "_count", labelNames, labelValues, distribution.count()));
+        samples.add(new MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, distribution.sum()));
+    }
+
+    private List<MetricFamilySamples> collectSwitchLabel(IntPredicate switchFilter) {
+        List<MetricFamilySamples.Sample> hopLatencies = new ArrayList<>();
+        List<MetricFamilySamples.Sample> flowLatencies = new ArrayList<>();
+        TopFlows.Keys top = topFlows != null ? topFlows.top() : null;
+        flows.forEach(flow -> {
+            FlowPath path = flow.path;
+            if (path == null || top != null && !top.contains(flow.keyHigh, flow.keyLow)) {
+                return;
+            }
+            if (switchFilter.test(sinkSwitchId(path.switchIds))) {
+                flowLatencies.add(flowLatencySample(path));
+            }
+            for (int hop = 0; hop < path.switchIds.length; hop++) {
+                if (!switchFilter.test(path.switchIds[hop])) {
+                    continue;
+                }
+                hopLatencies.add(new MetricFamilySamples.Sample(HOP_LATENCY, SWITCH_HOP_LATENCY_LABELS,
+                        Arrays.asList(valueOf(path.switchIds[hop]), flow.label), path.hopLatencies[hop]));
+            }
+        });
+        List<MetricFamilySamples.Sample> queueSamples = new ArrayList<>();
+        queueCongestion.forEach((key, value) -> {
+            if (switchFilter.test(switchId(key))) {
+                queueSamples.add(new MetricFamilySamples.Sample(QUEUE_CONGESTION, SWITCH_QUEUE_CONGESTION_LABELS,
+                        Arrays.asList(valueOf(switchId(key)), valueOf(id(key))), value));
+            }
+        });
+        List<MetricFamilySamples.Sample> portSamples = new ArrayList<>();
+        egressPortTxUtilization.forEach((key, value) -> {
+            if (switchFilter.test(switchId(key))) {
+                portSamples.add(new MetricFamilySamples.Sample(EGRESS_PORT_TX_UTILIZATION,
+                        SWITCH_EGRESS_PORT_TX_UTILIZATION_LABELS,
+                        Arrays.asList(valueOf(switchId(key)), valueOf(id(key))), value));
+            }
+        });
+
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        mfs.add(new MetricFamilySamples(HOP_LATENCY, Type.GAUGE, HOP_LATENCY_HELP, hopLatencies));
+        mfs.add(new MetricFamilySamples(FLOW_LATENCY, Type.GAUGE, FLOW_LATENCY_HELP, flowLatencies));
+        mfs.add(new MetricFamilySamples(QUEUE_CONGESTION, Type.GAUGE, QUEUE_CONGESTION_HELP, queueSamples));
+        mfs.add(new MetricFamilySamples(EGRESS_PORT_TX_UTILIZATION, Type.GAUGE, EGRESS_PORT_TX_UTILIZATION_HELP,
+                portSamples));
+        return mfs;
+    }
+
+    private List<MetricFamilySamples> collectPerSwitchFamilies(IntPredicate switchFilter) {
+        Map<Integer, List<MetricFamilySamples.Sample>> hopLatencies = new TreeMap<>();
+        List<MetricFamilySamples.Sample> flowLatencies = new ArrayList<>();
+        TopFlows.Keys top = topFlows != null ? topFlows.top() : null;
+        flows.forEach(flow -> {
+            FlowPath path = flow.path;
+            if (path == null || top != null && !top.contains(flow.keyHigh, flow.keyLow)) {
+                return;
+            }
+            if (switchFilter.test(sinkSwitchId(path.switchIds))) {
+                flowLatencies.add(flowLatencySample(path));
+            }
+            for (int hop = 0; hop < path.switchIds.length; hop++) {
+                int switchId = path.switchIds[hop];
+                if (!switchFilter.test(switchId)) {
+                    continue;
+                }
+                hopLatencies.computeIfAbsent(switchId, id -> new ArrayList<>())
+                        .add(new MetricFamilySamples.Sample(HOP_LATENCY + "_s" + switchId, HOP_LATENCY_LABELS,
+                                Collections.singletonList(flow.label), path.hopLatencies[hop]));
+            }
+        });
+        Map<Integer, List<MetricFamilySamples.Sample>> queueSamples = new TreeMap<>();
+        queueCongestion.forEach((key, value) -> {
+            if (switchFilter.test(switchId(key))) {
+                queueSamples.computeIfAbsent(switchId(key), id -> new ArrayList<>())
+                        .add(new MetricFamilySamples.Sample(QUEUE_CONGESTION + "_s" + switchId(key),
+                                QUEUE_CONGESTION_LABELS, Collections.singletonList(valueOf(id(key))), value));
+            }
+        });
+        Map<Integer, List<MetricFamilySamples.Sample>> portSamples = new TreeMap<>();
+        egressPortTxUtilization.forEach((key, value) -> {
+            if (switchFilter.test(switchId(key))) {
+                portSamples.computeIfAbsent(switchId(key), id -> new ArrayList<>())
+                        .add(new MetricFamilySamples.Sample(EGRESS_PORT_TX_UTILIZATION + "_s" + switchId(key),
+                                EGRESS_PORT_TX_UTILIZATION_LABELS, Collections.singletonList(valueOf(id(key))),
+                                value));
+            }
+        });
+
+        List<MetricFamilySamples> mfs = new ArrayList<>();
+        mfs.add(new MetricFamilySamples(FLOW_LATENCY, Type.GAUGE, FLOW_LATENCY_HELP, flowLatencies));
+        addPerSwitchFamilies(mfs, HOP_LATENCY, HOP_LATENCY_HELP, hopLatencies);
+        addPerSwitchFamilies(mfs, QUEUE_CONGESTION, QUEUE_CONGESTION_HELP, queueSamples);
+        addPerSwitchFamilies(mfs, EGRESS_PORT_TX_UTILIZATION, EGRESS_PORT_TX_UTILIZATION_HELP, portSamples);
+        return mfs;
+    }
+
+    private static void addPerSwitchFamilies(List<MetricFamilySamples> mfs, String name, String help,
+                                             Map<Integer, List<MetricFamilySamples.Sample>> samplesBySwitch) {
+        for (Map.Entry<Integer, List<MetricFamilySamples.Sample>> entry : samplesBySwitch.entrySet()) {
+            mfs.add(new MetricFamilySamples(name + "_s" + entry.getKey(), Type.GAUGE, help, entry.getValue()));
+        }
+    }
+
+    private static MetricFamilySamples.Sample flowLatencySample(FlowPath path) {
+        return new MetricFamilySamples.Sample(FLOW_LATENCY, FLOW_LATENCY_LABELS,
+                Collections.singletonList(path.label), path.flowLatency);
+    }
+
+    /**
+     * Gets the last switch of a path, which sends its reports.
+     */
+    private static int sinkSwitchId(int[] switchIds) {
+        return switchIds.length > 0 ? switchIds[0] : 0;
+    }
+
+    private static long key(int switchId, int id) {
+        return ((long) switchId << 32) | (id & 0xffffffffL);
+    }
+
+    private static int switchId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int id(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Distributions of the INT values of a switch.
+     */
+    private static final class SwitchMetrics {
+        final Distribution hopLatency = new Distribution(DISTRIBUTION_WINDOW_NANOS);
+        final Distribution queueOccupancy = new Distribution(DISTRIBUTION_WINDOW_NANOS);
+        final Distribution queueCongestion = new Distribution(DISTRIBUTION_WINDOW_NANOS);
+    }
+
+    /**
+     * Drop and congestion report counts of a switch, indexed by queue id.
+     */
+    private static final class QueueEvents {
+        final AtomicLongArray drops = new AtomicLongArray(QUEUE_IDS);
+        final AtomicLongArray congestions = new AtomicLongArray(QUEUE_IDS);
+    }
+}
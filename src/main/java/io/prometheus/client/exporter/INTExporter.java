@@ -1,70 +1,298 @@
 package io.prometheus.client.exporter;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.exporter.FlowTable.Flow;
+import io.prometheus.client.exporter.FlowTable.FlowPath;
+import io.prometheus.client.exporter.PathTable.Path;
 import org.onosproject.monitoring.packet.*;
 
-import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
-
-import static java.lang.String.valueOf;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class INTExporter {
 
-    private final CollectorRegistry pushRegistry = new CollectorRegistry();
-    private final PushGateway pushGateway;
+    /**
+     * How the per switch metrics are laid out in metric families.
+     */
+    public enum MetricLayout {
+        /**
+         * One family per switch and metric, e.g. hop_latency_duration_s1{flow="..."}.
+         */
+        PER_SWITCH_FAMILIES,
+        /**
+         * One family per metric with a switch_id label, e.g. hop_latency_duration{switch_id="1",flow="..."}.
+         */
+        SWITCH_LABEL
+    }
+
+    private final Registry registry = new Registry();
+    private final MetricsGeneration generation = new MetricsGeneration();
+    private final PushScheduler pushScheduler;
     private static  final String JOB_NAME = "INTExporter";
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_MAX_DIRTY = 10000;
+    public static final long DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEFAULT_MAX_FLOWS = 100000;
+    public static final int DEFAULT_TOP_FLOWS = 1000;
+    private static final long MAX_EXPIRY_PERIOD_MILLIS = 1000;
+    private static final long TOP_FLOWS_DECAY_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
     /**
-     * Holds Gauge objects for each switch
-     * s1_latency_ms = {flow1 -> 80, flow2 -> 90} s2_latency_ms = {flow1 -> 80, flow2 -> 90}
-     * s3_latency_ms = {flow1 -> 80, flow2 -> 90} s4_latency_ms = {flow1 -> 80, flow2 -> 90}
+     * Per flow state, keyed by the packed 5-tuple of the flow. Holds the rendered labels of each flow.
+     * Idle flows and, once the table is full, least recently used flows are evicted along with their series.
      */
-    private final HashMap<Integer, Gauge> hopLatencyDurationGaugeList;
+    private final FlowTable flows;
+    private final ScheduledExecutorService flowExpiry;
 
     /**
-     * Gauge object that observes total latency for each flow and its path
-     * e.g. flow_latency_duration = {flow1.s1.s2.s3 -> 80, flow2.s1.s2.s3 -> 90}
+     * Paths of the flows, interned so that the flows on a path share its labels and aggregates.
      */
-    private final Gauge flowLatencyDuration;
+    private final PathTable paths;
 
     /**
-     * For each switch in the topology, queue occupancy metrics are collected. A gauge instance for each switch
-     * is instantiated for this purpose. Each queueID is a label that records each queues’ queue occupancy percentage
-     * e.g. queue_congestion_status_percentage_{SwitchID} = [{queueID}=5, ….]
+     * Links between consecutive hops of the paths, with their latencies.
      */
-    private final HashMap<Integer, Gauge> queueCongestionStatusGaugeList;
+    private final LinkTable links;
+
+    /**
+     * Flows with the most reports and the highest total latency, the only ones with per flow series,
+     * or null to export every flow.
+     */
+    private final TopFlows topFlows;
+
+    private final Counter.Child[] flowEvictions = new Counter.Child[FlowTable.EvictionCause.values().length];
+    private final Gauge trackedFlows;
+    private final Gauge livePaths;
+    private final Gauge liveLinks;
 
     /**
-     * For each switch in the topology, egress port tx utilization metrics are collected. A gauge instance for
-     * each switch is instantiated for this purpose. Each port id is a label that records egress port tx utilization
-     * percentage. E.g. egress_port_tx_utilization_percentage_{SwitchID}= [{PortID}=5, ….]
+     * Holds the INT metric values and renders them when the registry is collected.
      */
-    private final HashMap<Integer, Gauge> egressPortTxUtilizationGaugeList;
+    private final INTCollector collector;
 
     public INTExporter(String pushGWAddress) {
-        pushGateway = new PushGateway(pushGWAddress);
-        hopLatencyDurationGaugeList = new HashMap<>();
-        flowLatencyDuration = Gauge.build()
-                .name("flow_latency_duration")
-                .help("Shows total flows latency and its path")
-                .labelNames("flowandpath")
-                .register(pushRegistry);
-        queueCongestionStatusGaugeList = new HashMap<>();
-        egressPortTxUtilizationGaugeList = new HashMap<>();
+        this(pushGWAddress, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_DIRTY);
+    }
+
+    /**
+     * Creates an exporter that does not push its metrics. The registry is expected to be
+     * scraped, e.g. through {@link HTTPServer}.
+     */
+    public INTExporter() {
+        this(null);
+    }
+
+    /**
+     * Creates an exporter that pushes its metrics to the given Push GW from a background thread.
+     *
+     * @param pushGWAddress address of the Prometheus Push GW, or null to only expose the registry
+     * @param flushIntervalMillis interval between two pushes
+     * @param maxDirty number of reports after which a push is triggered before the interval elapses
+     */
+    public INTExporter(String pushGWAddress, long flushIntervalMillis, int maxDirty) {
+        this(pushGWAddress, flushIntervalMillis, maxDirty, DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS, DEFAULT_MAX_FLOWS);
+    }
+
+    /**
+     * Creates an exporter that pushes its metrics to the given Push GW from a background thread and
+     * bounds the number of flows it exports.
+     *
+     * @param pushGWAddress address of the Prometheus Push GW, or null to only expose the registry
+     * @param flushIntervalMillis interval between two pushes
+     * @param maxDirty number of reports after which a push is triggered before the interval elapses
+     * @param flowIdleTimeoutMillis time after which the series of a flow with no reports are removed
+     * @param maxFlows number of flows above which the series of the least recently reported flows are removed
+     */
+    public INTExporter(String pushGWAddress, long flushIntervalMillis, int maxDirty,
+                       long flowIdleTimeoutMillis, int maxFlows) {
+        this(pushGWAddress, flushIntervalMillis, maxDirty, flowIdleTimeoutMillis, maxFlows,
+                MetricLayout.PER_SWITCH_FAMILIES);
+    }
+
+    /**
+     * Creates an exporter that pushes its metrics to the given Push GW from a background thread,
+     * bounds the number of flows it exports and lays out the per switch metrics as given.
+     *
+     * @param pushGWAddress address of the Prometheus Push GW, or null to only expose the registry
+     * @param flushIntervalMillis interval between two pushes
+     * @param maxDirty number of reports after which a push is triggered before the interval elapses
+     * @param flowIdleTimeoutMillis time after which the series of a flow with no reports are removed
+     * @param maxFlows number of flows above which the series of the least recently reported flows are removed
+     * @param layout layout of the per switch metrics
+     */
+    public INTExporter(String pushGWAddress, long flushIntervalMillis, int maxDirty,
+                       long flowIdleTimeoutMillis, int maxFlows, MetricLayout layout) {
+        this(pushGWAddress, flushIntervalMillis, maxDirty, flowIdleTimeoutMillis, maxFlows, layout, DEFAULT_TOP_FLOWS);
+    }
+
+    /**
+     * Creates an exporter that pushes its metrics to the given Push GW from a background thread,
+     * bounds the number of flows it exports, lays out the per switch metrics as given and only
+     * exports per flow series for the top flows.
+     *
+     * @param pushGWAddress address of the Prometheus Push GW, or null to only expose the registry
+     * @param flushIntervalMillis interval between two pushes
+     * @param maxDirty number of reports after which a push is triggered before the interval elapses
+     * @param flowIdleTimeoutMillis time after which the series of a flow with no reports are removed
+     * @param maxFlows number of flows above which the series of the least recently reported flows are removed
+     * @param layout layout of the per switch metrics
+     * @param topFlows number of flows with the most reports, and of flows with the highest total latency,
+     *                 that get per flow series, or 0 to export every flow
+     */
+    public INTExporter(String pushGWAddress, long flushIntervalMillis, int maxDirty,
+                       long flowIdleTimeoutMillis, int maxFlows, MetricLayout layout, int topFlows) {
+        if (pushGWAddress != null) {
+            pushScheduler = new PushScheduler(new PushGateway(pushGWAddress), registry, JOB_NAME,
+                    flushIntervalMillis, maxDirty, generation);
+        } else {
+            pushScheduler = null;
+        }
+        Counter evictions = Counter.build()
+                .name("int_collector_flow_evictions_total")
+                .help("Number of flows whose series were removed, by cause")
+                .labelNames("cause")
+                .register(registry);
+        for (FlowTable.EvictionCause cause : FlowTable.EvictionCause.values()) {
+            flowEvictions[cause.ordinal()] = evictions.labels(cause.label());
+        }
+        trackedFlows = Gauge.build()
+                .name("int_collector_tracked_flows")
+                .help("Number of flows currently tracked, whether they are exported or not")
+                .register(registry);
+        Gauge liveFlows = Gauge.build()
+                .name("int_collector_live_flows")
+                .help("Number of flows currently exported")
+                .register(registry);
+        Gauge liveFlowSeries = Gauge.build()
+                .name("int_collector_live_flow_series")
+                .help("Number of flow and hop latency series currently exported")
+                .register(registry);
+        livePaths = Gauge.build()
+                .name("int_collector_live_paths")
+                .help("Number of paths currently exported")
+                .register(registry);
+        liveLinks = Gauge.build()
+                .name("int_collector_live_links")
+                .help("Number of links currently exported")
+                .register(registry);
+        long flowIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(flowIdleTimeoutMillis);
+        flows = new FlowTable(maxFlows, flowIdleTimeoutNanos, this::flowEvicted);
+        // A path is idle once the last of its flows is
+        paths = new PathTable(INTCollector.DISTRIBUTION_WINDOW_NANOS, flowIdleTimeoutNanos);
+        links = new LinkTable(INTCollector.DISTRIBUTION_WINDOW_NANOS, flowIdleTimeoutNanos);
+        this.topFlows = topFlows > 0 ? new TopFlows(topFlows) : null;
+        collector = new INTCollector(flows, paths, links, this.topFlows, layout).register(registry);
+        registry.collector = collector;
+        // Only the top flows are exported, so the exported flows are counted as the collector renders them
+        liveFlows.setChild(new Gauge.Child() {
+            @Override
+            public double get() {
+                return collector.exportedFlows()[0];
+            }
+        });
+        liveFlowSeries.setChild(new Gauge.Child() {
+            @Override
+            public double get() {
+                return collector.exportedFlows()[1];
+            }
+        });
+
+        long expiryPeriodMillis = Math.max(1, Math.min(MAX_EXPIRY_PERIOD_MILLIS, flowIdleTimeoutMillis / 4));
+        flowExpiry = Executors.newSingleThreadScheduledExecutor(
+                HTTPServer.DaemonThreadFactory.defaultThreadFactory(true));
+        flowExpiry.scheduleWithFixedDelay(this::expireFlows, expiryPeriodMillis, expiryPeriodMillis,
+                TimeUnit.MILLISECONDS);
+        if (this.topFlows != null) {
+            flowExpiry.scheduleWithFixedDelay(this.topFlows::decay, TOP_FLOWS_DECAY_PERIOD_MILLIS,
+                    TOP_FLOWS_DECAY_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (pushScheduler != null) {
+            pushScheduler.start();
+        }
+    }
+
+    /**
+     * Gets the registry holding the INT metrics.
+     *
+     * @return INT metrics registry
+     */
+    public CollectorRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Gets the generation of the INT metrics, advanced whenever a report or a flow eviction changes them.
+     *
+     * @return INT metrics generation
+     */
+    public MetricsGeneration getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets the INT metrics split over the given number of shards by the hash of the switch id, rendered
+     * straight from the tables of the exporter. The other metrics of the registry are not included.
+     * <p>
+     * The bounds since the last collect are reset by every collect of their switch, so a switch should be
+     * scraped either in its shard, on its own or in the full registry.
+     *
+     * @param shards number of shards
+     * @return sharded INT metrics
+     */
+    public ShardedMetrics getShardedMetrics(int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        }
+        return new ShardedMetrics() {
+            @Override
+            public int shards() {
+                return shards;
+            }
+
+            @Override
+            public List<Collector.MetricFamilySamples> collectShard(int shard) {
+                return collector.collect(switchId -> INTCollector.shard(switchId, shards) == shard);
+            }
+
+            @Override
+            public List<Collector.MetricFamilySamples> collectSwitch(int switchId) {
+                return collector.collect(id -> id == switchId);
+            }
+        };
+    }
+
+    /**
+     * Stops the background push after flushing the pending updates.
+     */
+    public void stop() {
+        flowExpiry.shutdownNow();
+        if (pushScheduler != null) {
+            pushScheduler.stop();
+        }
     }
 
 
     public void pushMetrics(TelemetryReport report) {
+        collector.reportReceived(sourceSwitchId(report), report.getHwId(), report.getSequence());
+        if (report.hasDroppedPacket() || report.hasCongestion()) {
+            collector.reportEvents(sourceSwitchId(report), sourceQueueId(report), report.hasDroppedPacket(),
+                    report.hasCongestion());
+        }
         int srcPort = 0, dstPort = 0;
-        IpAddress srcIP, dstIP;
-        if (report.hasTrackedFlow()) {
+        // The packet of a drop or congestion report may carry INT metadata as well
+        if (report.hasTrackedFlow() || lastHop(report) != null) {
             Ethernet eth = (Ethernet) report.getPayload();
             if (eth.getEtherType() == Ethernet.TYPE_IPV4) {
                 IPv4 ipv4 = (IPv4) eth.getPayload();
-                srcIP = Ip4Address.valueOf(ipv4.getSourceAddress());
-                dstIP = Ip4Address.valueOf(ipv4.getDestinationAddress());
                 Object l4Payload = null;
                 int ipProto = ipv4.getProtocol();
                 if (ipProto == IPv4.PROTOCOL_TCP) {
@@ -82,126 +310,288 @@ public class INTExporter {
                 }
                 if (l4Payload != null && ipv4.getDscp() == TCP.INT_DSCP) {
                     P4Int p4Int = (P4Int) l4Payload;
-                    String flowLabel = prepareFlowLabel(srcIP, srcPort, dstIP, dstPort, ipProto);
-                    pushMetrics(p4Int.getMetadata(), flowLabel);
+                    long now = System.nanoTime();
+                    Flow flow = flows.flow(FlowTable.keyHigh(ipv4.getSourceAddress(), ipv4.getDestinationAddress()),
+                            FlowTable.keyLow(srcPort, dstPort, ipProto), now);
+                    pushMetrics(p4Int.getMetadata(), P4IntHopLayout.of(p4Int.getInstructionBitmap()).hasTimeStamps(),
+                            flow, now);
                 }
             } else {
                 System.err.println("Unexpected L3 protocol!");
             }
         }
+        reportProcessed();
     }
 
     /**
-     * Collects the metric values from the P4IntTransitHop and push the metrics
-     * to the Prometheus Push GW.
+     * Collects the metric values from the P4IntTransitHop.
      * @param metadata
-     * @param flowStr
+     * @param timeStamps whether the hops carry their ingress and egress time stamps
+     * @param flow
+     * @param nowNanos
      */
-    private void pushMetrics(List<P4IntTransitHop> metadata, String flowStr) {
+    private void pushMetrics(List<P4IntTransitHop> metadata, boolean timeStamps, Flow flow, long nowNanos) {
+        FlowPath path = flowPath(flow, paths.path(metadata));
+        int[] switchIds = path.switchIds;
         int totalFlowLatency = 0;
-        StringBuffer flowPath = new StringBuffer();
-        for (P4IntTransitHop transitHop : metadata) {
-            int switchId = transitHop.getSwitchId();
+        for (int hop = 0; hop < switchIds.length; hop++) {
+            P4IntTransitHop transitHop = metadata.get(hop);
             int hopLatency = transitHop.getHopLatency();
-            int queueId = transitHop.getQueueId();
-            int queueCongestion = transitHop.getQueueCongestion();
-            short egressPortId = transitHop.getEgressPortId();
-            int portTxUtil = transitHop.getEgressPortTxUtil();
             totalFlowLatency += hopLatency;
-            flowPath.append("s").append(switchId).append(".");
-            setHopLatencyMetric(switchId, flowStr, hopLatency);
-            setQueueCongestionMetric(switchId, queueId, queueCongestion);
-            setEgressPortUtilizationMetric(switchId, egressPortId, portTxUtil);
+            path.hopLatencies[hop] = hopLatency;
+            collector.observeHop(switchIds[hop], hopLatency, transitHop.getQueueOccupancy(),
+                    transitHop.getQueueCongestion(), nowNanos);
+            collector.setQueueCongestion(switchIds[hop], transitHop.getQueueId(), transitHop.getQueueCongestion());
+            collector.setEgressPortTxUtilization(switchIds[hop], transitHop.getEgressPortId(),
+                    transitHop.getEgressPortTxUtil());
+        }
+        path.flowLatency = totalFlowLatency;
+        path.path.reported(totalFlowLatency, nowNanos);
+        if (topFlows != null) {
+            topFlows.reported(flow.keyHigh, flow.keyLow, totalFlowLatency);
         }
-        setFlowLatencyMetric(flowPath, flowStr, totalFlowLatency);
-        try {
-            pushGateway.pushAdd(pushRegistry, JOB_NAME);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (timeStamps) {
+            // Hop 0 is the last switch of the path, so hop i + 1 sends to hop i
+            for (int hop = 0; hop + 1 < switchIds.length; hop++) {
+                P4IntTransitHop next = metadata.get(hop);
+                P4IntTransitHop previous = metadata.get(hop + 1);
+                collector.observeLink(switchIds[hop + 1], previous.getEgressPortId(), switchIds[hop],
+                        next.getIngressPortId(), next.getIngressTimeStamp() - previous.getEgressTimeStamp(), nowNanos);
+            }
         }
     }
 
     /**
-     * @param flowPath
-     * @param flowStr
-     * @param totalFlowLatency
+     * Collects the metric values straight from a report view, without building
+     * the packet objects, and, in push mode, schedules a push to the Prometheus Push GW.
+     *
+     * @param report view positioned over the telemetry report
      */
-    private void setFlowLatencyMetric(StringBuffer flowPath, String flowStr, int totalFlowLatency) {
-        String label = new StringBuffer().append(flowPath).append("-").append(flowStr).toString();
-        flowLatencyDuration.labels(label).set(totalFlowLatency);
+    public void pushMetrics(TelemetryReportView report) {
+        collector.reportReceived(sourceSwitchId(report), report.getHwId(), report.getSequence());
+        pushEventMetrics(report);
+        pushFlowMetrics(report);
+        reportProcessed();
     }
 
     /**
-     * @param switchId
-     * @param egressPortId
-     * @param portTxUtil
+     * Accounts for the sequence number of a report as soon as it is received, before it is queued for
+     * {@link #processReport(TelemetryReportView)}, so that the reports the collector drops under load are
+     * not counted as lost on the way from the switch. The report is only counted towards the next push
+     * once processed, so a report dropped by the collector is pushed with the next flush.
+     *
+     * @param report view positioned over the telemetry report
      */
-    private void setEgressPortUtilizationMetric(int switchId, short egressPortId, int portTxUtil) {
-        Gauge gauge = egressPortTxUtilizationGaugeList.get(switchId);
-        if (gauge == null) {
-            gauge = Gauge.build()
-                    .name("egress_port_tx_utilization_percentage_s" + switchId)
-                    .help("Shows egress port TX utilization for each switch port")
-                    .labelNames("port_id")
-                    .register(pushRegistry);
-            egressPortTxUtilizationGaugeList.put(switchId, gauge);
-        }
-        gauge.labels(valueOf(egressPortId)).set(portTxUtil);
+    public void reportReceived(TelemetryReportView report) {
+        collector.reportReceived(sourceSwitchId(report), report.getHwId(), report.getSequence());
+        generation.advance();
     }
 
     /**
-     * @param switchId
-     * @param queueId
-     * @param queueCongestion
+     * Collects the metric values of a report whose sequence number was already accounted for by
+     * {@link #reportReceived(TelemetryReportView)}.
+     *
+     * @param report view positioned over the telemetry report
      */
-    private void setQueueCongestionMetric(int switchId, int queueId, int queueCongestion) {
-        Gauge gauge = queueCongestionStatusGaugeList.get(switchId);
-        if (gauge == null) {
-            gauge = Gauge.build()
-                    .name("queue_congestion_status_percentage_s" + switchId)
-                    .help("Shows queue congestion status of each queue for the switch")
-                    .labelNames("queueId")
-                    .register(pushRegistry);
-            queueCongestionStatusGaugeList.put(switchId, gauge);
+    public void processReport(TelemetryReportView report) {
+        pushEventMetrics(report);
+        pushFlowMetrics(report);
+        reportProcessed();
+    }
+
+    /**
+     * Counts a drop or congestion report against the queue it is about.
+     */
+    private void pushEventMetrics(TelemetryReportView report) {
+        if (report.hasDroppedPacket() || report.hasCongestion()) {
+            collector.reportEvents(sourceSwitchId(report), sourceQueueId(report), report.hasDroppedPacket(),
+                    report.hasCongestion());
         }
-        gauge.labels(valueOf(queueId)).set(queueCongestion);
     }
 
     /**
-     * @param switchId
-     * @param flowStr
-     * @param hopLatency
+     * Collects the flow, hop, path and link metric values of a tracked flow report, or of a report whose
+     * packet carries INT metadata, e.g. a drop or congestion report of an INT packet.
      */
-    private void setHopLatencyMetric(int switchId, String flowStr, int hopLatency) {
-        Gauge gauge = hopLatencyDurationGaugeList.get(switchId);
-        if (gauge == null) {
-            gauge = Gauge.build()
-                    .name("hop_latency_duration_s" + switchId)
-                    .help("Shows hop latency for each flow")
-                    .labelNames("flow")
-                    .register(pushRegistry);
-            hopLatencyDurationGaugeList.put(switchId, gauge);
+    private void pushFlowMetrics(TelemetryReportView report) {
+        // The packet of a drop or congestion report may carry INT metadata as well
+        if (!report.hasTrackedFlow() && !report.hasIntMetadata()) {
+            return;
+        }
+        if (!report.isIpv4()) {
+            System.err.println("Unexpected L3 protocol!");
+            return;
+        }
+        if (!report.hasTransport()) {
+            System.err.println("Unexpected L4 protocol!");
+            return;
+        }
+        if (!report.hasIntMetadata()) {
+            return;
+        }
+        long now = System.nanoTime();
+        Flow flow = flows.flow(FlowTable.keyHigh(report.getSourceAddress(), report.getDestinationAddress()),
+                FlowTable.keyLow(report.getSourcePort(), report.getDestinationPort(), report.getProtocol()), now);
+        FlowPath path = flowPath(flow, paths.path(report));
+        int totalFlowLatency = 0;
+        for (int hop = 0; hop < path.switchIds.length; hop++) {
+            int switchId = path.switchIds[hop];
+            int hopLatency = report.getHopLatency(hop);
+            totalFlowLatency += hopLatency;
+            path.hopLatencies[hop] = hopLatency;
+            int queueCongestion = report.getHopQueueCongestion(hop);
+            collector.observeHop(switchId, hopLatency, report.getHopQueueOccupancy(hop), queueCongestion, now);
+            collector.setQueueCongestion(switchId, report.getHopQueueId(hop), queueCongestion);
+            collector.setEgressPortTxUtilization(switchId, report.getHopEgressPortId(hop),
+                    report.getHopEgressPortTxUtil(hop));
         }
-        gauge.labels(flowStr).set(hopLatency);
+        path.flowLatency = totalFlowLatency;
+        path.path.reported(totalFlowLatency, now);
+        if (topFlows != null) {
+            topFlows.reported(flow.keyHigh, flow.keyLow, totalFlowLatency);
+        }
+        if (report.hasHopTimeStamps()) {
+            // Hop 0 is the last switch of the path, so hop i + 1 sends to hop i
+            for (int hop = 0; hop + 1 < path.switchIds.length; hop++) {
+                collector.observeLink(path.switchIds[hop + 1], report.getHopEgressPortId(hop + 1),
+                        path.switchIds[hop], report.getHopIngressPortId(hop),
+                        report.getHopIngressTimeStamp(hop) - report.getHopEgressTimeStamp(hop + 1), now);
+            }
+        }
+    }
+
+    /**
+     * Gets the switch that sent a report, as {@link #sourceSwitchId(TelemetryReport)} does for a decoded report.
+     */
+    private static int sourceSwitchId(TelemetryReportView report) {
+        int switchId = report.getSwitchId();
+        return switchId == 0 && report.getHopCount() > 0 ? report.getHopSwitchId(0) : switchId;
+    }
+
+    /**
+     * Gets the switch that sent a report: the switch of its local header or, for a tracked flow report
+     * without one, the last hop of the INT metadata stack.
+     */
+    private static int sourceSwitchId(TelemetryReport report) {
+        P4IntTransitHop lastHop = report.getSwitchId() == 0 ? lastHop(report) : null;
+        return lastHop != null ? lastHop.getSwitchId() : report.getSwitchId();
     }
 
     /**
-     * Prepares a String object that identifies a 5-tuple-flow.
+     * Gets the last hop of the INT metadata stack of a report, i.e. the switch that sent it.
      *
-     * @param srcIP
-     * @param srcPort
-     * @param dstIP
-     * @param dstPort
-     * @param ipProto
-     * @return 5-tuple-flow as string
+     * @return last hop, or null if the report does not carry INT metadata
      */
-    private String prepareFlowLabel(IpAddress srcIP, int srcPort, IpAddress dstIP, int dstPort, int ipProto) {
-        StringBuffer sb = new StringBuffer();
-        sb.append(srcIP.toString()).append(":").append(srcPort).append(":");
-        sb.append(dstIP.toString()).append(":").append(dstPort).append(":");
-        sb.append(ipProto);
-        return sb.toString();
+    private static P4IntTransitHop lastHop(TelemetryReport report) {
+        if (!(report.getPayload() instanceof Ethernet)) {
+            return null;
+        }
+        IPacket l3 = report.getPayload().getPayload();
+        IPacket l4 = l3 instanceof IPv4 ? l3.getPayload() : null;
+        IPacket intHeader = l4 instanceof TCP || l4 instanceof UDP ? l4.getPayload() : null;
+        if (intHeader instanceof P4Int && !((P4Int) intHeader).getMetadata().isEmpty()) {
+            return ((P4Int) intHeader).getMetadata().get(0);
+        }
+        return null;
     }
 
+    /**
+     * Gets the queue a report is about, from the same header as {@link #sourceSwitchId(TelemetryReportView)}.
+     */
+    private static int sourceQueueId(TelemetryReportView report) {
+        int queueId = report.getSwitchId() == 0 && report.getHopCount() > 0 ? report.getHopQueueId(0)
+                : report.getQueueId();
+        return queueId & 0xff;
+    }
 
+    /**
+     * Gets the queue a report is about, from the same header as {@link #sourceSwitchId(TelemetryReport)}.
+     */
+    private static int sourceQueueId(TelemetryReport report) {
+        P4IntTransitHop lastHop = report.getSwitchId() == 0 ? lastHop(report) : null;
+        return (lastHop != null ? lastHop.getQueueId() : report.getQueueId()) & 0xff;
+    }
+
+    /**
+     * Gets the path of the flow in the report, reusing the labels of the last report of the flow if
+     * the path did not change.
+     */
+    private FlowPath flowPath(Flow flow, Path path) {
+        FlowPath current = flow.path;
+        return current != null && current.path == path ? current : newFlowPath(flow, path);
+    }
+
+    /**
+     * Renders the label of a new path of the flow and makes it the current one, in place of the previous path.
+     */
+    private FlowPath newFlowPath(Flow flow, Path path) {
+        synchronized (flow) {
+            FlowPath current = flow.path;
+            if (current != null) {
+                if (current.path == path) {
+                    // Another channel got there first
+                    return current;
+                }
+            }
+            String label = path.label.isEmpty() ? "-" + flow.label : path.label + ".-" + flow.label;
+            FlowPath flowPath = new FlowPath(path, label);
+            flow.path = flowPath;
+            return flowPath;
+        }
+    }
+
+    private void flowEvicted(Flow flow, FlowTable.EvictionCause cause) {
+        flowEvictions[cause.ordinal()].inc();
+        reportProcessed();
+    }
+
+    private void expireFlows() {
+        long now = System.nanoTime();
+        int expired = flows.expire(now) + paths.expire(now) + links.expire(now);
+        int size = flows.size();
+        int pathCount = paths.size();
+        int linkCount = links.size();
+        // An idle exporter keeps its generation, so the cached exposition and the last push stay current
+        if (expired > 0 || size != trackedFlows.get() || pathCount != livePaths.get() || linkCount != liveLinks.get()) {
+            trackedFlows.set(size);
+            livePaths.set(pathCount);
+            liveLinks.set(linkCount);
+            generation.advance();
+        }
+    }
+
+    /**
+     * Records that a report changed the metrics, at least its sequence counters.
+     */
+    private void reportProcessed() {
+        generation.advance();
+        if (pushScheduler != null) {
+            pushScheduler.markDirty();
+        }
+    }
+
+    /**
+     * Registry that also serves by name the per switch families of the collector, e.g. hop_latency_duration_s1.
+     * The registry picks the collectors of the requested names among the names they described when they were
+     * registered, and these families only appear with the switches.
+     */
+    private static final class Registry extends CollectorRegistry {
+        private volatile INTCollector collector;
+
+        @Override
+        public Enumeration<Collector.MetricFamilySamples> filteredMetricFamilySamples(Set<String> includedNames) {
+            INTCollector intCollector = collector;
+            // A described name makes the registry collect the whole collector, per switch families included
+            if (intCollector == null || includedNames.isEmpty() || intCollector.isDescribed(includedNames)) {
+                return super.filteredMetricFamilySamples(includedNames);
+            }
+            List<Collector.MetricFamilySamples> perSwitch = intCollector.collectPerSwitchFamilies(includedNames);
+            if (perSwitch.isEmpty()) {
+                return super.filteredMetricFamilySamples(includedNames);
+            }
+            List<Collector.MetricFamilySamples> mfs = new ArrayList<>(perSwitch);
+            mfs.addAll(Collections.list(super.filteredMetricFamilySamples(includedNames)));
+            return Collections.enumeration(mfs);
+        }
+    }
 }
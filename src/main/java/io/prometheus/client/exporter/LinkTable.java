@@ -0,0 +1,210 @@
+package io.prometheus.client.exporter;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.String.valueOf;
+
+/**
+ * Interns the links between two consecutive hops of a path, from the egress port of a switch
+ * to the ingress port of the next one, into compact ids in the order they are first seen.
+ * <p>
+ * A link key is two longs: the switch ids, then the port ids. Lookups probe a primitive array
+ * without locking or allocation. The table is copied when a link is added, which happens once
+ * per link of the topology, and when idle links are removed, so that the links of a changing
+ * topology do not pile up.
+ */
+class LinkTable {
+
+    /**
+     * Receives the links of the table.
+     */
+    interface LinkConsumer {
+        void accept(Link link);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final class Table {
+        final long[] highs;
+        final long[] lows;
+        final Link[] links;
+        final int mask;
+
+        Table(int capacity) {
+            highs = new long[capacity];
+            lows = new long[capacity];
+            links = new Link[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private final long windowNanos;
+    private final long idleTimeoutNanos;
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    // Links in the order of their ids, replaced when a link is added or removed
+    private volatile Link[] links = new Link[0];
+    // Guarded by the table's monitor
+    private int nextId;
+
+    /**
+     * @param windowNanos length of the windows of the link latency distributions
+     * @param idleTimeoutNanos time after which a link with no latency observed is removed
+     */
+    LinkTable(long windowNanos, long idleTimeoutNanos) {
+        this.windowNanos = windowNanos;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+    }
+
+    /**
+     * Gets a link, interning it when it is seen for the first time.
+     *
+     * @param srcSwitchId switch the link leaves
+     * @param srcPortId egress port of the switch the link leaves
+     * @param dstSwitchId switch the link enters
+     * @param dstPortId ingress port of the switch the link enters
+     * @return link
+     */
+    Link link(int srcSwitchId, short srcPortId, int dstSwitchId, short dstPortId) {
+        long keyHigh = ((long) srcSwitchId << 32) | (dstSwitchId & 0xffffffffL);
+        long keyLow = ((long) (srcPortId & 0xffff) << 16) | (dstPortId & 0xffff);
+        Table t = table;
+        int mask = t.mask;
+        for (int i = hash(keyHigh, keyLow) & mask; t.links[i] != null; i = (i + 1) & mask) {
+            if (t.highs[i] == keyHigh && t.lows[i] == keyLow) {
+                return t.links[i];
+            }
+        }
+        return insert(keyHigh, keyLow, srcSwitchId, srcPortId, dstSwitchId, dstPortId);
+    }
+
+    /**
+     * Calls the given consumer for every link of the table, in the order of their ids.
+     *
+     * @param consumer link consumer
+     */
+    void forEach(LinkConsumer consumer) {
+        for (Link link : links) {
+            consumer.accept(link);
+        }
+    }
+
+    /**
+     * Removes the links that had no latency observed within the idle timeout. A latency observed on a link
+     * being removed may be missed; the next one interns the link again.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return number of removed links
+     */
+    synchronized int expire(long nowNanos) {
+        Link[] current = links;
+        Link[] live = new Link[current.length];
+        int size = 0;
+        for (Link link : current) {
+            if (nowNanos - link.lastSeenNanos < idleTimeoutNanos) {
+                live[size++] = link;
+            }
+        }
+        if (size < current.length) {
+            replace(Arrays.copyOf(live, size));
+        }
+        return current.length - size;
+    }
+
+    /**
+     * Gets the number of links in the table.
+     *
+     * @return number of links
+     */
+    int size() {
+        return links.length;
+    }
+
+    private synchronized Link insert(long keyHigh, long keyLow, int srcSwitchId, short srcPortId,
+                                     int dstSwitchId, short dstPortId) {
+        Table t = table;
+        for (int i = hash(keyHigh, keyLow) & t.mask; t.links[i] != null; i = (i + 1) & t.mask) {
+            if (t.highs[i] == keyHigh && t.lows[i] == keyLow) {
+                // Inserted by another thread
+                return t.links[i];
+            }
+        }
+        Link link = new Link(nextId++, keyHigh, keyLow, srcSwitchId, srcPortId, dstSwitchId, dstPortId,
+                new Distribution(windowNanos));
+        Link[] byId = Arrays.copyOf(links, links.length + 1);
+        byId[links.length] = link;
+        replace(byId);
+        return link;
+    }
+
+    private void replace(Link[] byId) {
+        int capacity = INITIAL_CAPACITY;
+        while (byId.length * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table copy = new Table(capacity);
+        for (Link link : byId) {
+            put(copy, link);
+        }
+        table = copy;
+        links = byId;
+    }
+
+    private static void put(Table t, Link link) {
+        int i = hash(link.keyHigh, link.keyLow) & t.mask;
+        while (t.links[i] != null) {
+            i = (i + 1) & t.mask;
+        }
+        t.highs[i] = link.keyHigh;
+        t.lows[i] = link.keyLow;
+        t.links[i] = link;
+    }
+
+    private static int hash(long keyHigh, long keyLow) {
+        long h = keyHigh * 0x9E3779B97F4A7C15L + keyLow;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Link between two switches, with the distribution of its latency.
+     */
+    static final class Link {
+        /**
+         * Id of the link, in the order the links were first seen. Not reused once the link is removed.
+         */
+        final int id;
+        final long keyHigh;
+        final long keyLow;
+
+        /**
+         * Source switch and port, then destination switch and port, e.g. ["1", "2", "2", "1"]
+         */
+        final List<String> labelValues;
+
+        final Distribution latency;
+        volatile long lastSeenNanos;
+
+        Link(int id, long keyHigh, long keyLow, int srcSwitchId, short srcPortId, int dstSwitchId, short dstPortId,
+             Distribution latency) {
+            this.id = id;
+            this.keyHigh = keyHigh;
+            this.keyLow = keyLow;
+            this.labelValues = Arrays.asList(valueOf(srcSwitchId), valueOf(srcPortId), valueOf(dstSwitchId),
+                    valueOf(dstPortId));
+            this.latency = latency;
+            this.lastSeenNanos = System.nanoTime();
+        }
+
+        /**
+         * Observes a latency of the link.
+         *
+         * @param latency latency of the link
+         * @param nowNanos current {@link System#nanoTime()}
+         */
+        void observed(double latency, long nowNanos) {
+            this.latency.observe(latency, nowNanos);
+            lastSeenNanos = nowNanos;
+        }
+    }
+}
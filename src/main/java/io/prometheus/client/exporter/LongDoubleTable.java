@@ -0,0 +1,141 @@
+package io.prometheus.client.exporter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open-addressed table of double values keyed by a long, for the per switch INT values.
+ * <p>
+ * Updating the value of a known key is a hash probe and an array store, without locking or
+ * allocation. Only the insertion of a new key takes the table's monitor. Keys are never removed,
+ * as the number of (switch, queue) and (switch, port) pairs of a topology is bounded.
+ * <p>
+ * An update that races with the resize triggered by the insertion of another key may be lost;
+ * the next update of the key is not.
+ */
+class LongDoubleTable {
+
+    /**
+     * Receives the entries of the table.
+     */
+    interface EntryConsumer {
+        void accept(long key, double value);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final class Table {
+        final long[] keys;
+        final AtomicLongArray values;
+        // Set once keys[i] holds a key, the key is published by the volatile write
+        final AtomicIntegerArray used;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new AtomicLongArray(capacity);
+            used = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key key
+     * @param value value
+     */
+    void set(long key, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        Table t = table;
+        int i = index(t, key);
+        if (i < 0) {
+            insert(key, valueBits);
+        } else {
+            t.values.lazySet(i, valueBits);
+        }
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key key
+     * @return the value, or NaN if the key is not in the table
+     */
+    double get(long key) {
+        Table t = table;
+        int i = index(t, key);
+        return i < 0 ? Double.NaN : Double.longBitsToDouble(t.values.get(i));
+    }
+
+    /**
+     * Calls the given consumer for every entry of the table.
+     *
+     * @param consumer entry consumer
+     */
+    void forEach(EntryConsumer consumer) {
+        Table t = table;
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.used.get(i) != 0) {
+                consumer.accept(t.keys[i], Double.longBitsToDouble(t.values.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of keys in the table.
+     *
+     * @return number of keys
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private static int index(Table t, long key) {
+        for (int i = hash(key) & t.mask; t.used.get(i) != 0; i = (i + 1) & t.mask) {
+            if (t.keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void insert(long key, long valueBits) {
+        int i = index(table, key);
+        if (i >= 0) {
+            // Inserted by another thread
+            table.values.set(i, valueBits);
+            return;
+        }
+        if ((size + 1) * 2 > table.keys.length) {
+            Table old = table;
+            Table resized = new Table(old.keys.length * 2);
+            for (int j = 0; j < old.keys.length; j++) {
+                if (old.used.get(j) != 0) {
+                    put(resized, old.keys[j], old.values.get(j));
+                }
+            }
+            table = resized;
+        }
+        size++;
+        put(table, key, valueBits);
+    }
+
+    private static void put(Table t, long key, long valueBits) {
+        int i = hash(key) & t.mask;
+        while (t.used.get(i) != 0) {
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = key;
+        t.values.set(i, valueBits);
+        t.used.set(i, 1);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
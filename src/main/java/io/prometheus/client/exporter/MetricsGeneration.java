@@ -0,0 +1,50 @@
+package io.prometheus.client.exporter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generation of the metrics of a registry, which changes when the metrics change, so that a rendered
+ * exposition can be reused as long as the generation it was rendered at is current.
+ * <p>
+ * Producers call {@link #advance()} after every change. It only reads a volatile flag, and writes it when
+ * it is not set yet, so it does not contend on a shared counter however many threads update the metrics.
+ * The generation number is only bumped when it is read after a change.
+ * <p>
+ * Example Usage:
+ * <pre>
+ * {@code
+ * MetricsGeneration generation = new MetricsGeneration();
+ * ...
+ * counter.inc();
+ * generation.advance();
+ * }
+ * </pre>
+ */
+public class MetricsGeneration {
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile boolean changed;
+
+    /**
+     * Records that the metrics changed. Safe to call from any thread, never blocks.
+     */
+    public void advance() {
+        if (!changed) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Gets the current generation. Metrics read after this call include every change recorded before it,
+     * and a change recorded after it gives a new generation.
+     *
+     * @return current generation
+     */
+    public long get() {
+        if (changed) {
+            changed = false;
+            return generation.incrementAndGet();
+        }
+        return generation.get();
+    }
+}
@@ -0,0 +1,420 @@
+package io.prometheus.client.exporter;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Expose Prometheus metrics over HTTP/1.1 with Netty, as an alternative to {@link HTTPServer} for heavy scrape
+ * fan-out.
+ * <p>
+ * Connections are kept alive between scrapes and accepted on event loops, possibly the ones the collector
+ * already runs, with a backlog of 1024 connections. The expositions are rendered on a separate group of render threads,
+ * so that a scrape never holds up an event loop, into pooled direct buffers that are written to the socket
+ * as they are. Like {@link HTTPServer}, every path serves the metrics, filtered by the name[] parameters,
+ * and the exposition may be cached by metrics generation, with the same entity tags. The shards of sharded
+ * metrics are served under the same paths as by {@link HTTPServer}.
+ * <p>
+ * Example Usage:
+ * <pre>
+ * {@code
+ * NettyHTTPServer server = NettyHTTPServer.builder()
+ *         .withPort(1234)
+ *         .withRegistry(registry)
+ *         .build();
+ * }
+ * </pre>
+ */
+public class NettyHTTPServer {
+
+    private static final int MAX_REQUEST_LENGTH = 1 << 16;
+
+    /**
+     * Builds a Netty HTTP server.
+     */
+    public static class Builder {
+        private InetSocketAddress address = new InetSocketAddress(0);
+        private CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+        private boolean daemon;
+        private EventLoopGroup eventLoopGroup;
+        private int ioThreads = 1;
+        private int renderThreads = 2;
+        private MetricsGeneration generation;
+        private long cacheMaxAgeMillis;
+        private ShardedMetrics sharded;
+
+        /**
+         * Sets the port the server listens on, on every address.
+         *
+         * @param port HTTP port, or 0 for an ephemeral port
+         * @return this
+         */
+        public Builder withPort(int port) {
+            this.address = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * Sets the address the server listens on.
+         *
+         * @param address socket address
+         * @return this
+         */
+        public Builder withAddress(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * Sets the registry to expose, the default registry if not set.
+         *
+         * @param registry registry
+         * @return this
+         */
+        public Builder withRegistry(CollectorRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * Sets whether the threads started by the server are daemon threads.
+         *
+         * @param daemon true for daemon threads
+         * @return this
+         */
+        public Builder withDaemonThreads(boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * Serves the connections on the given event loops instead of starting its own. The group is not shut
+         * down when the server stops.
+         *
+         * @param eventLoopGroup epoll or NIO event loop group
+         * @return this
+         */
+        public Builder withEventLoopGroup(EventLoopGroup eventLoopGroup) {
+            this.eventLoopGroup = eventLoopGroup;
+            return this;
+        }
+
+        /**
+         * Sets the number of event loops the server starts when it is not given an event loop group.
+         *
+         * @param ioThreads number of event loops
+         * @return this
+         */
+        public Builder withIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that render the expositions, i.e. the number of scrapes rendered
+         * concurrently.
+         *
+         * @param renderThreads number of render threads
+         * @return this
+         */
+        public Builder withRenderThreads(int renderThreads) {
+            this.renderThreads = renderThreads;
+            return this;
+        }
+
+        /**
+         * Caches the exposition of the registry until the generation of its metrics changes.
+         *
+         * @param generation generation advanced on every change of the metrics
+         * @return this
+         */
+        public Builder withGeneration(MetricsGeneration generation) {
+            this.generation = generation;
+            return this;
+        }
+
+        /**
+         * Caches the exposition of the registry for at most the given time.
+         *
+         * @param cacheMaxAgeMillis max age of the cached exposition in milliseconds, or 0 for no limit
+         * @return this
+         */
+        public Builder withCacheMaxAge(long cacheMaxAgeMillis) {
+            this.cacheMaxAgeMillis = cacheMaxAgeMillis;
+            return this;
+        }
+
+        /**
+         * Serves the shards of the given metrics under /metrics/shard/{n} and each switch under
+         * /metrics/switch/{id}, so that they can be scraped in parallel as separate targets.
+         *
+         * @param sharded sharded metrics
+         * @return this
+         */
+        public Builder withShardedMetrics(ShardedMetrics sharded) {
+            this.sharded = sharded;
+            return this;
+        }
+
+        /**
+         * Starts the server.
+         *
+         * @return the started server
+         * @throws IOException if the server could not bind
+         */
+        public NettyHTTPServer build() throws IOException {
+            return new NettyHTTPServer(this);
+        }
+    }
+
+    /**
+     * Creates a builder of Netty HTTP server.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final EventLoopGroup ownEventLoopGroup;
+    private final EventExecutorGroup renderGroup;
+    private final Channel channel;
+
+    private NettyHTTPServer(Builder builder) throws IOException {
+        if (builder.renderThreads <= 0) {
+            throw new IllegalArgumentException("renderThreads must be positive");
+        }
+        ExpositionCache cache = null;
+        if (builder.generation != null || builder.cacheMaxAgeMillis > 0) {
+            cache = new ExpositionCache(builder.registry, builder.generation, builder.cacheMaxAgeMillis > 0 ?
+                    TimeUnit.MILLISECONDS.toNanos(builder.cacheMaxAgeMillis) : Long.MAX_VALUE);
+        }
+        EventLoopGroup group = builder.eventLoopGroup;
+        if (group == null) {
+            DefaultThreadFactory threadFactory = new DefaultThreadFactory("metrics-http", builder.daemon);
+            group = Epoll.isAvailable() ? new EpollEventLoopGroup(builder.ioThreads, threadFactory) :
+                    new NioEventLoopGroup(builder.ioThreads, threadFactory);
+            ownEventLoopGroup = group;
+        } else {
+            ownEventLoopGroup = null;
+        }
+        renderGroup = new DefaultEventExecutorGroup(builder.renderThreads,
+                new DefaultThreadFactory("metrics-render", builder.daemon));
+        MetricsHandler handler = new MetricsHandler(builder.registry, cache, builder.sharded);
+        Class<? extends ServerSocketChannel> channelClass = group instanceof EpollEventLoopGroup ?
+                EpollServerSocketChannel.class : NioServerSocketChannel.class;
+
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(group)
+                .channel(channelClass)
+                .option(ChannelOption.SO_BACKLOG, 1024)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new HttpServerCodec())
+                                .addLast(new HttpObjectAggregator(MAX_REQUEST_LENGTH))
+                                .addLast(renderGroup, handler);
+                    }
+                });
+        ChannelFuture bind = b.bind(builder.address).awaitUninterruptibly();
+        if (!bind.isSuccess()) {
+            shutdown();
+            throw new IOException("Could not bind " + builder.address, bind.cause());
+        }
+        channel = bind.channel();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return HTTP port
+     */
+    public int getPort() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    /**
+     * Stop the HTTP server.
+     */
+    public void stop() {
+        channel.close().awaitUninterruptibly();
+        shutdown();
+    }
+
+    private void shutdown() {
+        renderGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        if (ownEventLoopGroup != null) {
+            ownEventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Answers every request with the exposition of the registry, on a render thread.
+     */
+    @ChannelHandler.Sharable
+    static class MetricsHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        private final CollectorRegistry registry;
+        private final ExpositionCache cache;
+        private final ShardedMetrics sharded;
+
+        MetricsHandler(CollectorRegistry registry, ExpositionCache cache, ShardedMetrics sharded) {
+            this.registry = registry;
+            this.cache = cache;
+            this.sharded = sharded;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws IOException {
+            if (!request.decoderResult().isSuccess()) {
+                send(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST,
+                        Unpooled.EMPTY_BUFFER));
+                return;
+            }
+            String uri = request.uri();
+            int query = uri.indexOf('?');
+            String path = query >= 0 ? uri.substring(0, query) : uri;
+            Set<String> names = HTTPServer.parseQuery(query >= 0 ? uri.substring(query + 1) : null);
+            boolean gzip = acceptsGzip(request.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+            ByteBuf body;
+            String etag = null;
+            if (sharded != null
+                    && (path.startsWith(HTTPServer.SHARD_PATH) || path.startsWith(HTTPServer.SWITCH_PATH))) {
+                List<Collector.MetricFamilySamples> mfs = HTTPServer.shardSamples(sharded, path);
+                if (mfs == null) {
+                    send(ctx, request, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND,
+                            Unpooled.EMPTY_BUFFER));
+                    return;
+                }
+                body = render(ctx.alloc(), Collections.enumeration(mfs), gzip);
+            } else if (cache != null && names.isEmpty()) {
+                String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+                ExpositionCache.Exposition exposition = cache.notModified(ifNoneMatch);
+                if (exposition == null) {
+                    exposition = cache.get();
+                }
+                etag = exposition.etag;
+                if (exposition.matches(ifNoneMatch)) {
+                    // The scraper already has this exposition
+                    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                            HttpResponseStatus.NOT_MODIFIED, Unpooled.EMPTY_BUFFER);
+                    response.headers().set(HttpHeaderNames.ETAG, etag);
+                    send(ctx, request, response);
+                    return;
+                }
+                body = Unpooled.wrappedBuffer(gzip ? exposition.gzip() : exposition.plain);
+            } else {
+                body = render(ctx.alloc(), registry.filteredMetricFamilySamples(names), gzip);
+            }
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    body);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004);
+            if (etag != null) {
+                response.headers().set(HttpHeaderNames.ETAG, etag);
+            }
+            if (gzip) {
+                response.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+            }
+            send(ctx, request, response);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            cause.printStackTrace();
+            ctx.close();
+        }
+
+        /**
+         * Renders the exposition into a pooled direct buffer, compressed if gzip is accepted.
+         */
+        private static ByteBuf render(ByteBufAllocator alloc, Enumeration<Collector.MetricFamilySamples> mfs,
+                                      boolean gzip) throws IOException {
+            ByteBuf buffer = alloc.directBuffer();
+            try {
+                OutputStream os = new ByteBufOutputStream(buffer);
+                if (gzip) {
+                    os = new GZIPOutputStream(os);
+                }
+                Writer writer = new OutputStreamWriter(os);
+                TextFormat.write004(writer, mfs);
+                writer.close();
+                return buffer;
+            } catch (IOException | RuntimeException e) {
+                buffer.release();
+                throw e;
+            }
+        }
+
+        private static void send(ChannelHandlerContext ctx, FullHttpRequest request, FullHttpResponse response) {
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            HttpUtil.setKeepAlive(response, keepAlive);
+            ChannelFuture write = ctx.writeAndFlush(response);
+            if (!keepAlive) {
+                write.addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        private static boolean acceptsGzip(String acceptEncoding) {
+            if (acceptEncoding == null) {
+                return false;
+            }
+            for (String encoding : acceptEncoding.split(",")) {
+                if (encoding.trim().toLowerCase().equals("gzip")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
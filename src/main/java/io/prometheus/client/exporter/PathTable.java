@@ -0,0 +1,249 @@
+package io.prometheus.client.exporter;
+
+import org.onosproject.monitoring.packet.P4IntTransitHop;
+import org.onosproject.monitoring.packet.TelemetryReportView;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interns the paths reported for the flows, i.e. the switch id sequences of the INT metadata stacks,
+ * into compact ids in the order they are first seen, with aggregates of all the flows on each path.
+ * <p>
+ * The switch ids of a report are hashed and compared in place, so a report on a known path allocates
+ * nothing. The path label is rendered once, when the path is first seen. The table is copied when a
+ * path is added, which happens once per path of the topology, and when idle paths are removed, so
+ * that the paths of a changing topology do not pile up.
+ */
+class PathTable {
+
+    /**
+     * Receives the paths of the table.
+     */
+    interface PathConsumer {
+        void accept(Path path);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final long windowNanos;
+    private final long idleTimeoutNanos;
+    // Open-addressed by the hash of the switch ids, replaced when a path is added or removed
+    private volatile Path[] table = new Path[INITIAL_CAPACITY];
+    // Paths in the order of their ids, replaced when a path is added or removed
+    private volatile Path[] paths = new Path[0];
+    // Guarded by the table's monitor
+    private int nextId;
+
+    /**
+     * @param windowNanos length of the windows of the path latency distributions
+     * @param idleTimeoutNanos time after which a path with no reports is removed
+     */
+    PathTable(long windowNanos, long idleTimeoutNanos) {
+        this.windowNanos = windowNanos;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+    }
+
+    /**
+     * Gets the path of a report, interning it when it is seen for the first time.
+     *
+     * @param report view positioned over a telemetry report with INT metadata
+     * @return path
+     */
+    Path path(TelemetryReportView report) {
+        int hopCount = report.getHopCount();
+        int hash = 1;
+        for (int hop = 0; hop < hopCount; hop++) {
+            hash = 31 * hash + report.getHopSwitchId(hop);
+        }
+        Path[] t = table;
+        int mask = t.length - 1;
+        for (int i = mix(hash) & mask; t[i] != null; i = (i + 1) & mask) {
+            Path path = t[i];
+            if (path.hash == hash && path.switchIds.length == hopCount) {
+                int hop = 0;
+                while (hop < hopCount && path.switchIds[hop] == report.getHopSwitchId(hop)) {
+                    hop++;
+                }
+                if (hop == hopCount) {
+                    return path;
+                }
+            }
+        }
+        int[] switchIds = new int[hopCount];
+        for (int hop = 0; hop < hopCount; hop++) {
+            switchIds[hop] = report.getHopSwitchId(hop);
+        }
+        return insert(switchIds, hash);
+    }
+
+    /**
+     * Gets the path of an INT metadata stack, interning it when it is seen for the first time.
+     *
+     * @param metadata INT metadata stack
+     * @return path
+     */
+    Path path(List<P4IntTransitHop> metadata) {
+        int hopCount = metadata.size();
+        int hash = 1;
+        for (int hop = 0; hop < hopCount; hop++) {
+            hash = 31 * hash + metadata.get(hop).getSwitchId();
+        }
+        Path[] t = table;
+        int mask = t.length - 1;
+        for (int i = mix(hash) & mask; t[i] != null; i = (i + 1) & mask) {
+            Path path = t[i];
+            if (path.hash == hash && path.switchIds.length == hopCount) {
+                int hop = 0;
+                while (hop < hopCount && path.switchIds[hop] == metadata.get(hop).getSwitchId()) {
+                    hop++;
+                }
+                if (hop == hopCount) {
+                    return path;
+                }
+            }
+        }
+        int[] switchIds = new int[hopCount];
+        for (int hop = 0; hop < hopCount; hop++) {
+            switchIds[hop] = metadata.get(hop).getSwitchId();
+        }
+        return insert(switchIds, hash);
+    }
+
+    /**
+     * Calls the given consumer for every path of the table, in the order of their ids.
+     *
+     * @param consumer path consumer
+     */
+    void forEach(PathConsumer consumer) {
+        for (Path path : paths) {
+            consumer.accept(path);
+        }
+    }
+
+    /**
+     * Removes the paths that had no report within the idle timeout, i.e. since the last of their flows expired.
+     * A report on a path being removed may be missed by its aggregates; the next one interns the path again.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return number of removed paths
+     */
+    synchronized int expire(long nowNanos) {
+        Path[] current = paths;
+        Path[] live = new Path[current.length];
+        int size = 0;
+        for (Path path : current) {
+            if (nowNanos - path.lastSeenNanos < idleTimeoutNanos) {
+                live[size++] = path;
+            }
+        }
+        if (size < current.length) {
+            replace(Arrays.copyOf(live, size));
+        }
+        return current.length - size;
+    }
+
+    /**
+     * Gets the number of paths in the table.
+     *
+     * @return number of paths
+     */
+    int size() {
+        return paths.length;
+    }
+
+    private synchronized Path insert(int[] switchIds, int hash) {
+        Path[] t = table;
+        for (int i = mix(hash) & (t.length - 1); t[i] != null; i = (i + 1) & (t.length - 1)) {
+            if (t[i].hash == hash && Arrays.equals(t[i].switchIds, switchIds)) {
+                // Inserted by another thread
+                return t[i];
+            }
+        }
+        Path path = new Path(nextId++, switchIds, hash, new Distribution(windowNanos));
+        Path[] byId = Arrays.copyOf(paths, paths.length + 1);
+        byId[paths.length] = path;
+        replace(byId);
+        return path;
+    }
+
+    private void replace(Path[] byId) {
+        int capacity = INITIAL_CAPACITY;
+        while (byId.length * 2 > capacity) {
+            capacity *= 2;
+        }
+        Path[] copy = new Path[capacity];
+        for (Path path : byId) {
+            put(copy, path);
+        }
+        table = copy;
+        paths = byId;
+    }
+
+    private static void put(Path[] t, Path path) {
+        int i = mix(path.hash) & (t.length - 1);
+        while (t[i] != null) {
+            i = (i + 1) & (t.length - 1);
+        }
+        t[i] = path;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Path of the flows, with the aggregates of all their reports.
+     */
+    static final class Path {
+        /**
+         * Id of the path, in the order the paths were first seen. Not reused once the path is removed.
+         */
+        final int id;
+
+        /**
+         * Switches of the path from the last one to the first one, as in the INT metadata stack.
+         */
+        final int[] switchIds;
+        final int hash;
+
+        /**
+         * Switches of the path, e.g. s1.s2.s3
+         */
+        final String label;
+
+        final LongAdder reports = new LongAdder();
+        final Distribution latency;
+        volatile long lastSeenNanos;
+
+        Path(int id, int[] switchIds, int hash, Distribution latency) {
+            this.id = id;
+            this.switchIds = switchIds;
+            this.hash = hash;
+            StringBuilder label = new StringBuilder();
+            for (int switchId : switchIds) {
+                if (label.length() > 0) {
+                    label.append(".");
+                }
+                label.append("s").append(switchId);
+            }
+            this.label = label.toString();
+            this.latency = latency;
+            this.lastSeenNanos = System.nanoTime();
+        }
+
+        /**
+         * Aggregates a report on the path.
+         *
+         * @param flowLatency total latency of the report
+         * @param nowNanos current {@link System#nanoTime()}
+         */
+        void reported(int flowLatency, long nowNanos) {
+            reports.increment();
+            latency.observe(flowLatency & 0xffffffffL, nowNanos);
+            lastSeenNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.prometheus.client.exporter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+/**
+ * Open-addressed table of the maximum and minimum values observed per key since the table was last
+ * collected, so that bursts shorter than the collect interval are still exported.
+ * <p>
+ * Observing a value of a known key is a hash probe and a compare-and-set loop on each bound, without
+ * locking or allocation, so any number of ingest threads can feed the same key. Only the insertion of
+ * a new key takes the table's monitor. Collecting the table resets the bounds of every collected key; keys with
+ * no value since the last collect are skipped. Keys are never removed.
+ * <p>
+ * A value observed while the table is collected may count in the maximum of one interval and the
+ * minimum of the next. A value observed while the insertion of another key resizes the table may be lost.
+ */
+class PeakTable {
+
+    /**
+     * Receives the bounds of the keys of the table.
+     */
+    interface EntryConsumer {
+        void accept(long key, long max, long min);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NO_MAX = Long.MIN_VALUE;
+    private static final long NO_MIN = Long.MAX_VALUE;
+
+    private static final class Table {
+        final long[] keys;
+        final AtomicLongArray maxs;
+        final AtomicLongArray mins;
+        // Set once keys[i] holds a key, the key is published by the volatile write
+        final AtomicIntegerArray used;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            maxs = new AtomicLongArray(capacity);
+            mins = new AtomicLongArray(capacity);
+            used = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Observes a value of a key.
+     *
+     * @param key key
+     * @param value value
+     */
+    void observe(long key, long value) {
+        Table t = table;
+        int i = index(t, key);
+        if (i < 0) {
+            insert(key, value);
+        } else {
+            observe(t, i, value);
+        }
+    }
+
+    /**
+     * Calls the given consumer with the bounds of every key observed since the last collect, and resets them.
+     *
+     * @param consumer entry consumer
+     */
+    void collect(EntryConsumer consumer) {
+        collect(key -> true, consumer);
+    }
+
+    /**
+     * Calls the given consumer with the bounds of the keys accepted by the filter observed since the last
+     * collect, and resets them. The bounds of the other keys are kept.
+     *
+     * @param filter key filter
+     * @param consumer entry consumer
+     */
+    void collect(LongPredicate filter, EntryConsumer consumer) {
+        Table t = table;
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.used.get(i) != 0 && (t.maxs.get(i) != NO_MAX || t.mins.get(i) != NO_MIN)
+                    && filter.test(t.keys[i])) {
+                long max = t.maxs.getAndSet(i, NO_MAX);
+                long min = t.mins.getAndSet(i, NO_MIN);
+                // A value observed in between only set one of the bounds
+                consumer.accept(t.keys[i], max != NO_MAX ? max : min, min != NO_MIN ? min : max);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of keys in the table.
+     *
+     * @return number of keys
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private static void observe(Table t, int i, long value) {
+        long max;
+        while (value > (max = t.maxs.get(i)) && !t.maxs.compareAndSet(i, max, value)) {
+            // Retry with the maximum set by another thread
+        }
+        long min;
+        while (value < (min = t.mins.get(i)) && !t.mins.compareAndSet(i, min, value)) {
+            // Retry with the minimum set by another thread
+        }
+    }
+
+    private static int index(Table t, long key) {
+        for (int i = hash(key) & t.mask; t.used.get(i) != 0; i = (i + 1) & t.mask) {
+            if (t.keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void insert(long key, long value) {
+        int i = index(table, key);
+        if (i < 0) {
+            if ((size + 1) * 2 > table.keys.length) {
+                Table old = table;
+                Table resized = new Table(old.keys.length * 2);
+                for (int j = 0; j < old.keys.length; j++) {
+                    if (old.used.get(j) != 0) {
+                        put(resized, old.keys[j], old.maxs.get(j), old.mins.get(j));
+                    }
+                }
+                table = resized;
+            }
+            size++;
+            i = put(table, key, NO_MAX, NO_MIN);
+        }
+        observe(table, i, value);
+    }
+
+    private static int put(Table t, long key, long max, long min) {
+        int i = hash(key) & t.mask;
+        while (t.used.get(i) != 0) {
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = key;
+        t.maxs.set(i, max);
+        t.mins.set(i, min);
+        t.used.set(i, 1);
+        return i;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
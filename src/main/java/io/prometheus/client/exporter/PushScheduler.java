@@ -0,0 +1,150 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.CollectorRegistry;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes a registry to the Prometheus Push GW from a background thread.
+ * <p>
+ * Producers only call {@link #markDirty()}, which never blocks on HTTP. The registry is pushed once
+ * per flush interval if anything changed since the last push, or earlier as soon as maxDirty updates
+ * have accumulated. Concurrent flush requests are coalesced into a single push. Given the generation
+ * of the metrics of the registry, the scheduler pushes when the generation changed since the last
+ * successful push instead, so a flush triggered by updates that left the metrics as pushed is skipped.
+ * <p>
+ * Example Usage:
+ * <pre>
+ * {@code
+ * PushScheduler scheduler = new PushScheduler(new PushGateway("localhost:9091"), registry, "job", 1000, 10000);
+ * scheduler.start();
+ * ...
+ * scheduler.markDirty();
+ * }
+ * </pre>
+ */
+public class PushScheduler {
+
+    private final PushGateway pushGateway;
+    private final CollectorRegistry registry;
+    private final String job;
+    private final long flushIntervalMillis;
+    private final int maxDirty;
+    private final ScheduledExecutorService executorService;
+    private final MetricsGeneration generation;
+
+    /**
+     * Generation of the last successful push, only accessed by the flushing thread.
+     */
+    private long pushedGeneration;
+
+    /**
+     * Number of updates since the last successful push.
+     */
+    private final AtomicInteger dirty = new AtomicInteger();
+
+    /**
+     * Set while an early flush triggered by maxDirty is queued, so that only one is queued at a time.
+     */
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+
+    /**
+     * @param pushGateway push gateway the registry is pushed to
+     * @param registry registry to push
+     * @param job job name used for the push
+     * @param flushIntervalMillis interval between two regular pushes
+     * @param maxDirty number of updates after which a push is triggered before the interval elapses
+     */
+    public PushScheduler(PushGateway pushGateway, CollectorRegistry registry, String job,
+                         long flushIntervalMillis, int maxDirty) {
+        this(pushGateway, registry, job, flushIntervalMillis, maxDirty, null);
+    }
+
+    /**
+     * @param pushGateway push gateway the registry is pushed to
+     * @param registry registry to push
+     * @param job job name used for the push
+     * @param flushIntervalMillis interval between two regular pushes
+     * @param maxDirty number of updates after which a push is triggered before the interval elapses
+     * @param generation generation of the metrics of the registry, or null to push after every update
+     */
+    public PushScheduler(PushGateway pushGateway, CollectorRegistry registry, String job,
+                         long flushIntervalMillis, int maxDirty, MetricsGeneration generation) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis must be positive");
+        }
+        if (maxDirty <= 0) {
+            throw new IllegalArgumentException("maxDirty must be positive");
+        }
+        this.pushGateway = pushGateway;
+        this.registry = registry;
+        this.job = job;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxDirty = maxDirty;
+        this.generation = generation;
+        this.pushedGeneration = generation != null ? generation.get() : 0;
+        this.executorService = Executors.newSingleThreadScheduledExecutor(
+                HTTPServer.DaemonThreadFactory.defaultThreadFactory(true));
+    }
+
+    /**
+     * Starts the periodic flush.
+     */
+    public void start() {
+        executorService.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records that the registry has changed. Safe to call from any thread, never blocks.
+     */
+    public void markDirty() {
+        if (dirty.incrementAndGet() >= maxDirty && flushPending.compareAndSet(false, true)) {
+            try {
+                executorService.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Scheduler is stopped, nothing will be pushed anymore.
+                flushPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Pushes the registry if it changed since the last successful push.
+     */
+    void flush() {
+        flushPending.set(false);
+        int updates = dirty.getAndSet(0);
+        long current = generation != null ? generation.get() : 0;
+        if (generation != null ? current == pushedGeneration : updates == 0) {
+            return;
+        }
+        try {
+            pushGateway.pushAdd(registry, job);
+            pushedGeneration = current;
+        } catch (IOException e) {
+            // Retry with the next flush.
+            dirty.addAndGet(updates);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the scheduler after pushing any pending updates.
+     */
+    public void stop() {
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,95 @@
+package io.prometheus.client.exporter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory quantile sketch with a bounded relative error, for the distributions of the INT values.
+ * <p>
+ * Values are counted in buckets whose bounds grow geometrically, so any quantile is estimated within
+ * {@link #RELATIVE_ACCURACY} of its exact value. Values below 1 share a bucket estimated as 0, and values
+ * above 2^32 share the last one. Adding a value is a logarithm and an atomic increment, without locking
+ * or allocation. Sketches are merged by adding their bucket counts, e.g. the sketches of several ingest
+ * threads or time windows.
+ */
+class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.02;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MAX_VALUE = 0x100000000L;
+
+    /**
+     * Number of buckets of a sketch.
+     */
+    static final int BUCKETS = 2 + (int) Math.ceil(Math.log(MAX_VALUE) / LOG_GAMMA);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param value value
+     */
+    void add(double value) {
+        counts.incrementAndGet(index(value));
+    }
+
+    /**
+     * Adds the bucket counts of this sketch to the given ones.
+     *
+     * @param target bucket counts, of {@link #BUCKETS} length
+     */
+    void mergeInto(long[] target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            target[i] += counts.get(i);
+        }
+    }
+
+    /**
+     * Resets the sketch. Values added while it is reset may or may not be kept.
+     */
+    void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Estimates a quantile of merged bucket counts.
+     *
+     * @param counts bucket counts, of {@link #BUCKETS} length
+     * @param total sum of the bucket counts
+     * @param quantile quantile, between 0 and 1
+     * @return estimated quantile, or NaN if the counts are empty
+     */
+    static double quantile(long[] counts, long total, double quantile) {
+        if (total == 0) {
+            return Double.NaN;
+        }
+        double rank = quantile * (total - 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return value(i);
+            }
+        }
+        return value(BUCKETS - 1);
+    }
+
+    private static int index(double value) {
+        if (value < 1) {
+            return 0;
+        }
+        // Bucket i > 0 holds the values in (GAMMA^(i-2), GAMMA^(i-1)]
+        return 1 + (int) Math.ceil(Math.log(Math.min(value, MAX_VALUE)) / LOG_GAMMA);
+    }
+
+    /**
+     * Gets the value within the relative accuracy of every value of a bucket.
+     */
+    private static double value(int index) {
+        return index == 0 ? 0 : 2 * Math.pow(GAMMA, index - 1) / (GAMMA + 1);
+    }
+}
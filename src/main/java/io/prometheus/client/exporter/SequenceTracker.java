@@ -0,0 +1,125 @@
+package io.prometheus.client.exporter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the sequence numbers of the telemetry reports of a source, i.e. a hardware subsystem of a
+ * switch, to account for the reports lost between the switch and the collector.
+ * <p>
+ * A source numbers its reports consecutively, whatever the sampling of the switch, so a sequence
+ * number that skips ahead means that reports were lost on the way or dropped by the collector socket.
+ * The sequence numbers are tracked as the reports are received, before the collector may queue or shed
+ * them, so the reports the collector drops under load are not counted as lost. A sequence number behind
+ * the last one either fills a gap counted as lost (a reordered report), repeats one already received
+ * (a duplicate) or, if it is too far behind, means that the source restarted. The 32-bit sequence numbers
+ * wrap around, so they are compared with int subtraction.
+ * <p>
+ * The sequence numbers missing from the last {@link #MAX_REORDER} ones are kept in a bitmap, so that only
+ * a report that fills a recorded gap takes it back from the lost count. The reports of a source are received
+ * by the event loop of the channel they hash to, so the tracker's monitor is not contended; the counters
+ * are {@link LongAdder}s read without it.
+ */
+class SequenceTracker {
+
+    /**
+     * Distance behind the last sequence number beyond which a sequence number is taken as a restart.
+     */
+    static final int MAX_REORDER = 1024;
+    private static final int MASK = MAX_REORDER - 1;
+
+    /**
+     * Distance ahead of the last sequence number beyond which a sequence number is taken as a restart.
+     */
+    static final int MAX_GAP = 1 << 30;
+
+    // Last sequence number, guarded by the tracker's monitor like the fields below
+    private int last;
+    private boolean started;
+
+    // Bit (sequence & MASK) is set while that sequence number is in a gap counted as lost
+    private final long[] missing = new long[MAX_REORDER / 64];
+
+    final LongAdder received = new LongAdder();
+    final LongAdder lost = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder reordered = new LongAdder();
+    final LongAdder wraps = new LongAdder();
+    final LongAdder resets = new LongAdder();
+
+    /**
+     * Accounts for a report of the source.
+     *
+     * @param sequence sequence number of the report
+     */
+    synchronized void report(int sequence) {
+        received.increment();
+        if (!started) {
+            started = true;
+            last = sequence;
+            return;
+        }
+        int distance = sequence - last;
+        if (distance == 0) {
+            duplicates.increment();
+            return;
+        }
+        if (distance < 0 && distance > -MAX_REORDER) {
+            if (isMissing(sequence)) {
+                // Counted as lost when the gap was seen
+                setMissing(sequence, false);
+                reordered.increment();
+                lost.decrement();
+            } else {
+                duplicates.increment();
+            }
+            return;
+        }
+        if (distance > 0 && distance < MAX_GAP) {
+            lost.add(distance - 1);
+            if ((sequence & 0xffffffffL) < (last & 0xffffffffL)) {
+                wraps.increment();
+            }
+            if (distance > MAX_REORDER) {
+                // The whole window is in the gap
+                Arrays.fill(missing, -1L);
+            } else {
+                for (int gap = last + 1; gap != sequence; gap++) {
+                    setMissing(gap, true);
+                }
+            }
+        } else {
+            resets.increment();
+            Arrays.fill(missing, 0);
+        }
+        setMissing(sequence, false);
+        last = sequence;
+    }
+
+    private boolean isMissing(int sequence) {
+        int bit = sequence & MASK;
+        return (missing[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void setMissing(int sequence, boolean gap) {
+        int bit = sequence & MASK;
+        if (gap) {
+            missing[bit >>> 6] |= 1L << bit;
+        } else {
+            missing[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    /**
+     * Estimates the ratio of the reports of the source that were lost since it was first seen. The ratio does
+     * not depend on previous calls, so every scraper reads the same value; the loss over a time window is
+     * given by the rates of the counters instead.
+     *
+     * @return lost reports over expected reports, 0 if no report was expected
+     */
+    double lossRatio() {
+        long lostNow = lost.sum();
+        long expected = received.sum() - duplicates.sum() + lostNow;
+        return expected <= 0 || lostNow <= 0 ? 0 : (double) lostNow / expected;
+    }
+}
@@ -0,0 +1,38 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+
+import java.util.List;
+
+/**
+ * Metrics split by switch, so that each shard of the switches, or each switch, can be scraped as a
+ * separate target and rendered in parallel with the others.
+ * <p>
+ * Served under /metrics/shard/{n} and /metrics/switch/{id} by the HTTP servers built with
+ * {@code withShardedMetrics}.
+ */
+public interface ShardedMetrics {
+
+    /**
+     * Gets the number of shards the switches are spread over.
+     *
+     * @return number of shards
+     */
+    int shards();
+
+    /**
+     * Collects the metrics of the switches of a shard.
+     *
+     * @param shard shard, from 0 to {@link #shards()} - 1
+     * @return metric families
+     */
+    List<MetricFamilySamples> collectShard(int shard);
+
+    /**
+     * Collects the metrics of a single switch.
+     *
+     * @param switchId switch id
+     * @return metric families
+     */
+    List<MetricFamilySamples> collectSwitch(int switchId);
+}
@@ -0,0 +1,113 @@
+package io.prometheus.client.exporter;
+
+import java.util.function.IntFunction;
+
+/**
+ * Open-addressed table of per switch state keyed by the switch id.
+ * <p>
+ * Lookups probe a primitive array without locking or boxing. The table is copied when
+ * a switch is added, which happens once per switch of the topology, and switches are
+ * never removed.
+ *
+ * @param <T> type of the per switch state
+ */
+class SwitchTable<T> {
+
+    /**
+     * Receives the entries of the table.
+     */
+    interface EntryConsumer<T> {
+        void accept(int switchId, T value);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Gets the state of a switch, creating it when the switch is seen for the first time.
+     *
+     * @param switchId switch id
+     * @param factory creates the state of a new switch
+     * @return switch state
+     */
+    T get(int switchId, IntFunction<T> factory) {
+        T value = get(table, switchId);
+        return value != null ? value : insert(switchId, factory);
+    }
+
+    /**
+     * Calls the given consumer for every switch of the table, in no particular order.
+     *
+     * @param consumer entry consumer
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(EntryConsumer<T> consumer) {
+        Table t = table;
+        for (int i = 0; i < t.keys.length; i++) {
+            if (t.values[i] != null) {
+                consumer.accept(t.keys[i], (T) t.values[i]);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(Table t, int switchId) {
+        for (int i = hash(switchId) & t.mask; t.values[i] != null; i = (i + 1) & t.mask) {
+            if (t.keys[i] == switchId) {
+                return (T) t.values[i];
+            }
+        }
+        return null;
+    }
+
+    private synchronized T insert(int switchId, IntFunction<T> factory) {
+        T value = get(table, switchId);
+        if (value != null) {
+            // Inserted by another thread
+            return value;
+        }
+        value = factory.apply(switchId);
+        int capacity = table.keys.length;
+        if ((size + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table copy = new Table(capacity);
+        for (int i = 0; i < table.keys.length; i++) {
+            if (table.values[i] != null) {
+                put(copy, table.keys[i], table.values[i]);
+            }
+        }
+        put(copy, switchId, value);
+        size++;
+        table = copy;
+        return value;
+    }
+
+    private static void put(Table t, int switchId, Object value) {
+        int i = hash(switchId) & t.mask;
+        while (t.values[i] != null) {
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = switchId;
+        t.values[i] = value;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
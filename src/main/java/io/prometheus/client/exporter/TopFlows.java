@@ -0,0 +1,278 @@
+package io.prometheus.client.exporter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Streaming top-K of the flows by number of reports and by total latency, using the
+ * Space-Saving algorithm, so that only the flows that matter get their own series.
+ * <p>
+ * Each ranking counts a fixed number of flows: when a flow that is not counted is reported,
+ * it takes the place of the flow with the lowest weight and inherits its weight, which bounds
+ * the overestimation of its own. Memory is constant whatever the number of flows.
+ * <p>
+ * The rankings are split in stripes by the flow key hash, locked independently, so ingest
+ * channels only contend when they report flows of the same stripe. Every flow always falls
+ * in the same stripe, so the top flows overall are among the top flows of the stripes.
+ * The weights are halved by {@link #decay()}, so that the rankings follow the current rates.
+ */
+class TopFlows {
+
+    private static final int STRIPES = 16;
+
+    private final int k;
+    private final Stripe[] reports = new Stripe[STRIPES];
+    private final Stripe[] latencies = new Stripe[STRIPES];
+
+    /**
+     * @param k number of top flows of each ranking
+     */
+    TopFlows(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        // Space-Saving needs more counters than top flows to rank them accurately, and a stripe
+        // may hold more than its share of the top flows
+        int capacity = Math.max(16, 4 * ((k + STRIPES - 1) / STRIPES));
+        for (int i = 0; i < STRIPES; i++) {
+            reports[i] = new Stripe(capacity);
+            latencies[i] = new Stripe(capacity);
+        }
+    }
+
+    /**
+     * Counts a report of a flow.
+     *
+     * @param keyHigh first long of the flow key
+     * @param keyLow second long of the flow key
+     * @param flowLatency total latency of the report
+     */
+    void reported(long keyHigh, long keyLow, int flowLatency) {
+        int hash = FlowTable.hash(keyHigh, keyLow);
+        reports[hash >>> 28].offer(keyHigh, keyLow, hash, 1);
+        latencies[hash >>> 28].offer(keyHigh, keyLow, hash, flowLatency & 0xffffffffL);
+    }
+
+    /**
+     * Halves the weights of the flows.
+     */
+    void decay() {
+        for (int i = 0; i < STRIPES; i++) {
+            reports[i].decay();
+            latencies[i].decay();
+        }
+    }
+
+    /**
+     * Gets the current top flows of both rankings.
+     *
+     * @return keys of the top flows
+     */
+    Keys top() {
+        List<long[]> entries = new ArrayList<>();
+        top(reports, entries);
+        top(latencies, entries);
+        return new Keys(entries);
+    }
+
+    /**
+     * Adds the top k entries of the given stripes, as {key high, key low, weight} triples.
+     */
+    private void top(Stripe[] stripes, List<long[]> top) {
+        List<long[]> entries = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            stripe.entries(entries);
+        }
+        entries.sort(Comparator.comparingLong((long[] entry) -> entry[2]).reversed());
+        top.addAll(entries.subList(0, Math.min(k, entries.size())));
+    }
+
+    /**
+     * Keys of the top flows.
+     */
+    static final class Keys {
+        private final long[] highs;
+        private final long[] lows;
+
+        private Keys(List<long[]> entries) {
+            entries.sort(Comparator.comparingLong((long[] entry) -> entry[0])
+                    .thenComparingLong(entry -> entry[1]));
+            highs = new long[entries.size()];
+            lows = new long[entries.size()];
+            for (int i = 0; i < highs.length; i++) {
+                highs[i] = entries.get(i)[0];
+                lows[i] = entries.get(i)[1];
+            }
+        }
+
+        /**
+         * Checks whether a flow is a top flow.
+         *
+         * @param keyHigh first long of the flow key
+         * @param keyLow second long of the flow key
+         * @return true if the flow is in the top flows of either ranking
+         */
+        boolean contains(long keyHigh, long keyLow) {
+            int from = 0;
+            int to = highs.length - 1;
+            while (from <= to) {
+                int middle = (from + to) >>> 1;
+                int cmp = highs[middle] != keyHigh ? Long.compare(highs[middle], keyHigh)
+                        : Long.compare(lows[middle], keyLow);
+                if (cmp == 0) {
+                    return true;
+                } else if (cmp < 0) {
+                    from = middle + 1;
+                } else {
+                    to = middle - 1;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Space-Saving counters of a fixed number of flows: a min-heap of the counters by weight, to find
+     * the flow to replace, and an open-addressed index of the counters by flow key. Guarded by its
+     * own monitor.
+     */
+    private static final class Stripe {
+        final long[] highs;
+        final long[] lows;
+        final long[] weights;
+        // Counter of each heap position, and heap position of each counter
+        final int[] heap;
+        final int[] heapPositions;
+        // Counter + 1 by flow key hash, 0 if the slot is empty
+        final int[] index;
+        int size;
+
+        Stripe(int capacity) {
+            highs = new long[capacity];
+            lows = new long[capacity];
+            weights = new long[capacity];
+            heap = new int[capacity];
+            heapPositions = new int[capacity];
+            index = new int[Integer.highestOneBit(capacity * 4 - 1)];
+        }
+
+        synchronized void offer(long keyHigh, long keyLow, int hash, long weight) {
+            int counter = find(keyHigh, keyLow, hash);
+            if (counter < 0) {
+                if (size < heap.length) {
+                    counter = size;
+                    heap[size] = counter;
+                    heapPositions[counter] = size;
+                    size++;
+                    weights[counter] = 0;
+                    siftUp(heapPositions[counter]);
+                } else {
+                    // Replace the flow with the lowest weight, whose weight the new flow inherits
+                    counter = heap[0];
+                    unindex(counter);
+                }
+                highs[counter] = keyHigh;
+                lows[counter] = keyLow;
+                insert(counter, hash);
+            }
+            weights[counter] += weight;
+            siftDown(heapPositions[counter]);
+        }
+
+        synchronized void decay() {
+            // Halving every weight keeps the heap order
+            for (int counter = 0; counter < size; counter++) {
+                weights[counter] >>>= 1;
+            }
+        }
+
+        synchronized void entries(List<long[]> entries) {
+            for (int counter = 0; counter < size; counter++) {
+                entries.add(new long[] {highs[counter], lows[counter], weights[counter]});
+            }
+        }
+
+        private int find(long keyHigh, long keyLow, int hash) {
+            int mask = index.length - 1;
+            for (int i = hash & mask; index[i] != 0; i = (i + 1) & mask) {
+                int counter = index[i] - 1;
+                if (highs[counter] == keyHigh && lows[counter] == keyLow) {
+                    return counter;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(int counter, int hash) {
+            int mask = index.length - 1;
+            int i = hash & mask;
+            while (index[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            index[i] = counter + 1;
+        }
+
+        /**
+         * Removes a counter from the index. The entries that follow it in its probe
+         * sequence are shifted back, so lookups never need tombstones.
+         */
+        private void unindex(int counter) {
+            int mask = index.length - 1;
+            int i = FlowTable.hash(highs[counter], lows[counter]) & mask;
+            while (index[i] != counter + 1) {
+                i = (i + 1) & mask;
+            }
+            int hole = i;
+            for (int j = (hole + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+                int other = index[j] - 1;
+                int home = FlowTable.hash(highs[other], lows[other]) & mask;
+                // Move the entry into the hole unless its home slot lies cyclically in (hole, j]
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    index[hole] = index[j];
+                    hole = j;
+                }
+            }
+            index[hole] = 0;
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (weights[heap[parent]] <= weights[heap[position]]) {
+                    return;
+                }
+                swap(parent, position);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                int left = 2 * position + 1;
+                int right = left + 1;
+                if (left < size && weights[heap[left]] < weights[heap[smallest]]) {
+                    smallest = left;
+                }
+                if (right < size && weights[heap[right]] < weights[heap[smallest]]) {
+                    smallest = right;
+                }
+                if (smallest == position) {
+                    return;
+                }
+                swap(smallest, position);
+                position = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int counter = heap[i];
+            heap[i] = heap[j];
+            heap[j] = counter;
+            heapPositions[heap[i]] = i;
+            heapPositions[heap[j]] = j;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.monitoring.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Function to deserialize a packet straight from a byte buffer, e.g. a pooled
+ * direct receive buffer, without copying it into an array first.
+ * <p>
+ * Fields are read with absolute indexes, so the position and limit of the
+ * buffer are left untouched.
+ */
+@FunctionalInterface
+public interface BufferDeserializer<U extends IPacket> {
+
+    /**
+     * Deserialize a packet object from a byte buffer.
+     *
+     * @param buffer input buffer to take packet bytes from
+     * @param offset absolute index where this packet header begins in the buffer
+     * @param length length of the packet header
+     * @return a deserialized packet object
+     * @throws DeserializationException if the packet cannot be deserialized
+     * from the input
+     */
+    U deserialize(ByteBuffer buffer, int offset, int length) throws DeserializationException;
+}
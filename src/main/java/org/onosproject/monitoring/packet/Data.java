@@ -18,6 +18,7 @@
 
 package org.onosproject.monitoring.packet;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
@@ -121,4 +122,29 @@ public class Data extends BasePacket {
             return dataObject;
         };
     }
+
+    /**
+     * Deserializer function for generic payload data held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<Data> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            // Allow zero-length data for now
+            if (length == 0) {
+                return new Data();
+            }
+
+            checkInput(bb, offset, length, 1);
+
+            Data dataObject = new Data();
+
+            dataObject.data = new byte[length];
+            ByteBuffer payload = bb.duplicate();
+            payload.position(offset);
+            payload.get(dataObject.data);
+
+            return dataObject;
+        };
+    }
 }
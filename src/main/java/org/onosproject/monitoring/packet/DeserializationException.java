@@ -18,15 +18,89 @@ package org.onosproject.monitoring.packet;
 
 /**
  * Signals that an error occurred during deserialization of a packet.
+ * <p>
+ * Malformed packets are expected on the ingest path, so the checks of the
+ * parsers throw the shared instance of their {@link Reason} (see
+ * {@link #of(Reason)}), which has no stack trace and costs no allocation.
  */
 public class DeserializationException extends Exception {
 
+    /**
+     * Reason of a deserialization failure.
+     */
+    public enum Reason {
+        /** The offset and length given to the parser are outside the buffer. */
+        BUFFER_BOUNDS("Unable to read the requested bytes from the buffer"),
+        /** The buffer ends before the end of a header. */
+        TRUNCATED_HEADER("Not enough bytes remain in buffer to continue deserialization"),
+        /** The IP version field does not match the parsed header. */
+        INVALID_IP_VERSION("Invalid IP version"),
+        /** The INT metadata stack is shorter than its hop count requires. */
+        INVALID_INT_LENGTH("INT metadata length < total hop count * instruction bitmap length"),
+        /** Any other failure. */
+        MALFORMED("Malformed packet");
+
+        private final String message;
+        private final DeserializationException exception;
+
+        Reason(String message) {
+            this.message = message;
+            this.exception = new DeserializationException(this, message, false);
+        }
+
+        /**
+         * Gets the reason as a metric label value.
+         *
+         * @return lower case name of the reason
+         */
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Reason reason;
+
     /**
      * Creates a new deserialization exception with the given message.
      *
      * @param message exception message
      */
     public DeserializationException(String message) {
+        this(Reason.MALFORMED, message);
+    }
+
+    /**
+     * Creates a new deserialization exception with the given reason and message.
+     *
+     * @param reason reason of the failure
+     * @param message exception message
+     */
+    public DeserializationException(Reason reason, String message) {
         super(message);
+        this.reason = reason;
+    }
+
+    private DeserializationException(Reason reason, String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.reason = reason;
+    }
+
+    /**
+     * Gets the shared, stackless exception of the given reason.
+     *
+     * @param reason reason of the failure
+     * @return the exception to throw
+     */
+    public static DeserializationException of(Reason reason) {
+        return reason.exception;
+    }
+
+    /**
+     * Gets the reason of the failure.
+     *
+     * @return failure reason
+     */
+    public Reason getReason() {
+        return reason;
     }
 }
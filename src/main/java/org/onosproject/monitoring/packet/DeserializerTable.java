@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.monitoring.packet;
+
+/**
+ * Dispatch table from a 16 bit protocol number (ethertype, TCP/UDP port) to
+ * the deserializer of the next header.
+ * <p>
+ * Lookups probe a small open-addressed array with the primitive key, so no
+ * key is boxed on the packet path. Registration copies the table, which
+ * keeps lookups lock free while decoders are added at runtime.
+ */
+public final class DeserializerTable {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 8;
+
+    private static final class Table {
+        final int[] keys;
+        final BufferDeserializer<? extends IPacket>[] values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = newArray(capacity);
+            mask = capacity - 1;
+            java.util.Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private int size;
+
+    /**
+     * Gets the deserializer registered for a protocol number.
+     *
+     * @param key protocol number, only the 16 least significant bits are used
+     * @return the deserializer, or null if none is registered
+     */
+    public BufferDeserializer<? extends IPacket> get(int key) {
+        key &= 0xffff;
+        Table t = table;
+        for (int i = hash(key) & t.mask; ; i = (i + 1) & t.mask) {
+            int k = t.keys[i];
+            if (k == key) {
+                return t.values[i];
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Registers the deserializer of a protocol number, replacing the previous one.
+     *
+     * @param key protocol number, only the 16 least significant bits are used
+     * @param deserializer deserializer of the next header
+     */
+    public synchronized void register(int key, BufferDeserializer<? extends IPacket> deserializer) {
+        if (deserializer == null) {
+            throw new NullPointerException("deserializer");
+        }
+        key &= 0xffff;
+        Table current = table;
+        int capacity = current.keys.length;
+        if (get(key) == null && (size + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table copy = new Table(capacity);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != EMPTY && current.keys[i] != key) {
+                put(copy, current.keys[i], current.values[i]);
+            }
+        }
+        put(copy, key, deserializer);
+        size = countEntries(copy);
+        table = copy;
+    }
+
+    /**
+     * Removes the deserializer of a protocol number.
+     *
+     * @param key protocol number, only the 16 least significant bits are used
+     */
+    public synchronized void unregister(int key) {
+        key &= 0xffff;
+        Table current = table;
+        Table copy = new Table(current.keys.length);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != EMPTY && current.keys[i] != key) {
+                put(copy, current.keys[i], current.values[i]);
+            }
+        }
+        size = countEntries(copy);
+        table = copy;
+    }
+
+    /**
+     * Creates an array of deserializers. As the type parameter of a deserializer is bounded by
+     * {@link IPacket}, the unbounded wildcard array is one of any deserializer without a cast.
+     *
+     * @param length length of the array
+     * @return array of null deserializers
+     */
+    static BufferDeserializer<? extends IPacket>[] newArray(int length) {
+        return new BufferDeserializer<?>[length];
+    }
+
+    private static void put(Table t, int key, BufferDeserializer<? extends IPacket> deserializer) {
+        int i = hash(key) & t.mask;
+        while (t.keys[i] != EMPTY) {
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = key;
+        t.values[i] = deserializer;
+    }
+
+    private static int countEntries(Table t) {
+        int count = 0;
+        for (int key : t.keys) {
+            if (key != EMPTY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
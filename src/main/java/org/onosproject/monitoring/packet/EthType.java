@@ -29,7 +29,7 @@ public class EthType {
 
 //        ARP(0x806, "arp", org.onlab.packet.ARP.deserializer()),
 //        RARP(0x8035, "rarp", org.onlab.packet.ARP.deserializer()),
-        IPV4(0x800, "ipv4", org.onosproject.monitoring.packet.IPv4.deserializer()),
+        IPV4(0x800, "ipv4", org.onosproject.monitoring.packet.IPv4.bufferDeserializer()),
 //        IPV6(0x86dd, "ipv6", org.onlab.packet.IPv6.deserializer()),
 //        LLDP(0x88cc, "lldp", org.onlab.packet.LLDP.deserializer()),
         VLAN(0x8100, "vlan", null),
@@ -43,7 +43,7 @@ public class EthType {
 
         private final EthType etherType;
         private final String type;
-        private final Deserializer<?> deserializer;
+        private final BufferDeserializer<?> deserializer;
 
         /**
          * Constructs a new ethertype.
@@ -52,7 +52,7 @@ public class EthType {
          * @param type it's textual representation
          * @param deserializer a parser for this ethertype
          */
-        EtherType(int ethType, String type, Deserializer<?> deserializer) {
+        EtherType(int ethType, String type, BufferDeserializer<?> deserializer) {
             this.etherType = new EthType(ethType);
             this.type = type;
             this.deserializer = deserializer;
@@ -67,7 +67,7 @@ public class EthType {
             return type;
         }
 
-        public Deserializer<?> deserializer() {
+        public BufferDeserializer<?> bufferDeserializer() {
             return deserializer;
         }
 
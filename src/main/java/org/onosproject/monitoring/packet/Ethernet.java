@@ -16,11 +16,8 @@
 
 package org.onosproject.monitoring.packet;
 
-import com.google.common.collect.ImmutableMap;
-
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.onosproject.monitoring.packet.PacketUtils.checkHeaderLength;
@@ -53,18 +50,25 @@ public class Ethernet extends BasePacket {
 
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
 
-    private static final Map<Short, Deserializer<? extends IPacket>> ETHERTYPE_DESERIALIZER_MAP;
+    private static final DeserializerTable ETHERTYPE_DESERIALIZERS = new DeserializerTable();
 
     static {
-        ImmutableMap.Builder<Short, Deserializer<? extends IPacket>> builder =
-                ImmutableMap.builder();
-
         for (EthType.EtherType ethType : EthType.EtherType.values()) {
-            if (ethType.deserializer() != null) {
-                builder.put(ethType.ethType().toShort(), ethType.deserializer());
+            if (ethType.bufferDeserializer() != null) {
+                ETHERTYPE_DESERIALIZERS.register(ethType.ethType().toShort(), ethType.bufferDeserializer());
             }
         }
-        ETHERTYPE_DESERIALIZER_MAP = builder.build();
+    }
+
+    /**
+     * Registers the deserializer used for the payload of the given ethertype.
+     *
+     * @param ethType ethertype
+     * @param deserializer payload deserializer
+     */
+    public static void registerEtherTypeDeserializer(short ethType,
+                                                     BufferDeserializer<? extends IPacket> deserializer) {
+        ETHERTYPE_DESERIALIZERS.register(ethType, deserializer);
     }
 
     protected MacAddress destinationMACAddress;
@@ -713,37 +717,54 @@ public class Ethernet extends BasePacket {
      * @return deserializer function
      */
     public static Deserializer<Ethernet> deserializer() {
-        return (data, offset, length) -> {
-            checkInput(data, offset, length, ETHERNET_HEADER_LENGTH);
+        return (data, offset, length) ->
+                bufferDeserializer().deserialize(ByteBuffer.wrap(data), offset, length);
+    }
+
+    /**
+     * Deserializer function for Ethernet packets held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<Ethernet> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, ETHERNET_HEADER_LENGTH);
 
             byte[] addressBuffer = new byte[DATALAYER_ADDRESS_LENGTH];
 
-            ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
             Ethernet eth = new Ethernet();
+            int position = offset;
             // Read destination MAC address into buffer
-            bb.get(addressBuffer);
+            for (int i = 0; i < DATALAYER_ADDRESS_LENGTH; i++) {
+                addressBuffer[i] = bb.get(position++);
+            }
             eth.setDestinationMACAddress(addressBuffer);
 
             // Read source MAC address into buffer
-            bb.get(addressBuffer);
+            for (int i = 0; i < DATALAYER_ADDRESS_LENGTH; i++) {
+                addressBuffer[i] = bb.get(position++);
+            }
             eth.setSourceMACAddress(addressBuffer);
 
-            short ethType = bb.getShort();
+            short ethType = bb.getShort(position);
+            position += 2;
             if (ethType == TYPE_QINQ) {
                 // in this case we excpect 2 VLAN headers
                 checkHeaderLength(length, ETHERNET_HEADER_LENGTH + VLAN_HEADER_LENGTH + VLAN_HEADER_LENGTH);
-                final short tci = bb.getShort();
+                final short tci = bb.getShort(position);
                 eth.setQinQPriorityCode((byte) (tci >> 13 & 0x07));
                 eth.setQinQVID((short) (tci & 0x0fff));
                 eth.setQinQTPID(TYPE_QINQ);
-                ethType = bb.getShort();
+                ethType = bb.getShort(position + 2);
+                position += VLAN_HEADER_LENGTH;
             }
             if (ethType == TYPE_VLAN) {
                 checkHeaderLength(length, ETHERNET_HEADER_LENGTH + VLAN_HEADER_LENGTH);
-                final short tci = bb.getShort();
+                final short tci = bb.getShort(position);
                 eth.setPriorityCode((byte) (tci >> 13 & 0x07));
                 eth.setVlanID((short) (tci & 0x0fff));
-                ethType = bb.getShort();
+                ethType = bb.getShort(position + 2);
+                position += VLAN_HEADER_LENGTH;
 
                 if (ethType == TYPE_VLAN) {
                     // We handle only double tagged packets here and assume that in this case
@@ -755,10 +776,11 @@ public class Ethernet extends BasePacket {
                     eth.setQinQVID(eth.getVlanID());
                     eth.setQinQTPID(TYPE_VLAN);
 
-                    final short innerTci = bb.getShort();
+                    final short innerTci = bb.getShort(position);
                     eth.setPriorityCode((byte) (innerTci >> 13 & 0x07));
                     eth.setVlanID((short) (innerTci & 0x0fff));
-                    ethType = bb.getShort();
+                    ethType = bb.getShort(position + 2);
+                    position += VLAN_HEADER_LENGTH;
                 }
             } else {
                 eth.setVlanID(Ethernet.VLAN_UNTAGGED);
@@ -766,14 +788,12 @@ public class Ethernet extends BasePacket {
             eth.setEtherType(ethType);
 
             IPacket payload;
-            Deserializer<? extends IPacket> deserializer;
-            if (Ethernet.ETHERTYPE_DESERIALIZER_MAP.containsKey(ethType)) {
-                deserializer = Ethernet.ETHERTYPE_DESERIALIZER_MAP.get(ethType);
-            } else {
-                deserializer = Data.deserializer();
+            BufferDeserializer<? extends IPacket> deserializer = ETHERTYPE_DESERIALIZERS.get(ethType);
+            if (deserializer == null) {
+                deserializer = Data.bufferDeserializer();
             }
-            payload = deserializer.deserialize(data, bb.position(),
-                                               bb.limit() - bb.position());
+            payload = deserializer.deserialize(bb, position,
+                                               offset + length - position);
             payload.setParent(eth);
             eth.setPayload(payload);
 
@@ -53,7 +53,7 @@ public abstract class IP extends BasePacket {
 //                case 6:
 //                    return IPv6.deserializer().deserialize(data, offset, length);
                 default:
-                    throw new DeserializationException("Invalid IP version");
+                    throw DeserializationException.of(DeserializationException.Reason.INVALID_IP_VERSION);
             }
         };
     }
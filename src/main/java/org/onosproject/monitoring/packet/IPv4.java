@@ -19,9 +19,6 @@ package org.onosproject.monitoring.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
-
-import com.google.common.collect.ImmutableMap;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static org.onosproject.monitoring.packet.PacketUtils.checkHeaderLength;
@@ -36,21 +33,41 @@ public class IPv4 extends IP {
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
     public static final byte PROTOCOL_PIM = 0x67;
-    public static final Map<Byte, Deserializer<? extends IPacket>> PROTOCOL_DESERIALIZER_MAP =
-            ImmutableMap.<Byte, Deserializer<? extends IPacket>>builder()
-                    //.put(IPv4.PROTOCOL_ICMP, ICMP.deserializer())
-                    //.put(IPv4.PROTOCOL_IGMP, IGMP.deserializer())
-                    .put(IPv4.PROTOCOL_TCP, TCP.deserializer())
-                    .put(IPv4.PROTOCOL_UDP, UDP.deserializer())
-                    //.put(IPv4.PROTOCOL_PIM, PIM.deserializer())
-                    .build();
+
+    // Indexed by the unsigned protocol number, replaced as a whole on registration
+    private static volatile BufferDeserializer<? extends IPacket>[] protocolDeserializers =
+            DeserializerTable.newArray(256);
+
+    static {
+        //registerProtocolDeserializer(IPv4.PROTOCOL_ICMP, ICMP.deserializer());
+        //registerProtocolDeserializer(IPv4.PROTOCOL_IGMP, IGMP.deserializer());
+        registerProtocolDeserializer(IPv4.PROTOCOL_TCP, TCP.bufferDeserializer());
+        registerProtocolDeserializer(IPv4.PROTOCOL_UDP, UDP.bufferDeserializer());
+        //registerProtocolDeserializer(IPv4.PROTOCOL_PIM, PIM.deserializer());
+    }
+
+    /**
+     * Registers the deserializer used for the payload of the given IP protocol.
+     *
+     * @param protocol IP protocol number
+     * @param deserializer payload deserializer
+     */
+    public static synchronized void registerProtocolDeserializer(byte protocol,
+                                                                 BufferDeserializer<? extends IPacket> deserializer) {
+        if (deserializer == null) {
+            throw new NullPointerException("deserializer");
+        }
+        BufferDeserializer<? extends IPacket>[] deserializers = protocolDeserializers.clone();
+        deserializers[protocol & 0xff] = deserializer;
+        protocolDeserializers = deserializers;
+    }
 
 
     private static final byte DSCP_MASK = 0x3f;
     private static final byte DSCP_OFFSET = 2;
     private static final byte ECN_MASK = 0x3;
 
-    private static final short HEADER_LENGTH = 20;
+    static final short HEADER_LENGTH = 20;
 
     protected byte version;
     protected byte headerLength;
@@ -624,48 +641,57 @@ public class IPv4 extends IP {
      * @return deserializer function
      */
     public static Deserializer<IPv4> deserializer() {
-        return (data, offset, length) -> {
-            checkInput(data, offset, length, HEADER_LENGTH);
+        return (data, offset, length) ->
+                bufferDeserializer().deserialize(ByteBuffer.wrap(data), offset, length);
+    }
 
-            IPv4 ipv4 = new IPv4();
+    /**
+     * Deserializer function for IPv4 packets held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<IPv4> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, HEADER_LENGTH);
 
-            final ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+            IPv4 ipv4 = new IPv4();
 
-            byte versionByte = bb.get();
+            byte versionByte = bb.get(offset);
             ipv4.headerLength = (byte) (versionByte & 0xf);
             ipv4.setVersion((byte) (versionByte >> 4 & 0xf));
-            ipv4.setDiffServ(bb.get());
-            ipv4.totalLength = bb.getShort();
-            ipv4.identification = bb.getShort();
-            short flagsFragment = bb.getShort();
+            ipv4.setDiffServ(bb.get(offset + 1));
+            ipv4.totalLength = bb.getShort(offset + 2);
+            ipv4.identification = bb.getShort(offset + 4);
+            short flagsFragment = bb.getShort(offset + 6);
             ipv4.flags = (byte) (flagsFragment >> 13 & 0x7);
             ipv4.fragmentOffset = (short) (flagsFragment & 0x1fff);
-            ipv4.ttl = bb.get();
-            ipv4.protocol = bb.get();
-            ipv4.checksum = bb.getShort();
-            ipv4.sourceAddress = bb.getInt();
-            ipv4.destinationAddress = bb.getInt();
+            ipv4.ttl = bb.get(offset + 8);
+            ipv4.protocol = bb.get(offset + 9);
+            ipv4.checksum = bb.getShort(offset + 10);
+            ipv4.sourceAddress = bb.getInt(offset + 12);
+            ipv4.destinationAddress = bb.getInt(offset + 16);
+            int position = offset + HEADER_LENGTH;
 
             if (ipv4.headerLength > 5) {
                 checkHeaderLength(length, ipv4.headerLength * 4);
 
                 int optionsLength = (ipv4.headerLength - 5) * 4;
                 ipv4.options = new byte[optionsLength];
-                bb.get(ipv4.options);
+                for (int i = 0; i < optionsLength; i++) {
+                    ipv4.options[i] = bb.get(position++);
+                }
             }
 
-            Deserializer<? extends IPacket> deserializer;
-            if (IPv4.PROTOCOL_DESERIALIZER_MAP.containsKey(ipv4.protocol)) {
-                deserializer = IPv4.PROTOCOL_DESERIALIZER_MAP.get(ipv4.protocol);
-            } else {
-                deserializer = Data.deserializer();
+            BufferDeserializer<? extends IPacket> deserializer = protocolDeserializers[ipv4.protocol & 0xff];
+            if (deserializer == null) {
+                deserializer = Data.bufferDeserializer();
             }
 
-            int remainingLength = bb.limit() - bb.position();
+            int remainingLength = offset + length - position;
             int payloadLength = ipv4.totalLength - ipv4.headerLength * 4;
             int bytesToRead = (payloadLength <= remainingLength) ?
                     payloadLength : remainingLength;
-            ipv4.payload = deserializer.deserialize(data, bb.position(), bytesToRead);
+            ipv4.payload = deserializer.deserialize(bb, position, bytesToRead);
             ipv4.payload.setParent(ipv4);
 
             if (ipv4.totalLength != length) {
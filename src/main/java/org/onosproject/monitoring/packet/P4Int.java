@@ -28,9 +28,9 @@ import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
  */
 public class P4Int extends BasePacket {
 
-    private static final short INT_METADATA_HEADER_LENGTH = 8;  // bytes
-    private static final short INT_SHIM_HEADER_LENGTH = 4;  // bytes
-    private static final short INT_TAIL_HEADER_LENGTH = 4;  // bytes
+    static final short INT_METADATA_HEADER_LENGTH = 8;  // bytes
+    static final short INT_SHIM_HEADER_LENGTH = 4;  // bytes
+    static final short INT_TAIL_HEADER_LENGTH = 4;  // bytes
 
     // INT shim header
     protected byte type;    // 8
@@ -297,6 +297,26 @@ public class P4Int extends BasePacket {
         return this;
     }
 
+    /**
+     * Gets instruction bitmap.
+     *
+     * @return instruction bitmap
+     */
+    public short getInstructionBitmap() {
+        return this.instructionBitmap;
+    }
+
+    /**
+     * Sets instruction bitmap.
+     *
+     * @param instructionBitmap the instruction bitmap to set
+     * @return this
+     */
+    public P4Int setInstructionBitmap(final short instructionBitmap) {
+        this.instructionBitmap = instructionBitmap;
+        return this;
+    }
+
     /**
      * Gets INT metadata stack.
      *
@@ -312,25 +332,35 @@ public class P4Int extends BasePacket {
      * @return deserializer function
      */
     public static Deserializer<P4Int> deserializer() {
-        return (data, offset, length) -> {
-            checkInput(data, offset, length, INT_SHIM_HEADER_LENGTH +
+        return (data, offset, length) ->
+                bufferDeserializer().deserialize(ByteBuffer.wrap(data), offset, length);
+    }
+
+    /**
+     * Deserializer function for INT packets held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<P4Int> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, INT_SHIM_HEADER_LENGTH +
                     INT_METADATA_HEADER_LENGTH + INT_TAIL_HEADER_LENGTH);
 
-            final ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
             P4Int intPacket = new P4Int();
 
             // INT shim header
-            intPacket.type = bb.get();
-            intPacket.shimRsvd1 = bb.get();
-            intPacket.length = bb.get();
-            intPacket.shimRsvd2 = bb.get();
+            intPacket.type = bb.get(offset);
+            intPacket.shimRsvd1 = bb.get(offset + 1);
+            intPacket.length = bb.get(offset + 2);
+            intPacket.shimRsvd2 = bb.get(offset + 3);
 
             // INT metadata header
-            intPacket.controlField = bb.getShort();
-            intPacket.maxHopCnt = bb.get();
-            intPacket.totalHopCnt = bb.get();
-            intPacket.instructionBitmap = bb.getShort();
-            intPacket.rsvd2 = bb.getShort();
+            intPacket.controlField = bb.getShort(offset + 4);
+            intPacket.maxHopCnt = bb.get(offset + 6);
+            intPacket.totalHopCnt = bb.get(offset + 7);
+            intPacket.instructionBitmap = bb.getShort(offset + 8);
+            intPacket.rsvd2 = bb.getShort(offset + 10);
+            int position = offset + INT_SHIM_HEADER_LENGTH + INT_METADATA_HEADER_LENGTH;
 
             // INT control field
             intPacket.ver = (byte) ((intPacket.controlField & 0xC000) >> 14);
@@ -340,53 +370,29 @@ public class P4Int extends BasePacket {
             intPacket.rsvd1 = (byte) ((intPacket.controlField & 0x03e0) >> 5);
             intPacket.insCnt = (byte) (intPacket.controlField & 0x001f);
 
-            if (bb.remaining() - INT_TAIL_HEADER_LENGTH < (intPacket.totalHopCnt * intPacket.insCnt) * 4) {
-                throw new DeserializationException("INT metadata length < total hop count * instruction count");
+            int remaining = offset + length - position;
+            if (remaining - INT_TAIL_HEADER_LENGTH < (intPacket.totalHopCnt * intPacket.insCnt) * 4) {
+                throw DeserializationException.of(DeserializationException.Reason.INVALID_INT_LENGTH);
+            }
+            P4IntHopLayout layout = P4IntHopLayout.of(intPacket.instructionBitmap);
+            if (remaining - INT_TAIL_HEADER_LENGTH < intPacket.totalHopCnt * layout.length()) {
+                throw DeserializationException.of(DeserializationException.Reason.INVALID_INT_LENGTH);
             }
 
             // INT metadata
             for (int i = 0; i < intPacket.totalHopCnt; i++) {
-                P4IntTransitHop hop = new P4IntTransitHop();
-                if ((intPacket.instructionBitmap & 0x8000) != 0) {
-                    hop.setSwitchId(bb.getInt());
-                }
-                if ((intPacket.instructionBitmap & 0x4000) != 0) {
-                    hop.setIngressPortId(bb.getShort());
-                    hop.setEgressPortId(bb.getShort());
-                }
-                if ((intPacket.instructionBitmap & 0x2000) != 0) {
-                    hop.setHopLatency(bb.getInt());
-                }
-                if ((intPacket.instructionBitmap & 0x1000) != 0) {
-                    int queueStatus = bb.getInt();
-                    hop.setQueueId((byte) ((queueStatus & 0xFF000000) >> 24));
-                    hop.setQueueOccupancy(queueStatus & 0x00FFFFFF);
-                }
-                if ((intPacket.instructionBitmap & 0x0800) != 0) {
-                    hop.setIngressTimeStamp(bb.getInt());
-                }
-                if ((intPacket.instructionBitmap & 0x0400) != 0) {
-                    hop.setEgressTimeStamp(bb.getInt());
-                }
-                if ((intPacket.instructionBitmap & 0x0200) != 0) {
-                    int queueStatus = bb.getInt();
-                    hop.setQueueId((byte) ((queueStatus & 0xFF000000) >> 24));
-                    hop.setQueueCongestion(queueStatus & 0x00FFFFFF);
-                }
-                if ((intPacket.instructionBitmap & 0x0100) != 0) {
-                    hop.setEgressPortTxUtil(bb.getInt());
-                }
-
-                intPacket.transitHops.add(hop);
+                intPacket.transitHops.add(layout.decode(bb, layout.hopOffset(position, i), new P4IntTransitHop()));
             }
+            position = layout.hopOffset(position, Math.max(intPacket.totalHopCnt, 0));
 
             // INT tail header
-            intPacket.nextProto = bb.get();
-            intPacket.destPort = bb.getShort();
-            intPacket.dscp = bb.get();
+            intPacket.nextProto = bb.get(position);
+            intPacket.destPort = bb.getShort(position + 1);
+            intPacket.dscp = bb.get(position + 3);
+            position += INT_TAIL_HEADER_LENGTH;
 
-            intPacket.payload = Data.deserializer()
-                    .deserialize(data, bb.position(), bb.limit() - bb.position());
+            intPacket.payload = Data.bufferDeserializer()
+                    .deserialize(bb, position, offset + length - position);
             intPacket.payload.setParent(intPacket);
 
             return intPacket;
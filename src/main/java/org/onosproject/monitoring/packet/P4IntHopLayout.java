@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.monitoring.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Precomputed layout of an INT transit hop for a given instruction bitmap.
+ * <p>
+ * The offset of every instruction within a hop and the length of a hop only
+ * depend on the instruction bitmap, so they are computed once per bitmap
+ * instead of testing the bitmap bits for every hop of every packet. Since
+ * all hops of a packet have the same length, hop N can be decoded without
+ * walking the hops before it.
+ */
+public final class P4IntHopLayout {
+
+    /**
+     * Offset of an instruction that is not part of the bitmap.
+     */
+    public static final int ABSENT = -1;
+
+    private static final int INSTRUCTION_LENGTH = 4;  // bytes
+
+    // Only the 8 most significant bits of the bitmap carry instructions
+    private static final P4IntHopLayout[] LAYOUTS = new P4IntHopLayout[256];
+
+    static {
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            LAYOUTS[i] = new P4IntHopLayout(i << 8);
+        }
+    }
+
+    private final int switchIdOffset;
+    private final int portIdsOffset;
+    private final int hopLatencyOffset;
+    private final int queueOccupancyOffset;
+    private final int ingressTstampOffset;
+    private final int egressTstampOffset;
+    private final int queueCongestionOffset;
+    private final int egressPortTxUtilOffset;
+    private final int length;
+
+    private P4IntHopLayout(int instructionBitmap) {
+        int position = 0;
+        switchIdOffset = (instructionBitmap & 0x8000) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x8000) != 0 ? INSTRUCTION_LENGTH : 0;
+        portIdsOffset = (instructionBitmap & 0x4000) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x4000) != 0 ? INSTRUCTION_LENGTH : 0;
+        hopLatencyOffset = (instructionBitmap & 0x2000) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x2000) != 0 ? INSTRUCTION_LENGTH : 0;
+        queueOccupancyOffset = (instructionBitmap & 0x1000) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x1000) != 0 ? INSTRUCTION_LENGTH : 0;
+        ingressTstampOffset = (instructionBitmap & 0x0800) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x0800) != 0 ? INSTRUCTION_LENGTH : 0;
+        egressTstampOffset = (instructionBitmap & 0x0400) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x0400) != 0 ? INSTRUCTION_LENGTH : 0;
+        queueCongestionOffset = (instructionBitmap & 0x0200) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x0200) != 0 ? INSTRUCTION_LENGTH : 0;
+        egressPortTxUtilOffset = (instructionBitmap & 0x0100) != 0 ? position : ABSENT;
+        position += (instructionBitmap & 0x0100) != 0 ? INSTRUCTION_LENGTH : 0;
+        length = position;
+    }
+
+    /**
+     * Gets the layout of the hops described by the given instruction bitmap.
+     *
+     * @param instructionBitmap INT instruction bitmap
+     * @return hop layout
+     */
+    public static P4IntHopLayout of(short instructionBitmap) {
+        return LAYOUTS[(instructionBitmap >> 8) & 0xff];
+    }
+
+    /**
+     * Checks whether the hops carry both the ingress and egress time stamps.
+     *
+     * @return true if both time stamps are requested
+     */
+    public boolean hasTimeStamps() {
+        return ingressTstampOffset != ABSENT && egressTstampOffset != ABSENT;
+    }
+
+    /**
+     * Gets the length of a hop.
+     *
+     * @return hop length in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Gets the absolute index of a hop.
+     *
+     * @param hopsOffset absolute index of the first hop
+     * @param hop index of the hop in the metadata stack
+     * @return absolute index of the hop
+     */
+    public int hopOffset(int hopsOffset, int hop) {
+        return hopsOffset + hop * length;
+    }
+
+    /**
+     * Gets transit hop switch id.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop switch id, 0 if not requested
+     */
+    public int getSwitchId(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, switchIdOffset);
+    }
+
+    /**
+     * Gets transit hop ingress port ID.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop ingress port ID, 0 if not requested
+     */
+    public short getIngressPortId(ByteBuffer bb, int hopOffset) {
+        return (short) (getInt(bb, hopOffset, portIdsOffset) >> 16);
+    }
+
+    /**
+     * Gets transit hop egress port ID.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop egress port ID, 0 if not requested
+     */
+    public short getEgressPortId(ByteBuffer bb, int hopOffset) {
+        return (short) getInt(bb, hopOffset, portIdsOffset);
+    }
+
+    /**
+     * Gets transit hop hop-latency.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop hop-latency, 0 if not requested
+     */
+    public int getHopLatency(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, hopLatencyOffset);
+    }
+
+    /**
+     * Gets transit hop queue ID. The queue congestion instruction takes
+     * precedence over the queue occupancy one.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop queue ID, 0 if not requested
+     */
+    public byte getQueueId(ByteBuffer bb, int hopOffset) {
+        int queueStatusOffset = queueCongestionOffset != ABSENT ? queueCongestionOffset : queueOccupancyOffset;
+        return (byte) (getInt(bb, hopOffset, queueStatusOffset) >>> 24);
+    }
+
+    /**
+     * Gets transit hop queue occupancy.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop queue occupancy, 0 if not requested
+     */
+    public int getQueueOccupancy(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, queueOccupancyOffset) & 0x00FFFFFF;
+    }
+
+    /**
+     * Gets transit hop ingress time stamp.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop ingress time stamp, 0 if not requested
+     */
+    public int getIngressTimeStamp(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, ingressTstampOffset);
+    }
+
+    /**
+     * Gets transit hop egress time stamp.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop egress time stamp, 0 if not requested
+     */
+    public int getEgressTimeStamp(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, egressTstampOffset);
+    }
+
+    /**
+     * Gets transit hop queue congestion.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop queue congestion, 0 if not requested
+     */
+    public int getQueueCongestion(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, queueCongestionOffset) & 0x00FFFFFF;
+    }
+
+    /**
+     * Gets transit hop egress port TX utilization.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @return transit hop egress port TX utilization, 0 if not requested
+     */
+    public int getEgressPortTxUtil(ByteBuffer bb, int hopOffset) {
+        return getInt(bb, hopOffset, egressPortTxUtilOffset);
+    }
+
+    /**
+     * Decodes a transit hop into the given object.
+     *
+     * @param bb buffer holding the hop
+     * @param hopOffset absolute index of the hop
+     * @param hop transit hop to fill
+     * @return the transit hop
+     */
+    public P4IntTransitHop decode(ByteBuffer bb, int hopOffset, P4IntTransitHop hop) {
+        if (switchIdOffset != ABSENT) {
+            hop.setSwitchId(getSwitchId(bb, hopOffset));
+        }
+        if (portIdsOffset != ABSENT) {
+            hop.setIngressPortId(getIngressPortId(bb, hopOffset));
+            hop.setEgressPortId(getEgressPortId(bb, hopOffset));
+        }
+        if (hopLatencyOffset != ABSENT) {
+            hop.setHopLatency(getHopLatency(bb, hopOffset));
+        }
+        if (queueOccupancyOffset != ABSENT || queueCongestionOffset != ABSENT) {
+            hop.setQueueId(getQueueId(bb, hopOffset));
+        }
+        if (queueOccupancyOffset != ABSENT) {
+            hop.setQueueOccupancy(getQueueOccupancy(bb, hopOffset));
+        }
+        if (ingressTstampOffset != ABSENT) {
+            hop.setIngressTimeStamp(getIngressTimeStamp(bb, hopOffset));
+        }
+        if (egressTstampOffset != ABSENT) {
+            hop.setEgressTimeStamp(getEgressTimeStamp(bb, hopOffset));
+        }
+        if (queueCongestionOffset != ABSENT) {
+            hop.setQueueCongestion(getQueueCongestion(bb, hopOffset));
+        }
+        if (egressPortTxUtilOffset != ABSENT) {
+            hop.setEgressPortTxUtil(getEgressPortTxUtil(bb, hopOffset));
+        }
+        return hop;
+    }
+
+    private static int getInt(ByteBuffer bb, int hopOffset, int fieldOffset) {
+        return fieldOffset == ABSENT ? 0 : bb.getInt(hopOffset + fieldOffset);
+    }
+}
@@ -16,6 +16,10 @@
 
 package org.onosproject.monitoring.packet;
 
+import java.nio.ByteBuffer;
+
+import org.onosproject.monitoring.packet.DeserializationException.Reason;
+
 /**
  * Utilities for working with packet headers.
  */
@@ -40,8 +44,7 @@ public final class PacketUtils {
         ok = ok & (length >= 0 && offset + length <= byteLength);
 
         if (!ok) {
-            throw new DeserializationException("Unable to read " + length + " bytes from a "
-                                                       + byteLength + " byte array starting at offset " + offset);
+            throw DeserializationException.of(Reason.BUFFER_BOUNDS);
         }
     }
 
@@ -56,9 +59,7 @@ public final class PacketUtils {
     public static void checkHeaderLength(int givenLength, int requiredLength)
             throws DeserializationException {
         if (requiredLength > givenLength) {
-            throw new DeserializationException(requiredLength
-                                                       + " bytes are needed to continue deserialization, however only "
-                                                       + givenLength + " remain in buffer");
+            throw DeserializationException.of(Reason.TRUNCATED_HEADER);
         }
     }
 
@@ -81,4 +82,24 @@ public final class PacketUtils {
         checkBufferLength(data.length, offset, length);
         checkHeaderLength(length, requiredLength);
     }
+
+    /**
+     * Check the input parameters are sane and there's enough bytes in the
+     * buffer to read the required length.
+     *
+     * @param buffer input byte buffer
+     * @param offset absolute index of the start of the header
+     * @param length length given to deserialize the header
+     * @param requiredLength length needed to deserialize header
+     * @throws DeserializationException if we're unable to deserialize the
+     * packet based on the input parameters
+     */
+    public static void checkInput(ByteBuffer buffer, int offset, int length, int requiredLength)
+            throws DeserializationException {
+        if (buffer == null) {
+            throw new NullPointerException();
+        }
+        checkBufferLength(buffer.limit(), offset, length);
+        checkHeaderLength(length, requiredLength);
+    }
 }
@@ -30,7 +30,7 @@ import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
 public class TCP extends BasePacket {
 
     private static final short IP_HEADER_LENGTH = 20;
-    private static final short TCP_HEADER_LENGTH = 20;
+    static final short TCP_HEADER_LENGTH = 20;
 
     public static final byte INT_DSCP = 0x1;
 
@@ -400,45 +400,57 @@ public class TCP extends BasePacket {
      * @return deserializer function
      */
     public static Deserializer<TCP> deserializer() {
-        return (data, offset, length) -> {
-            checkInput(data, offset, length, TCP_HEADER_LENGTH);
+        return (data, offset, length) ->
+                bufferDeserializer().deserialize(ByteBuffer.wrap(data), offset, length);
+    }
+
+    /**
+     * Deserializer function for TCP packets held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<TCP> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, TCP_HEADER_LENGTH);
 
             TCP tcp = new TCP();
 
-            final ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-            tcp.sourcePort = (bb.getShort() & 0xffff);
-            tcp.destinationPort = (bb.getShort() & 0xffff);
-            tcp.sequence = bb.getInt();
-            tcp.acknowledge = bb.getInt();
-            tcp.flags = bb.getShort();
+            tcp.sourcePort = (bb.getShort(offset) & 0xffff);
+            tcp.destinationPort = (bb.getShort(offset + 2) & 0xffff);
+            tcp.sequence = bb.getInt(offset + 4);
+            tcp.acknowledge = bb.getInt(offset + 8);
+            tcp.flags = bb.getShort(offset + 12);
             tcp.dataOffset = (byte) (tcp.flags >> 12 & 0xf);
             tcp.flags = (short) (tcp.flags & 0x1ff);
-            tcp.windowSize = bb.getShort();
-            tcp.checksum = bb.getShort();
-            tcp.urgentPointer = bb.getShort();
+            tcp.windowSize = bb.getShort(offset + 14);
+            tcp.checksum = bb.getShort(offset + 16);
+            tcp.urgentPointer = bb.getShort(offset + 18);
+            int position = offset + TCP_HEADER_LENGTH;
             if (tcp.dataOffset > 5) {
                 int optLength = (tcp.dataOffset << 2) - 20;
-                checkHeaderLength(length, TCP_HEADER_LENGTH + tcp.dataOffset);
+                checkHeaderLength(length, tcp.dataOffset << 2);
                 tcp.options = new byte[optLength];
-                bb.get(tcp.options, 0, optLength);
+                for (int i = 0; i < optLength; i++) {
+                    tcp.options[i] = bb.get(position++);
+                }
             }
 
             byte dscp = 0;
             int ipHeaderOffset = offset - IP_HEADER_LENGTH;
             if (ipHeaderOffset >= 0) {
-                byte tos = data[ipHeaderOffset + 1];
+                byte tos = bb.get(ipHeaderOffset + 1);
                 dscp = (byte) (tos >> 2 & 0x3f);
             }
 
-            Deserializer<? extends IPacket> deserializer;
+            BufferDeserializer<? extends IPacket> deserializer;
             if (dscp == INT_DSCP) {
-                deserializer = P4Int.deserializer();
+                deserializer = P4Int.bufferDeserializer();
             } else {
-                deserializer = Data.deserializer();
+                deserializer = Data.bufferDeserializer();
             }
 
-            tcp.payload = deserializer.deserialize(data, bb.position(),
-                                                   bb.limit() - bb.position());
+            tcp.payload = deserializer.deserialize(bb, position,
+                                                   offset + length - position);
             tcp.payload.setParent(tcp);
             return tcp;
         };
@@ -27,12 +27,12 @@ import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
  */
 public class TelemetryReport extends BasePacket {
 
-    private static final short TELEMETRY_REPORT_FIXED_HEADER_LENGTH = 12;
-    private static final short TELEMETRY_DROP_HEADER_LENGTH = 12;
-    private static final short TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH = 16;
+    static final short TELEMETRY_REPORT_FIXED_HEADER_LENGTH = 12;
+    static final short TELEMETRY_DROP_HEADER_LENGTH = 12;
+    static final short TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH = 16;
 
-    private static final short TYPE_TELEMETRY_DROP = 1;
-    private static final short TYPE_TELEMETRY_SWITCH_LOCAL = 2;
+    static final short TYPE_TELEMETRY_DROP = 1;
+    static final short TYPE_TELEMETRY_SWITCH_LOCAL = 2;
 
     protected byte ver;
     protected byte nextProto;
@@ -197,13 +197,23 @@ public class TelemetryReport extends BasePacket {
      * @return deserializer function
      */
     public static Deserializer<TelemetryReport> deserializer() {
-        return (data, offset, length) -> {
-            checkInput(data, offset, length, TELEMETRY_REPORT_FIXED_HEADER_LENGTH);
+        return (data, offset, length) ->
+                bufferDeserializer().deserialize(ByteBuffer.wrap(data), offset, length);
+    }
+
+    /**
+     * Deserializer function for Telemetry Report packets held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<TelemetryReport> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, TELEMETRY_REPORT_FIXED_HEADER_LENGTH);
 
-            final ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
             TelemetryReport reportPacket = new TelemetryReport();
+            int position = offset;
 
-            int firstWord = bb.getInt();
+            int firstWord = bb.getInt(position);
             reportPacket.ver = (byte) (firstWord >> 28 & 0xf);
             reportPacket.nextProto = (byte) (firstWord >> 24 & 0xf);
             reportPacket.d = (byte) (firstWord >> 23 & 0x1);
@@ -212,35 +222,38 @@ public class TelemetryReport extends BasePacket {
             reportPacket.reserved = (short) (firstWord >> 6 & 0x7fff);
             reportPacket.hwId = (byte) (firstWord & 0x3f);
 
-            reportPacket.sequence = bb.getInt();
-            reportPacket.ingressTstamp = bb.getInt();
+            reportPacket.sequence = bb.getInt(position + 4);
+            reportPacket.ingressTstamp = bb.getInt(position + 8);
+            position += TELEMETRY_REPORT_FIXED_HEADER_LENGTH;
 
             if (reportPacket.nextProto == TYPE_TELEMETRY_DROP) {
                 checkHeaderLength(length, TELEMETRY_REPORT_FIXED_HEADER_LENGTH +
                         TELEMETRY_DROP_HEADER_LENGTH);
-                reportPacket.switchId = bb.getInt();
-                reportPacket.ingressPortId = bb.getShort();
-                reportPacket.egressPortId = bb.getShort();
-                reportPacket.queueId = bb.get();
-                reportPacket.dropReason = bb.get();
-                reportPacket.pad = bb.getShort();
+                reportPacket.switchId = bb.getInt(position);
+                reportPacket.ingressPortId = bb.getShort(position + 4);
+                reportPacket.egressPortId = bb.getShort(position + 6);
+                reportPacket.queueId = bb.get(position + 8);
+                reportPacket.dropReason = bb.get(position + 9);
+                reportPacket.pad = bb.getShort(position + 10);
+                position += TELEMETRY_DROP_HEADER_LENGTH;
             }
             else if (reportPacket.nextProto == TYPE_TELEMETRY_SWITCH_LOCAL) {
                 checkHeaderLength(length, TELEMETRY_REPORT_FIXED_HEADER_LENGTH +
                         TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH);
-                reportPacket.switchId = bb.getInt();
-                reportPacket.ingressPortId = bb.getShort();
-                reportPacket.egressPortId = bb.getShort();
-                int queueStatus = bb.getInt();
+                reportPacket.switchId = bb.getInt(position);
+                reportPacket.ingressPortId = bb.getShort(position + 4);
+                reportPacket.egressPortId = bb.getShort(position + 6);
+                int queueStatus = bb.getInt(position + 8);
                 reportPacket.queueId = ((byte) ((queueStatus & 0xFF000000) >> 24));
                 reportPacket.queueOccupancy = (queueStatus & 0x00FFFFFF);
-                reportPacket.egressTstamp = bb.getInt();
+                reportPacket.egressTstamp = bb.getInt(position + 12);
+                position += TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH;
             }
 
             // Inner Ethernet header
-            int remainingLen = bb.limit() - bb.position();
+            int remainingLen = offset + length - position;
             if(remainingLen > 0) {
-                reportPacket.payload = Ethernet.deserializer().deserialize(data, bb.position(), remainingLen);
+                reportPacket.payload = Ethernet.bufferDeserializer().deserialize(bb, position, remainingLen);
                 reportPacket.payload.setParent(reportPacket);
             }
 
@@ -0,0 +1,541 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onosproject.monitoring.packet;
+
+import java.nio.ByteBuffer;
+
+import static org.onosproject.monitoring.packet.PacketUtils.checkHeaderLength;
+import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
+
+/**
+ * Allocation free, reusable view of a Telemetry Report held in a byte buffer.
+ * <p>
+ * {@link #wrap(ByteBuffer, int, int)} validates the report and computes the
+ * offsets of the inner headers once; the accessors then decode the fields
+ * straight from the buffer. Unlike {@link TelemetryReport#deserializer()}, no
+ * packet objects are created. A view is not thread safe and is only valid
+ * until it is wrapped around another report or the buffer is released. Its
+ * accessors must not be used after {@code wrap} failed.
+ */
+public class TelemetryReportView {
+
+    private static final int ABSENT = -1;
+
+    private ByteBuffer buffer;
+    private int reportOffset;
+    private int localHeaderOffset;
+    private int etherType;
+    private int ipv4Offset;
+    private int l4Offset;
+    private int intOffset;
+
+    // INT metadata stack
+    private int hopCount;
+    private int hopsOffset;
+    private P4IntHopLayout hopLayout;
+
+    /**
+     * Positions this view over the telemetry report found in the given buffer.
+     *
+     * @param bb buffer holding the report
+     * @param offset absolute index where the report begins in the buffer
+     * @param length length of the report
+     * @return this
+     * @throws DeserializationException if the report is malformed or truncated
+     */
+    public TelemetryReportView wrap(ByteBuffer bb, int offset, int length) throws DeserializationException {
+        buffer = null;
+        localHeaderOffset = ABSENT;
+        etherType = ABSENT;
+        ipv4Offset = ABSENT;
+        l4Offset = ABSENT;
+        intOffset = ABSENT;
+        hopCount = 0;
+
+        checkInput(bb, offset, length, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH);
+        buffer = bb;
+        reportOffset = offset;
+        int end = offset + length;
+        int position = offset + TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH;
+
+        int nextProto = bb.get(offset) & 0xf;
+        if (nextProto == TelemetryReport.TYPE_TELEMETRY_DROP) {
+            checkHeaderLength(length, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH +
+                    TelemetryReport.TELEMETRY_DROP_HEADER_LENGTH);
+            localHeaderOffset = position;
+            position += TelemetryReport.TELEMETRY_DROP_HEADER_LENGTH;
+        } else if (nextProto == TelemetryReport.TYPE_TELEMETRY_SWITCH_LOCAL) {
+            checkHeaderLength(length, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH +
+                    TelemetryReport.TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH);
+            localHeaderOffset = position;
+            position += TelemetryReport.TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH;
+        }
+
+        if (end - position > 0) {
+            wrapEthernet(bb, position, end - position);
+        }
+        return this;
+    }
+
+    private void wrapEthernet(ByteBuffer bb, int offset, int length) throws DeserializationException {
+        checkInput(bb, offset, length, Ethernet.ETHERNET_HEADER_LENGTH);
+        int position = offset + 2 * Ethernet.DATALAYER_ADDRESS_LENGTH;
+        short ethType = bb.getShort(position);
+        position += 2;
+        if (ethType == Ethernet.TYPE_QINQ) {
+            checkHeaderLength(length, Ethernet.ETHERNET_HEADER_LENGTH + 2 * Ethernet.VLAN_HEADER_LENGTH);
+            ethType = bb.getShort(position + 2);
+            position += Ethernet.VLAN_HEADER_LENGTH;
+        }
+        if (ethType == Ethernet.TYPE_VLAN) {
+            checkHeaderLength(length, Ethernet.ETHERNET_HEADER_LENGTH + Ethernet.VLAN_HEADER_LENGTH);
+            ethType = bb.getShort(position + 2);
+            position += Ethernet.VLAN_HEADER_LENGTH;
+            if (ethType == Ethernet.TYPE_VLAN) {
+                ethType = bb.getShort(position + 2);
+                position += Ethernet.VLAN_HEADER_LENGTH;
+            }
+        }
+        etherType = ethType & 0xffff;
+
+        if (ethType == Ethernet.TYPE_IPV4) {
+            wrapIpv4(bb, position, offset + length - position);
+        }
+    }
+
+    private void wrapIpv4(ByteBuffer bb, int offset, int length) throws DeserializationException {
+        checkInput(bb, offset, length, IPv4.HEADER_LENGTH);
+        int headerLength = (bb.get(offset) & 0xf) * 4;
+        if (headerLength > IPv4.HEADER_LENGTH) {
+            checkHeaderLength(length, headerLength);
+        }
+        ipv4Offset = offset;
+
+        int payloadLength = (bb.getShort(offset + 2) & 0xffff) - headerLength;
+        int position = offset + Math.max(headerLength, IPv4.HEADER_LENGTH);
+        int remainingLength = offset + length - position;
+        int l4Length = Math.min(payloadLength, remainingLength);
+        boolean intDscp = getDscp() == TCP.INT_DSCP;
+
+        byte protocol = bb.get(offset + 9);
+        if (protocol == IPv4.PROTOCOL_TCP) {
+            checkInput(bb, position, l4Length, TCP.TCP_HEADER_LENGTH);
+            int tcpHeaderLength = (bb.get(position + 12) >> 4 & 0xf) << 2;
+            if (tcpHeaderLength > TCP.TCP_HEADER_LENGTH) {
+                checkHeaderLength(l4Length, tcpHeaderLength);
+            } else {
+                tcpHeaderLength = TCP.TCP_HEADER_LENGTH;
+            }
+            l4Offset = position;
+            if (intDscp) {
+                wrapInt(bb, position + tcpHeaderLength, l4Length - tcpHeaderLength);
+            }
+        } else if (protocol == IPv4.PROTOCOL_UDP) {
+            checkInput(bb, position, l4Length, UDP.UDP_HEADER_LENGTH);
+            l4Offset = position;
+            // Reports encapsulated in reports are not INT packets
+            boolean nestedReport = getSourcePort() == UDP.TELEMETRY_REPORT_PORT ||
+                    getDestinationPort() == UDP.TELEMETRY_REPORT_PORT;
+            if (intDscp && !nestedReport) {
+                wrapInt(bb, position + UDP.UDP_HEADER_LENGTH, l4Length - UDP.UDP_HEADER_LENGTH);
+            }
+        }
+    }
+
+    private void wrapInt(ByteBuffer bb, int offset, int length) throws DeserializationException {
+        checkInput(bb, offset, length, P4Int.INT_SHIM_HEADER_LENGTH +
+                P4Int.INT_METADATA_HEADER_LENGTH + P4Int.INT_TAIL_HEADER_LENGTH);
+        int metadataOffset = offset + P4Int.INT_SHIM_HEADER_LENGTH;
+        int insCnt = bb.get(metadataOffset + 1) & 0x1f;
+        int totalHopCnt = bb.get(metadataOffset + 3);
+        short instructionBitmap = bb.getShort(metadataOffset + 4);
+
+        P4IntHopLayout layout = P4IntHopLayout.of(instructionBitmap);
+
+        int metadataLength = length - P4Int.INT_SHIM_HEADER_LENGTH - P4Int.INT_METADATA_HEADER_LENGTH -
+                P4Int.INT_TAIL_HEADER_LENGTH;
+        if (metadataLength < totalHopCnt * insCnt * 4 || metadataLength < totalHopCnt * layout.length()) {
+            throw DeserializationException.of(DeserializationException.Reason.INVALID_INT_LENGTH);
+        }
+
+        intOffset = offset;
+        hopsOffset = metadataOffset + P4Int.INT_METADATA_HEADER_LENGTH;
+        hopLayout = layout;
+        hopCount = Math.max(totalHopCnt, 0);
+    }
+
+    /**
+     * Gets telemetry report version.
+     *
+     * @return telemetry report version
+     */
+    public byte getVersion() {
+        return (byte) (buffer.get(reportOffset) >> 4 & 0xf);
+    }
+
+    /**
+     * Gets next protocol.
+     *
+     * @return next protocol
+     */
+    public byte getNextProto() {
+        return (byte) (buffer.get(reportOffset) & 0xf);
+    }
+
+    /**
+     * Indicates that at least one packet matching a drop watchlist was dropped.
+     *
+     * @return true if D bit is set
+     */
+    public boolean hasDroppedPacket() {
+        return (buffer.get(reportOffset + 1) & 0x80) != 0;
+    }
+
+    /**
+     * Indicates the presence of congestion on a monitored queue.
+     *
+     * @return true if Q bit is set
+     */
+    public boolean hasCongestion() {
+        return (buffer.get(reportOffset + 1) & 0x40) != 0;
+    }
+
+    /**
+     * Indicates that this telemetry report is for a tracked flow.
+     *
+     * @return true if F bit is set
+     */
+    public boolean hasTrackedFlow() {
+        return (buffer.get(reportOffset + 1) & 0x20) != 0;
+    }
+
+    /**
+     * Gets the hardware subsystem within the source that generated this report.
+     *
+     * @return hardware ID
+     */
+    public byte getHwId() {
+        return (byte) (buffer.get(reportOffset + 3) & 0x3f);
+    }
+
+    /**
+     * Gets the sequence number.
+     *
+     * @return sequence number
+     */
+    public int getSequence() {
+        return buffer.getInt(reportOffset + 4);
+    }
+
+    /**
+     * Gets ingress time stamp.
+     *
+     * @return ingress time stamp
+     */
+    public int getIngressTimeStamp() {
+        return buffer.getInt(reportOffset + 8);
+    }
+
+    /**
+     * Gets switch id from the drop or switch local header.
+     *
+     * @return switch id, or 0 if the report has neither header
+     */
+    public int getSwitchId() {
+        return localHeaderOffset == ABSENT ? 0 : buffer.getInt(localHeaderOffset);
+    }
+
+    /**
+     * Gets ingress port ID from the drop or switch local header.
+     *
+     * @return ingress port ID, or 0 if the report has neither header
+     */
+    public short getIngressPortId() {
+        return localHeaderOffset == ABSENT ? 0 : buffer.getShort(localHeaderOffset + 4);
+    }
+
+    /**
+     * Gets egress port ID from the drop or switch local header.
+     *
+     * @return egress port ID, or 0 if the report has neither header
+     */
+    public short getEgressPortId() {
+        return localHeaderOffset == ABSENT ? 0 : buffer.getShort(localHeaderOffset + 6);
+    }
+
+    /**
+     * Gets queue ID from the drop or switch local header.
+     *
+     * @return queue ID, or 0 if the report has neither header
+     */
+    public byte getQueueId() {
+        return localHeaderOffset == ABSENT ? 0 : buffer.get(localHeaderOffset + 8);
+    }
+
+    /**
+     * Gets queue occupancy from the switch local header.
+     *
+     * @return queue occupancy, or 0 if this is not a switch local report
+     */
+    public int getQueueOccupancy() {
+        return getNextProto() != TelemetryReport.TYPE_TELEMETRY_SWITCH_LOCAL ? 0 :
+                buffer.getInt(localHeaderOffset + 8) & 0x00FFFFFF;
+    }
+
+    /**
+     * Gets egress time stamp from the switch local header.
+     *
+     * @return egress time stamp, or 0 if this is not a switch local report
+     */
+    public int getEgressTstamp() {
+        return getNextProto() != TelemetryReport.TYPE_TELEMETRY_SWITCH_LOCAL ? 0 :
+                buffer.getInt(localHeaderOffset + 12);
+    }
+
+    /**
+     * Gets the reason why a packet was dropped.
+     *
+     * @return drop reason, or 0 if this is not a drop report
+     */
+    public byte getDropReason() {
+        return getNextProto() != TelemetryReport.TYPE_TELEMETRY_DROP ? 0 :
+                buffer.get(localHeaderOffset + 9);
+    }
+
+    /**
+     * Gets the ethertype of the inner Ethernet header.
+     *
+     * @return ethertype, or -1 if the report has no inner packet
+     */
+    public int getEtherType() {
+        return etherType;
+    }
+
+    /**
+     * Checks whether the inner packet is IPv4.
+     *
+     * @return true if the inner packet is IPv4
+     */
+    public boolean isIpv4() {
+        return ipv4Offset != ABSENT;
+    }
+
+    /**
+     * Gets the IPv4 DSCP of the inner packet.
+     *
+     * @return DSCP
+     */
+    public byte getDscp() {
+        return (byte) (buffer(ipv4Offset).get(ipv4Offset + 1) >> 2 & 0x3f);
+    }
+
+    /**
+     * Gets the IP protocol of the inner packet.
+     *
+     * @return IP protocol
+     */
+    public byte getProtocol() {
+        return buffer(ipv4Offset).get(ipv4Offset + 9);
+    }
+
+    /**
+     * Gets the source IPv4 address of the inner packet.
+     *
+     * @return source address
+     */
+    public int getSourceAddress() {
+        return buffer(ipv4Offset).getInt(ipv4Offset + 12);
+    }
+
+    /**
+     * Gets the destination IPv4 address of the inner packet.
+     *
+     * @return destination address
+     */
+    public int getDestinationAddress() {
+        return buffer(ipv4Offset).getInt(ipv4Offset + 16);
+    }
+
+    /**
+     * Checks whether the inner packet has a TCP or UDP header.
+     *
+     * @return true if the inner packet is TCP or UDP
+     */
+    public boolean hasTransport() {
+        return l4Offset != ABSENT;
+    }
+
+    /**
+     * Gets the TCP/UDP source port of the inner packet.
+     *
+     * @return source port, or 0 if the inner packet is not TCP or UDP
+     */
+    public int getSourcePort() {
+        return l4Offset == ABSENT ? 0 : buffer(l4Offset).getShort(l4Offset) & 0xffff;
+    }
+
+    /**
+     * Gets the TCP/UDP destination port of the inner packet.
+     *
+     * @return destination port, or 0 if the inner packet is not TCP or UDP
+     */
+    public int getDestinationPort() {
+        return l4Offset == ABSENT ? 0 : buffer(l4Offset).getShort(l4Offset + 2) & 0xffff;
+    }
+
+    /**
+     * Checks whether the inner packet carries INT metadata.
+     *
+     * @return true if INT headers follow the TCP/UDP header
+     */
+    public boolean hasIntMetadata() {
+        return intOffset != ABSENT;
+    }
+
+    /**
+     * Gets the number of transit hops in the INT metadata stack.
+     *
+     * @return hop count, 0 if there is no INT metadata
+     */
+    public int getHopCount() {
+        return hopCount;
+    }
+
+    /**
+     * Checks whether the transit hops carry both the ingress and egress time stamps.
+     *
+     * @return true if both time stamps are present
+     */
+    public boolean hasHopTimeStamps() {
+        return hopCount > 0 && hopLayout.hasTimeStamps();
+    }
+
+    /**
+     * Gets transit hop switch id.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop switch id
+     */
+    public int getHopSwitchId(int hop) {
+        return hopLayout.getSwitchId(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop ingress port ID.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop ingress port ID
+     */
+    public short getHopIngressPortId(int hop) {
+        return hopLayout.getIngressPortId(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop egress port ID.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop egress port ID
+     */
+    public short getHopEgressPortId(int hop) {
+        return hopLayout.getEgressPortId(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop hop-latency.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop hop-latency
+     */
+    public int getHopLatency(int hop) {
+        return hopLayout.getHopLatency(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop queue ID. As in {@link P4Int}, the queue congestion
+     * instruction takes precedence over the queue occupancy one.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop queue ID
+     */
+    public byte getHopQueueId(int hop) {
+        return hopLayout.getQueueId(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop queue occupancy.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop queue occupancy
+     */
+    public int getHopQueueOccupancy(int hop) {
+        return hopLayout.getQueueOccupancy(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop ingress time stamp.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop ingress time stamp
+     */
+    public int getHopIngressTimeStamp(int hop) {
+        return hopLayout.getIngressTimeStamp(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop egress time stamp.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop egress time stamp
+     */
+    public int getHopEgressTimeStamp(int hop) {
+        return hopLayout.getEgressTimeStamp(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop queue congestion.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop queue congestion
+     */
+    public int getHopQueueCongestion(int hop) {
+        return hopLayout.getQueueCongestion(buffer, hopOffset(hop));
+    }
+
+    /**
+     * Gets transit hop egress port TX utilization.
+     *
+     * @param hop index of the hop in the metadata stack
+     * @return transit hop egress port TX utilization
+     */
+    public int getHopEgressPortTxUtil(int hop) {
+        return hopLayout.getEgressPortTxUtil(buffer, hopOffset(hop));
+    }
+
+    private int hopOffset(int hop) {
+        if (hop < 0 || hop >= hopCount) {
+            throw new IndexOutOfBoundsException("hop " + hop + " of " + hopCount);
+        }
+        return hopLayout.hopOffset(hopsOffset, hop);
+    }
+
+    private ByteBuffer buffer(int headerOffset) {
+        if (headerOffset == ABSENT) {
+            throw new IllegalStateException("Header is not present in this report");
+        }
+        return buffer;
+    }
+}
@@ -17,9 +17,6 @@
 package org.onosproject.monitoring.packet;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
-
-import com.google.common.collect.ImmutableMap;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
@@ -28,18 +25,6 @@ import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
  * Representation of a UDP packet.
  */
 public class UDP extends BasePacket {
-    public static final Map<Integer, Deserializer<? extends IPacket>> PORT_DESERIALIZER_MAP =
-            ImmutableMap.<Integer, Deserializer<? extends IPacket>>builder()
-//                    .put(UDP.DHCP_SERVER_PORT, DHCP.deserializer())
-//                    .put(UDP.DHCP_CLIENT_PORT, DHCP.deserializer())
-//                    .put(UDP.DHCP_V6_SERVER_PORT, DHCP6.deserializer())
-//                    .put(UDP.DHCP_V6_CLIENT_PORT, DHCP6.deserializer())
-//                    .put(UDP.VXLAN_UDP_PORT, VXLAN.deserializer())
-//                    .put(UDP.RIP_PORT, RIP.deserializer())
-//                    .put(UDP.RIPNG_PORT, RIPng.deserializer())
-                    .put(UDP.TELEMETRY_REPORT_PORT, TelemetryReport.deserializer())
-                    .build();
-
     public static final int DHCP_SERVER_PORT = 67;
     public static final int DHCP_CLIENT_PORT = 68;
     public static final int DHCP_V6_SERVER_PORT = 547;
@@ -51,8 +36,40 @@ public class UDP extends BasePacket {
 
     private static final byte INT_DSCP = 0x1;
 
+    private static final DeserializerTable PORT_DESERIALIZERS = new DeserializerTable();
+
+    static {
+//        registerPortDeserializer(UDP.DHCP_SERVER_PORT, DHCP.deserializer());
+//        registerPortDeserializer(UDP.DHCP_CLIENT_PORT, DHCP.deserializer());
+//        registerPortDeserializer(UDP.DHCP_V6_SERVER_PORT, DHCP6.deserializer());
+//        registerPortDeserializer(UDP.DHCP_V6_CLIENT_PORT, DHCP6.deserializer());
+//        registerPortDeserializer(UDP.VXLAN_UDP_PORT, VXLAN.deserializer());
+//        registerPortDeserializer(UDP.RIP_PORT, RIP.deserializer());
+//        registerPortDeserializer(UDP.RIPNG_PORT, RIPng.deserializer());
+        registerPortDeserializer(UDP.TELEMETRY_REPORT_PORT, TelemetryReport.bufferDeserializer());
+    }
+
+    /**
+     * Registers the deserializer used for the payload of datagrams sent to or from the given port.
+     *
+     * @param port UDP port
+     * @param deserializer payload deserializer
+     */
+    public static void registerPortDeserializer(int port, BufferDeserializer<? extends IPacket> deserializer) {
+        PORT_DESERIALIZERS.register(port, deserializer);
+    }
+
+    /**
+     * Removes the deserializer registered for the given port.
+     *
+     * @param port UDP port
+     */
+    public static void unregisterPortDeserializer(int port) {
+        PORT_DESERIALIZERS.unregister(port);
+    }
+
     private static final short IP_HEADER_LENGTH = 20;
-    private static final short UDP_HEADER_LENGTH = 8;
+    static final short UDP_HEADER_LENGTH = 8;
 
     protected int sourcePort;
     protected int destinationPort;
@@ -258,37 +275,44 @@ public class UDP extends BasePacket {
      * @return deserializer function
      */
     public static Deserializer<UDP> deserializer() {
-        return (data, offset, length) -> {
-            checkInput(data, offset, length, UDP_HEADER_LENGTH);
+        return (data, offset, length) ->
+                bufferDeserializer().deserialize(ByteBuffer.wrap(data), offset, length);
+    }
+
+    /**
+     * Deserializer function for UDP packets held in a byte buffer.
+     *
+     * @return buffer deserializer function
+     */
+    public static BufferDeserializer<UDP> bufferDeserializer() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, UDP_HEADER_LENGTH);
 
             UDP udp = new UDP();
 
-            ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-            udp.sourcePort = (bb.getShort() & 0xffff);
-            udp.destinationPort = (bb.getShort() & 0xffff);
-            udp.length = bb.getShort();
-            udp.checksum = bb.getShort();
+            udp.sourcePort = (bb.getShort(offset) & 0xffff);
+            udp.destinationPort = (bb.getShort(offset + 2) & 0xffff);
+            udp.length = bb.getShort(offset + 4);
+            udp.checksum = bb.getShort(offset + 6);
+            int position = offset + UDP_HEADER_LENGTH;
 
             byte dscp = 0;
             int ipHeaderOffset = offset - IP_HEADER_LENGTH;
             if (ipHeaderOffset >= 0) {
-                byte tos = data[ipHeaderOffset + 1];
+                byte tos = bb.get(ipHeaderOffset + 1);
                 dscp = (byte) (tos >> 2 & 0x3f);
             }
 
-            Deserializer<? extends IPacket> deserializer;
-            if (UDP.PORT_DESERIALIZER_MAP.containsKey(udp.destinationPort)) {
-                deserializer = UDP.PORT_DESERIALIZER_MAP.get(udp.destinationPort);
-            } else if (UDP.PORT_DESERIALIZER_MAP.containsKey(udp.sourcePort)) {
-                deserializer = UDP.PORT_DESERIALIZER_MAP.get(udp.sourcePort);
-            } else if (dscp == INT_DSCP) {
-                deserializer = P4Int.deserializer();
-            } else {
-                deserializer = Data.deserializer();
+            BufferDeserializer<? extends IPacket> deserializer = PORT_DESERIALIZERS.get(udp.destinationPort);
+            if (deserializer == null) {
+                deserializer = PORT_DESERIALIZERS.get(udp.sourcePort);
+            }
+            if (deserializer == null) {
+                deserializer = dscp == INT_DSCP ? P4Int.bufferDeserializer() : Data.bufferDeserializer();
             }
 
-            udp.payload = deserializer.deserialize(data, bb.position(),
-                                                   bb.limit() - bb.position());
+            udp.payload = deserializer.deserialize(bb, position,
+                                                   offset + length - position);
             udp.payload.setParent(udp);
             return udp;
         };
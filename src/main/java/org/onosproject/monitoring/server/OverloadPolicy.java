@@ -0,0 +1,23 @@
+package org.onosproject.monitoring.server;
+
+/**
+ * What the ingest event loops do with a telemetry report when the workers fall behind.
+ */
+public enum OverloadPolicy {
+
+    /**
+     * Drops the incoming report when the queue is full, keeping the reports already queued.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drops the oldest queued report to make room for the incoming one, so the workers see the latest state.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Only queues one report out of the sample rate once the queue is half full, and drops the incoming report
+     * when it is full, so the load is shed evenly before the queue overflows.
+     */
+    SAMPLE
+}
@@ -0,0 +1,85 @@
+package org.onosproject.monitoring.server;
+
+import io.prometheus.client.Counter;
+import org.onosproject.monitoring.packet.DeserializationException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Children of the parse failure counter per source, shared by the handlers of every ingest channel so that
+ * the bound on the number of sources holds whatever the number of channels.
+ */
+class ParseFailures {
+
+    /**
+     * Sources beyond this number share the {@link #OTHER_SOURCE} label, so spoofed traffic can't grow the series.
+     */
+    static final int MAX_SOURCES = 1024;
+    static final String OTHER_SOURCE = "other";
+
+    private final Counter parseFailures;
+    private final int maxSources;
+    // Children per source, indexed by reason ordinal
+    private final ConcurrentMap<InetAddress, Counter.Child[]> bySource = new ConcurrentHashMap<>();
+    // Sources in bySource, or about to be
+    private final AtomicInteger sources = new AtomicInteger();
+    private final Counter.Child[] otherSource;
+
+    /**
+     * @param parseFailures counter of the malformed reports, labelled with the reason and the source
+     */
+    ParseFailures(Counter parseFailures) {
+        this(parseFailures, MAX_SOURCES);
+    }
+
+    ParseFailures(Counter parseFailures, int maxSources) {
+        this.parseFailures = parseFailures;
+        this.maxSources = maxSources;
+        this.otherSource = children(OTHER_SOURCE);
+    }
+
+    /**
+     * Counts a malformed report.
+     *
+     * @param sender sender of the report, or null if unknown
+     * @param reason reason of the failure
+     */
+    void failed(InetSocketAddress sender, DeserializationException.Reason reason) {
+        children(sender)[reason.ordinal()].inc();
+    }
+
+    private Counter.Child[] children(InetSocketAddress sender) {
+        InetAddress address = sender != null ? sender.getAddress() : null;
+        if (address == null) {
+            return otherSource;
+        }
+        Counter.Child[] children = bySource.get(address);
+        if (children != null) {
+            return children;
+        }
+        if (sources.incrementAndGet() > maxSources) {
+            sources.decrementAndGet();
+            return otherSource;
+        }
+        children = bySource.putIfAbsent(address, children(address.getHostAddress()));
+        if (children != null) {
+            // Added by another channel
+            sources.decrementAndGet();
+            return children;
+        }
+        return bySource.get(address);
+    }
+
+    private Counter.Child[] children(String source) {
+        DeserializationException.Reason[] reasons = DeserializationException.Reason.values();
+        Counter.Child[] children = new Counter.Child[reasons.length];
+        for (DeserializationException.Reason reason : reasons) {
+            children[reason.ordinal()] = parseFailures.labels(reason.label(), source);
+        }
+        return children;
+    }
+}
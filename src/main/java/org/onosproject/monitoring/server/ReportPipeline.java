@@ -0,0 +1,284 @@
+package org.onosproject.monitoring.server;
+
+import io.netty.buffer.ByteBuf;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.INTExporter;
+import org.onosproject.monitoring.packet.DeserializationException;
+import org.onosproject.monitoring.packet.TelemetryReportView;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the telemetry reports received by the ingest event loops over to worker threads that apply
+ * them to the metrics, so that slow metric updates do not hold up the draining of the UDP sockets.
+ * <p>
+ * The event loops queue the receive buffers themselves, without copying them, in bounded
+ * {@link ReportRing}s. Reports are classified by the flags of their fixed header: the drop and
+ * congestion reports, the ones most needed when the collector is overloaded, go to an event lane with its
+ * own queue and worker that is never sampled, while the flow reports go to a flow lane whose
+ * {@link OverloadPolicy} decides which reports are dropped when it is full. The queue depth, the dropped
+ * reports, the reports the workers failed to apply and the time the reports spend in the queue of each lane
+ * are exported.
+ */
+class ReportPipeline {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 16384;
+    static final int DEFAULT_EVENT_QUEUE_CAPACITY = 4096;
+    static final int DEFAULT_SAMPLE_RATE = 8;
+
+    private static final int IDLE_SPINS = 64;
+    // Idle workers are woken up by the reports offered, so this only bounds the wait of a missed wake up
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final INTExporter intExporter;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final Gauge queueDepths;
+    private final Gauge queueCapacities;
+    private final Counter droppedReports;
+    private final Counter failedReports;
+    private final Histogram handoffLatency;
+    private final Lane events;
+    private final Lane flows;
+
+    /**
+     * Creates the pipeline and starts its workers.
+     *
+     * @param intExporter exporter the reports are pushed to
+     * @param workers number of worker threads of the flow lane
+     * @param queueCapacity maximum number of queued flow reports
+     * @param policy what to do with the flow reports the workers can't keep up with
+     * @param sampleRate one flow report out of this number is queued under the {@link OverloadPolicy#SAMPLE} policy
+     * @param eventQueueCapacity maximum number of queued drop and congestion reports
+     * @param registry registry of the pipeline metrics
+     */
+    ReportPipeline(INTExporter intExporter, int workers, int queueCapacity, OverloadPolicy policy, int sampleRate,
+                   int eventQueueCapacity, CollectorRegistry registry) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be positive");
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+        this.intExporter = intExporter;
+
+        queueDepths = Gauge.build()
+                .name("int_collector_queue_depth")
+                .help("Number of telemetry reports waiting for a worker, by lane")
+                .labelNames("lane")
+                .register(registry);
+        queueCapacities = Gauge.build()
+                .name("int_collector_queue_capacity")
+                .help("Maximum number of telemetry reports waiting for a worker, by lane")
+                .labelNames("lane")
+                .register(registry);
+        droppedReports = Counter.build()
+                .name("int_collector_dropped_reports_total")
+                .help("Number of telemetry reports dropped because the workers fell behind, by lane and reason")
+                .labelNames("lane", "reason")
+                .register(registry);
+        failedReports = Counter.build()
+                .name("int_collector_worker_failures_total")
+                .help("Number of telemetry reports a worker failed to apply to the metrics, by lane")
+                .labelNames("lane")
+                .register(registry);
+        handoffLatency = Histogram.build()
+                .name("int_collector_handoff_latency_seconds")
+                .help("Time telemetry reports spend between the ingest event loop and a worker, by lane")
+                .labelNames("lane")
+                .exponentialBuckets(1e-6, 4, 10)
+                .register(registry);
+
+        // Drop and congestion reports are never sampled nor evicted by the flow reports
+        events = new Lane("event", 1, eventQueueCapacity, OverloadPolicy.DROP_NEWEST, 1);
+        flows = new Lane("flow", workers, queueCapacity, policy, sampleRate);
+    }
+
+    /**
+     * Queues a report for the workers of its lane, or drops it according to the overload policy of the lane.
+     * The report is retained while it is queued.
+     *
+     * @param report receive buffer of the report
+     * @param reportView view positioned over the report
+     */
+    void offer(ByteBuf report, TelemetryReportView reportView) {
+        (reportView.hasDroppedPacket() || reportView.hasCongestion() ? events : flows).offer(report);
+    }
+
+    /**
+     * Stops the workers and drops the reports left in the queues.
+     */
+    void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        events.clear();
+        flows.clear();
+    }
+
+    /**
+     * Queue of a class of reports, with its workers and the children of the pipeline metrics.
+     */
+    private class Lane {
+        private final ReportRing ring;
+        private final OverloadPolicy policy;
+        private final int sampleRate;
+        private final Counter.Child queueFullDrops;
+        private final Counter.Child oldestDrops;
+        private final Counter.Child sampledDrops;
+        private final Counter.Child failures;
+        private final Histogram.Child handoffLatency;
+        private final ReportRing.ReportConsumer evict;
+        private final Worker[] workers;
+        // Number of workers parked, or about to park, on the empty queue
+        private final AtomicInteger parkedWorkers = new AtomicInteger();
+
+        Lane(String name, int workers, int capacity, OverloadPolicy policy, int sampleRate) {
+            this.ring = new ReportRing(capacity);
+            this.policy = policy;
+            this.sampleRate = sampleRate;
+            queueDepths.setChild(new Gauge.Child() {
+                @Override
+                public double get() {
+                    return ring.size();
+                }
+            }, name);
+            queueCapacities.labels(name).set(ring.capacity());
+            queueFullDrops = droppedReports.labels(name, "queue_full");
+            oldestDrops = droppedReports.labels(name, "oldest_evicted");
+            sampledDrops = droppedReports.labels(name, "sampled");
+            failures = failedReports.labels(name);
+            handoffLatency = ReportPipeline.this.handoffLatency.labels(name);
+            evict = (report, enqueueNanos) -> {
+                report.release();
+                oldestDrops.inc();
+            };
+            this.workers = new Worker[workers];
+            for (int i = 0; i < workers; i++) {
+                Worker worker = new Worker(this, "int-" + name + "-worker-" + i);
+                this.workers[i] = worker;
+                ReportPipeline.this.workers.add(worker.thread);
+                worker.thread.start();
+            }
+        }
+
+        void offer(ByteBuf report) {
+            if (policy == OverloadPolicy.SAMPLE && ring.size() >= ring.capacity() / 2
+                    && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                sampledDrops.inc();
+                return;
+            }
+            long now = System.nanoTime();
+            report.retain();
+            if (ring.offer(report, now)) {
+                wakeUp();
+                return;
+            }
+            if (policy == OverloadPolicy.DROP_OLDEST && ring.poll(evict) && ring.offer(report, now)) {
+                return;
+            }
+            report.release();
+            queueFullDrops.inc();
+        }
+
+        /**
+         * Unparks one of the workers parked on the empty queue, if any.
+         */
+        private void wakeUp() {
+            if (parkedWorkers.get() == 0) {
+                return;
+            }
+            for (Worker worker : workers) {
+                if (worker.parked.compareAndSet(true, false)) {
+                    LockSupport.unpark(worker.thread);
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            while (ring.poll((report, enqueueNanos) -> report.release())) {
+                // Release the buffers of the reports never processed
+            }
+        }
+    }
+
+    /**
+     * Takes reports from the queue of a lane and pushes them to the exporter, parking while the queue is empty
+     * until a report is offered.
+     */
+    private class Worker implements Runnable, ReportRing.ReportConsumer {
+        private final Lane lane;
+        private final Thread thread;
+        // Set while the worker is parked, cleared by the event loop that unparks it
+        private final AtomicBoolean parked = new AtomicBoolean();
+        private final TelemetryReportView reportView = new TelemetryReportView();
+
+        Worker(Lane lane, String name) {
+            this.lane = lane;
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running) {
+                if (lane.ring.poll(this)) {
+                    idle = 0;
+                } else if (++idle < IDLE_SPINS) {
+                    Thread.yield();
+                } else {
+                    park();
+                }
+            }
+        }
+
+        private void park() {
+            parked.set(true);
+            lane.parkedWorkers.incrementAndGet();
+            // A report offered before the flag was set did not unpark the worker
+            if (lane.ring.size() == 0 && running) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            parked.set(false);
+            lane.parkedWorkers.decrementAndGet();
+        }
+
+        @Override
+        public void accept(ByteBuf report, long enqueueNanos) {
+            lane.handoffLatency.observe((System.nanoTime() - enqueueNanos) / 1e9);
+            try {
+                ByteBuffer buffer = report.nioBufferCount() == 1 ?
+                        report.internalNioBuffer(report.readerIndex(), report.readableBytes()) :
+                        report.nioBuffer(report.readerIndex(), report.readableBytes());
+                // Already validated by the event loop
+                reportView.wrap(buffer, buffer.position(), buffer.remaining());
+                // The sequence number was accounted for by the event loop
+                intExporter.processReport(reportView);
+            } catch (DeserializationException | RuntimeException e) {
+                // Counted rather than logged, as it could happen to every report
+                lane.failures.inc();
+            } finally {
+                report.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.onosproject.monitoring.server;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of telemetry reports, with the time each report was queued.
+ * <p>
+ * The queue is an array of slots, each with a sequence number that tells whether the slot is free
+ * for the producer at a position or holds the report for the consumer at that position. Producers and
+ * consumers claim positions with compare-and-set, so any number of event loops can offer reports while
+ * any number of workers, or an event loop dropping the oldest report, take them. Neither allocates.
+ */
+class ReportRing {
+
+    /**
+     * Receives the reports taken from the queue.
+     */
+    interface ReportConsumer {
+        void accept(ByteBuf report, long enqueueNanos);
+    }
+
+    private final ByteBuf[] reports;
+    private final long[] enqueueNanos;
+    // Position + 1 when the slot holds the report of the position, position when it is free for it
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity maximum number of queued reports, rounded up to a power of two
+     */
+    ReportRing(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be positive and at most 2^30");
+        }
+        int size = Integer.highestOneBit(capacity * 2 - 1);
+        reports = new ByteBuf[size];
+        enqueueNanos = new long[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Queues a report, unless the queue is full.
+     *
+     * @param report report, whose reference is handed over to the queue
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return true if the report was queued
+     */
+    boolean offer(ByteBuf report, long nowNanos) {
+        long position = tail.get();
+        while (true) {
+            int i = (int) position & mask;
+            long distance = sequences.get(i) - position;
+            if (distance == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    reports[i] = report;
+                    enqueueNanos[i] = nowNanos;
+                    sequences.set(i, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (distance < 0) {
+                // The slot still holds the report of the previous lap
+                return false;
+            } else {
+                // Claimed by another producer
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest report of the queue, if any.
+     *
+     * @param consumer consumer of the report, which gets its reference
+     * @return true if a report was taken
+     */
+    boolean poll(ReportConsumer consumer) {
+        long position = head.get();
+        while (true) {
+            int i = (int) position & mask;
+            long distance = sequences.get(i) - (position + 1);
+            if (distance == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    ByteBuf report = reports[i];
+                    long nanos = enqueueNanos[i];
+                    reports[i] = null;
+                    sequences.set(i, position + mask + 1);
+                    consumer.accept(report, nanos);
+                    return true;
+                }
+                position = head.get();
+            } else if (distance < 0) {
+                // Empty, or the producer of the position has not written its report yet
+                return false;
+            } else {
+                // Taken by another consumer
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of queued reports. It is only a snapshot while reports are offered or taken.
+     *
+     * @return number of queued reports
+     */
+    int size() {
+        long head = this.head.get();
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    /**
+     * Gets the maximum number of queued reports.
+     *
+     * @return capacity of the queue
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
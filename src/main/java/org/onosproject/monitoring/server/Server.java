@@ -2,6 +2,7 @@ package org.onosproject.monitoring.server;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
@@ -12,23 +13,355 @@ import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.prometheus.client.Counter;
+import io.prometheus.client.exporter.HTTPServer;
+import io.prometheus.client.exporter.INTExporter;
+import io.prometheus.client.exporter.NettyHTTPServer;
+import io.prometheus.client.exporter.ShardedMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // A simple chat-fashion server model which accepts connections
 // and print the client messages on the server
 public class Server {
 
+    private static final String DEFAULT_PUSH_GATEWAY = "localhost:9091";
+    private static final long DEFAULT_SCRAPE_CACHE_MAX_AGE_MILLIS = 1000;
+
+    /**
+     * Starts the collector. The metrics are pushed to the Push GW given by the
+     * int.pushGateway property, or served over HTTP if the int.scrapePort property is set.
+     */
     public static void main(String[] args) throws Exception {
-        int port = 1234;
-        new Server(port).run();
+        int port = Integer.getInteger("int.port", 1234);
+        new Server(port)
+                .setPushGateway(System.getProperty("int.pushGateway", DEFAULT_PUSH_GATEWAY))
+                .setPushFlushInterval(Long.getLong("int.pushFlushInterval", INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS))
+                .setPushMaxDirty(Integer.getInteger("int.pushMaxDirty", INTExporter.DEFAULT_MAX_DIRTY))
+                .setScrapePort(Integer.getInteger("int.scrapePort", -1))
+                .setScrapeCacheMaxAge(Long.getLong("int.scrapeCacheMaxAge", DEFAULT_SCRAPE_CACHE_MAX_AGE_MILLIS))
+                .setScrapeStreaming(Boolean.getBoolean("int.scrapeStreaming"))
+                .setNettyScrape(Boolean.getBoolean("int.nettyScrape"))
+                .setScrapeRenderThreads(Integer.getInteger("int.scrapeRenderThreads", 2))
+                .setScrapeShards(Integer.getInteger("int.scrapeShards", 0))
+                .setIngestChannels(Integer.getInteger("int.ingestChannels", 1))
+                .setFlowIdleTimeout(Long.getLong("int.flowIdleTimeout", INTExporter.DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS))
+                .setMaxFlows(Integer.getInteger("int.maxFlows", INTExporter.DEFAULT_MAX_FLOWS))
+                .setTopFlows(Integer.getInteger("int.topFlows", INTExporter.DEFAULT_TOP_FLOWS))
+                .setWorkers(Integer.getInteger("int.workers", 1))
+                .setQueueCapacity(Integer.getInteger("int.queueCapacity", ReportPipeline.DEFAULT_QUEUE_CAPACITY))
+                .setOverloadPolicy(OverloadPolicy.valueOf(
+                        System.getProperty("int.overloadPolicy", OverloadPolicy.DROP_NEWEST.name()).toUpperCase()))
+                .setSampleRate(Integer.getInteger("int.sampleRate", ReportPipeline.DEFAULT_SAMPLE_RATE))
+                .setEventQueueCapacity(Integer.getInteger("int.eventQueueCapacity",
+                        ReportPipeline.DEFAULT_EVENT_QUEUE_CAPACITY))
+                .setMetricLayout(Boolean.getBoolean("int.switchLabel") ?
+                        INTExporter.MetricLayout.SWITCH_LABEL : INTExporter.MetricLayout.PER_SWITCH_FAMILIES)
+                .run();
     }
 
     private final int port;
+    private String pushGateway = DEFAULT_PUSH_GATEWAY;
+    private long pushFlushIntervalMillis = INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private int pushMaxDirty = INTExporter.DEFAULT_MAX_DIRTY;
+    private int scrapePort = -1;
+    private long scrapeCacheMaxAgeMillis = DEFAULT_SCRAPE_CACHE_MAX_AGE_MILLIS;
+    private boolean scrapeStreaming;
+    private boolean nettyScrape;
+    private int scrapeRenderThreads = 2;
+    private int scrapeShards;
+    private int ingestChannels = 1;
+    private long flowIdleTimeoutMillis = INTExporter.DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS;
+    private int maxFlows = INTExporter.DEFAULT_MAX_FLOWS;
+    private int topFlows = INTExporter.DEFAULT_TOP_FLOWS;
+    private int workers = 1;
+    private int queueCapacity = ReportPipeline.DEFAULT_QUEUE_CAPACITY;
+    private OverloadPolicy overloadPolicy = OverloadPolicy.DROP_NEWEST;
+    private int sampleRate = ReportPipeline.DEFAULT_SAMPLE_RATE;
+    private int eventQueueCapacity = ReportPipeline.DEFAULT_EVENT_QUEUE_CAPACITY;
+    private INTExporter.MetricLayout metricLayout = INTExporter.MetricLayout.PER_SWITCH_FAMILIES;
+
     public Server(int port){
         this.port = port;
     }
 
+    /**
+     * Sets the Push GW the metrics are pushed to when scrape mode is off.
+     *
+     * @param pushGateway address of the Prometheus Push GW
+     * @return this
+     */
+    public Server setPushGateway(String pushGateway) {
+        this.pushGateway = pushGateway;
+        return this;
+    }
+
+    /**
+     * Sets the interval between two pushes to the Push GW.
+     *
+     * @param pushFlushIntervalMillis flush interval in milliseconds
+     * @return this
+     */
+    public Server setPushFlushInterval(long pushFlushIntervalMillis) {
+        this.pushFlushIntervalMillis = pushFlushIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Sets the number of reports after which a push is triggered before the flush interval elapses.
+     *
+     * @param pushMaxDirty number of reports
+     * @return this
+     */
+    public Server setPushMaxDirty(int pushMaxDirty) {
+        this.pushMaxDirty = pushMaxDirty;
+        return this;
+    }
+
+    /**
+     * Enables scrape mode. The metrics are served over HTTP on the given port
+     * instead of being pushed to the Push GW.
+     *
+     * @param scrapePort HTTP port, or a negative value to disable scrape mode
+     * @return this
+     */
+    public Server setScrapePort(int scrapePort) {
+        this.scrapePort = scrapePort;
+        return this;
+    }
+
+    /**
+     * Sets how long a rendered exposition is served to scrapes at most. It is rendered again
+     * sooner if a report changed the INT metrics.
+     *
+     * @param scrapeCacheMaxAgeMillis max age of the exposition in milliseconds
+     * @return this
+     */
+    public Server setScrapeCacheMaxAge(long scrapeCacheMaxAgeMillis) {
+        this.scrapeCacheMaxAgeMillis = scrapeCacheMaxAgeMillis;
+        return this;
+    }
+
+    /**
+     * Sets whether the scrapes are streamed through a fixed size buffer instead of being rendered
+     * whole and cached, which bounds the memory of a scrape whatever the number of series.
+     *
+     * @param scrapeStreaming true to stream the scrapes
+     * @return this
+     */
+    public Server setScrapeStreaming(boolean scrapeStreaming) {
+        this.scrapeStreaming = scrapeStreaming;
+        return this;
+    }
+
+    /**
+     * Sets whether the metrics are served by a Netty HTTP server on the ingest event loops, with
+     * keep-alive connections, instead of the JDK HTTP server. The scrapes are not streamed then.
+     *
+     * @param nettyScrape true to serve the metrics with Netty
+     * @return this
+     */
+    public Server setNettyScrape(boolean nettyScrape) {
+        this.nettyScrape = nettyScrape;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that render the scrapes of the Netty HTTP server.
+     *
+     * @param scrapeRenderThreads number of render threads
+     * @return this
+     */
+    public Server setScrapeRenderThreads(int scrapeRenderThreads) {
+        this.scrapeRenderThreads = scrapeRenderThreads;
+        return this;
+    }
+
+    /**
+     * Sets the number of shards the switches are spread over for parallel scrapes. Each shard is
+     * served under /metrics/shard/{n} and each switch under /metrics/switch/{id}, next to the full
+     * exposition under /metrics.
+     *
+     * @param scrapeShards number of shards, or 0 to only serve the full exposition
+     * @return this
+     */
+    public Server setScrapeShards(int scrapeShards) {
+        this.scrapeShards = scrapeShards;
+        return this;
+    }
+
+    /**
+     * Sets the number of UDP channels bound to the port. Each channel has its own event loop
+     * and SO_REUSEPORT lets the kernel spread the reporting switches across them.
+     *
+     * @param ingestChannels number of ingest channels
+     * @return this
+     */
+    public Server setIngestChannels(int ingestChannels) {
+        if (ingestChannels <= 0) {
+            throw new IllegalArgumentException("ingestChannels must be positive");
+        }
+        this.ingestChannels = ingestChannels;
+        return this;
+    }
+
+    /**
+     * Sets the time after which the series of a flow that is no longer reported are removed.
+     *
+     * @param flowIdleTimeoutMillis idle timeout in milliseconds
+     * @return this
+     */
+    public Server setFlowIdleTimeout(long flowIdleTimeoutMillis) {
+        this.flowIdleTimeoutMillis = flowIdleTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets the number of flows exported at most. Beyond it, the series of the least
+     * recently reported flows are removed.
+     *
+     * @param maxFlows maximum number of flows
+     * @return this
+     */
+    public Server setMaxFlows(int maxFlows) {
+        this.maxFlows = maxFlows;
+        return this;
+    }
+
+    /**
+     * Sets the number of flows with the most reports, and of flows with the highest total
+     * latency, that get per flow series. The other flows are only counted in the per path
+     * and per switch aggregates.
+     *
+     * @param topFlows number of top flows, or 0 to export every flow
+     * @return this
+     */
+    public Server setTopFlows(int topFlows) {
+        this.topFlows = topFlows;
+        return this;
+    }
+
+    /**
+     * Sets the number of worker threads that apply the flow reports to the metrics. The ingest event
+     * loops only parse the reports and queue them for the workers. The drop and congestion reports
+     * have their own queue and worker.
+     *
+     * @param workers number of flow report workers, or 0 to apply the reports on the event loops
+     * @return this
+     */
+    public Server setWorkers(int workers) {
+        if (workers < 0) {
+            throw new IllegalArgumentException("workers must not be negative");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of flow reports waiting for a worker.
+     *
+     * @param queueCapacity queue capacity, rounded up to a power of two
+     * @return this
+     */
+    public Server setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Sets which flow reports are dropped when the workers fall behind. The drop and congestion
+     * reports are only dropped when their own queue is full.
+     *
+     * @param overloadPolicy overload policy
+     * @return this
+     */
+    public Server setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the sampling of the {@link OverloadPolicy#SAMPLE} policy: once the queue is half
+     * full, only one report out of this number is queued.
+     *
+     * @param sampleRate sample rate
+     * @return this
+     */
+    public Server setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of drop and congestion reports waiting for their worker.
+     *
+     * @param eventQueueCapacity queue capacity, rounded up to a power of two
+     * @return this
+     */
+    public Server setEventQueueCapacity(int eventQueueCapacity) {
+        this.eventQueueCapacity = eventQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Sets whether the per switch metrics are exported as one family per switch or as
+     * one family with a switch_id label.
+     *
+     * @param metricLayout layout of the per switch metrics
+     * @return this
+     */
+    public Server setMetricLayout(INTExporter.MetricLayout metricLayout) {
+        this.metricLayout = metricLayout;
+        return this;
+    }
+
     public void run() throws Exception {
-        EventLoopGroup bossGroup = new EpollEventLoopGroup();
+        EventLoopGroup bossGroup = new EpollEventLoopGroup(ingestChannels);
+        HTTPServer httpServer = null;
+        NettyHTTPServer nettyHttpServer = null;
+        INTExporter intExporter = new INTExporter(scrapePort >= 0 ? null : pushGateway,
+                pushFlushIntervalMillis, pushMaxDirty, flowIdleTimeoutMillis, maxFlows, metricLayout, topFlows);
+        ShardedMetrics shardedMetrics = scrapeShards > 0 ? intExporter.getShardedMetrics(scrapeShards) : null;
+        if (scrapePort >= 0 && nettyScrape) {
+            nettyHttpServer = NettyHTTPServer.builder()
+                    .withPort(scrapePort)
+                    .withRegistry(intExporter.getRegistry())
+                    .withDaemonThreads(true)
+                    .withEventLoopGroup(bossGroup)
+                    .withRenderThreads(scrapeRenderThreads)
+                    .withGeneration(intExporter.getGeneration())
+                    .withCacheMaxAge(scrapeCacheMaxAgeMillis)
+                    .withShardedMetrics(shardedMetrics)
+                    .build();
+        } else if (scrapePort >= 0) {
+            httpServer = HTTPServer.builder()
+                    .withPort(scrapePort)
+                    .withRegistry(intExporter.getRegistry())
+                    .withDaemonThreads(true)
+                    .withGeneration(scrapeStreaming ? null : intExporter.getGeneration())
+                    .withCacheMaxAge(scrapeStreaming ? 0 : scrapeCacheMaxAgeMillis)
+                    .withStreaming(scrapeStreaming)
+                    .withShardedMetrics(shardedMetrics)
+                    .build();
+        }
+
+        Counter receivedReports = Counter.build()
+                .name("int_collector_received_reports_total")
+                .help("Number of telemetry reports received on each ingest channel")
+                .labelNames("channel")
+                .register(intExporter.getRegistry());
+        Counter parseFailures = Counter.build()
+                .name("int_collector_parse_failures_total")
+                .help("Number of malformed telemetry reports by failure reason and source address")
+                .labelNames("reason", "source")
+                .register(intExporter.getRegistry());
+        // Shared by the channels, so that the bound on the sources holds whatever the number of channels
+        ParseFailures failuresBySource = new ParseFailures(parseFailures);
+        ReportPipeline pipeline = workers > 0 ? new ReportPipeline(intExporter, workers, queueCapacity,
+                overloadPolicy, sampleRate, eventQueueCapacity, intExporter.getRegistry()) : null;
+        AtomicInteger channelIndex = new AtomicInteger();
 
         try {
 
@@ -37,15 +370,38 @@ public class Server {
                     .channel(EpollDatagramChannel.class)
                     .option(ChannelOption.SO_BROADCAST, true)
                     .option(EpollChannelOption.SO_REUSEPORT, true)
-                    .handler(new ServerHandler());
+                    .handler(new ChannelInitializer<EpollDatagramChannel>() {
+                        @Override
+                        protected void initChannel(EpollDatagramChannel ch) {
+                            String channel = String.valueOf(channelIndex.getAndIncrement());
+                            ch.pipeline().addLast(new ServerHandler(intExporter, receivedReports.labels(channel),
+                                    failuresBySource, pipeline));
+                        }
+                    });
 
-
-            b.bind(port).sync().channel().closeFuture().await();
+            // Every bind takes the next event loop of the group
+            List<Channel> channels = new ArrayList<>();
+            for (int i = 0; i < ingestChannels; i++) {
+                channels.add(b.bind(port).sync().channel());
+            }
+            for (Channel channel : channels) {
+                channel.closeFuture().await();
+            }
 
         } finally {
-            bossGroup.shutdownGracefully();
+            if (nettyHttpServer != null) {
+                // Served by the ingest event loops
+                nettyHttpServer.stop();
+            }
+            bossGroup.shutdownGracefully().awaitUninterruptibly();
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+            intExporter.stop();
+            if (httpServer != null) {
+                httpServer.stop();
+            }
         }
 
     }
 }
-
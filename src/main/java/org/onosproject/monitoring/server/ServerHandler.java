@@ -7,25 +7,71 @@ import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import io.prometheus.client.Counter;
 import io.prometheus.client.exporter.INTExporter;
-import org.onosproject.monitoring.packet.TelemetryReport;
+import org.onosproject.monitoring.packet.DeserializationException;
+import org.onosproject.monitoring.packet.TelemetryReportView;
+
+import java.nio.ByteBuffer;
 
 public class ServerHandler extends SimpleChannelInboundHandler<DatagramPacket> {
 
     private static final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
     private INTExporter intExporter;
+    private final Counter.Child receivedReports;
+    private final ParseFailures parseFailures;
+    private final ReportPipeline pipeline;
+    private final TelemetryReportView reportView = new TelemetryReportView();
+
+    /**
+     * Creates the handler of a single ingest channel.
+     *
+     * @param intExporter exporter the reports are pushed to
+     * @param receivedReports counter of the reports received on the channel
+     * @param parseFailures counter of the malformed reports, labelled with the reason and the source
+     */
+    public ServerHandler(INTExporter intExporter, Counter.Child receivedReports, Counter parseFailures) {
+        this(intExporter, receivedReports, new ParseFailures(parseFailures), null);
+    }
 
-    public ServerHandler() {
-        intExporter = new INTExporter("localhost:9091");
+    /**
+     * @param intExporter exporter the reports are pushed to
+     * @param receivedReports counter of the reports received on the channel
+     * @param parseFailures parse failures per source, shared by the handlers of every channel
+     * @param pipeline pipeline the valid reports are handed over to, or null to push them on the event loop
+     */
+    ServerHandler(INTExporter intExporter, Counter.Child receivedReports, ParseFailures parseFailures,
+                  ReportPipeline pipeline) {
+        this.intExporter = intExporter;
+        this.receivedReports = receivedReports;
+        this.parseFailures = parseFailures;
+        this.pipeline = pipeline;
     }
 
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket datagramPacket) throws Exception {
-        // receive INT report
-        byte[] content = new byte[datagramPacket.content().readableBytes()];
-        datagramPacket.content().readBytes(content);
-        TelemetryReport telemetryReport = TelemetryReport.deserializer().deserialize(content, 0, content.length);
-        intExporter.pushMetrics(telemetryReport);
+        // receive INT report, parsed in place from the receive buffer
+        receivedReports.inc();
+        ByteBuf content = datagramPacket.content();
+        // internalNioBuffer does not allocate, but only exists for single component buffers
+        ByteBuffer buffer = content.nioBufferCount() == 1 ?
+                content.internalNioBuffer(content.readerIndex(), content.readableBytes()) :
+                content.nioBuffer(content.readerIndex(), content.readableBytes());
+        try {
+            reportView.wrap(buffer, buffer.position(), buffer.remaining());
+        } catch (DeserializationException e) {
+            parseFailures.failed(datagramPacket.sender(), e.getReason());
+            return;
+        }
+        if (pipeline != null) {
+            // Before the report may be shed, so that only the reports lost on the way count as lost
+            intExporter.reportReceived(reportView);
+            // The report lane is chosen by the flags of the fixed header
+            pipeline.offer(content, reportView);
+        } else {
+            intExporter.pushMetrics(reportView);
+        }
     }
 }
@@ -1,11 +1,15 @@
 package io.prometheus.client.exporter;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.CollectorRegistry;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
 import java.util.zip.GZIPInputStream;
 
@@ -18,10 +22,11 @@ import static org.assertj.core.api.Assertions.assertThat;
 public class TestHTTPServer {
 
   HTTPServer s;
+  CollectorRegistry registry;
 
   @Before
   public void init() throws IOException {
-    CollectorRegistry registry = new CollectorRegistry();
+    registry = new CollectorRegistry();
     Gauge.build("a", "a help").register(registry);
     Gauge.build("b", "a help").register(registry);
     Gauge.build("c", "a help").register(registry);
@@ -101,4 +106,186 @@ public class TestHTTPServer {
     assertThat(response).contains("b 0.0");
     assertThat(response).contains("c 0.0");
   }
+
+  @Test
+  public void testCachedExposition() throws IOException {
+    s.stop();
+    MetricsGeneration generation = new MetricsGeneration();
+    s = HTTPServer.builder().withRegistry(registry).withGeneration(generation).build();
+    Gauge d = Gauge.build("d", "a help").register(registry);
+    d.set(1);
+    String response = request("");
+    assertThat(response).contains("d 1.0");
+    assertThat(requestWithCompression("")).isEqualTo(response);
+
+    // Served from the cache until the generation changes
+    d.set(2);
+    assertThat(request("")).isEqualTo(response);
+    assertThat(requestWithCompression("")).isEqualTo(response);
+    // Filtered scrapes are always rendered
+    assertThat(request("?name[]=d")).contains("d 2.0");
+
+    generation.advance();
+    assertThat(request("")).contains("d 2.0");
+  }
+
+  @Test
+  public void testCacheMaxAge() throws Exception {
+    s.stop();
+    s = HTTPServer.builder().withRegistry(registry).withCacheMaxAge(1000).build();
+    Gauge d = Gauge.build("d", "a help").register(registry);
+    d.set(1);
+    assertThat(request("")).contains("d 1.0");
+    d.set(2);
+    assertThat(request("")).contains("d 1.0");
+    Thread.sleep(1100);
+    assertThat(request("")).contains("d 2.0");
+  }
+
+  @Test
+  public void testGeneration() {
+    MetricsGeneration generation = new MetricsGeneration();
+    long first = generation.get();
+    assertThat(generation.get()).isEqualTo(first);
+    generation.advance();
+    generation.advance();
+    long second = generation.get();
+    assertThat(second).isNotEqualTo(first);
+    assertThat(generation.get()).isEqualTo(second);
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    s.stop();
+    s = HTTPServer.builder().withRegistry(registry).withStreaming(true).build();
+    Gauge d = Gauge.build("d", "a help").labelNames("l").register(registry);
+    // Larger than the stream buffer
+    for (int i = 0; i < 10000; i++) {
+      d.labels(String.valueOf(i)).set(i);
+    }
+    String response = request("");
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("d{l=\"9999\",} 9999.0");
+    assertThat(requestWithCompression("")).isEqualTo(response);
+    assertThat(request("?name[]=a")).doesNotContain("d{");
+  }
+
+  @Test
+  public void testNotModified() throws IOException {
+    s.stop();
+    MetricsGeneration generation = new MetricsGeneration();
+    s = HTTPServer.builder().withRegistry(registry).withGeneration(generation).build();
+    Gauge d = Gauge.build("d", "a help").register(registry);
+    String url = "http://localhost:" + s.server.getAddress().getPort() + "/metrics";
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    String etag = connection.getHeaderField("ETag");
+    assertThat(etag).isNotNull();
+
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(304);
+
+    // Rendering the same bytes again keeps the entity tag
+    generation.advance();
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(304);
+
+    d.set(1);
+    generation.advance();
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    assertThat(connection.getHeaderField("ETag")).isNotEqualTo(etag);
+  }
+
+  @Test
+  public void testIdleExporterNotModified() throws Exception {
+    s.stop();
+    INTExporter exporter = TestPushScheduler.shortIdleTimeoutExporter();
+    TestPushScheduler.pushReport(exporter);
+    TestPushScheduler.awaitFlowExpired(exporter);
+    ExpositionCache cache = new ExpositionCache(exporter.getRegistry(), exporter.getGeneration(), Long.MAX_VALUE);
+    ExpositionCache.Exposition exposition = cache.get();
+
+    // Several flow expiry runs later, the exposition is still the one the scraper has, without a new render
+    Thread.sleep(100);
+    assertThat(cache.notModified(exposition.etag)).isSameAs(exposition);
+    assertThat(cache.get()).isSameAs(exposition);
+    assertThat(cache.notModified("W/\"other\"")).isNull();
+
+    s = HTTPServer.builder().withRegistry(exporter.getRegistry()).withGeneration(exporter.getGeneration())
+        .withCacheMaxAge(1).build();
+    String url = "http://localhost:" + s.server.getAddress().getPort() + "/metrics";
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    String etag = connection.getHeaderField("ETag");
+    // Past the max age, but the generation did not change
+    Thread.sleep(100);
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(304);
+
+    TestPushScheduler.pushReport(exporter);
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    exporter.stop();
+  }
+
+  @Test
+  public void testPerSwitchFamilyByName() throws Exception {
+    s.stop();
+    INTExporter exporter = new INTExporter();
+    TestPushScheduler.pushReport(exporter);
+    s = new HTTPServer(new InetSocketAddress(0), exporter.getRegistry());
+
+    // Per switch families are not described, as they come with the switches
+    String response = request("?name[]=hop_latency_duration_s1");
+    assertThat(response).contains("hop_latency_duration_s1{flow=");
+    assertThat(response).doesNotContain("hop_latency_duration_s2").doesNotContain("flow_latency_duration");
+    response = request("?name[]=flow_latency_duration&name[]=hop_latency_duration_s2");
+    assertThat(response).contains("flow_latency_duration{").contains("hop_latency_duration_s2{flow=");
+    assertThat(response).doesNotContain("hop_latency_duration_s1");
+    assertThat(request("?name[]=hop_latency_duration_s3")).isEmpty();
+    exporter.stop();
+  }
+
+  @Test
+  public void testShards() throws IOException {
+    s.stop();
+    ShardedMetrics sharded = new ShardedMetrics() {
+      @Override
+      public int shards() {
+        return 2;
+      }
+
+      @Override
+      public List<Collector.MetricFamilySamples> collectShard(int shard) {
+        return family("shard_" + shard);
+      }
+
+      @Override
+      public List<Collector.MetricFamilySamples> collectSwitch(int switchId) {
+        return family("switch_" + switchId);
+      }
+    };
+    s = HTTPServer.builder().withRegistry(registry).withShardedMetrics(sharded).build();
+    assertThat(request("/shard/1")).contains("shard_1 1.0").doesNotContain("a 0.0");
+    assertThat(requestWithCompression("/shard/0")).contains("shard_0 1.0");
+    assertThat(request("/switch/42")).contains("switch_42 1.0");
+    assertThat(request("")).contains("a 0.0").doesNotContain("shard_");
+
+    String url = "http://localhost:" + s.server.getAddress().getPort() + "/metrics/shard/";
+    assertThat(((HttpURLConnection) new URL(url + "2").openConnection()).getResponseCode()).isEqualTo(404);
+    assertThat(((HttpURLConnection) new URL(url + "x").openConnection()).getResponseCode()).isEqualTo(404);
+  }
+
+  static List<Collector.MetricFamilySamples> family(String name) {
+    return Collections.singletonList(new Collector.MetricFamilySamples(name, Collector.Type.GAUGE, "help",
+        Collections.singletonList(new Collector.MetricFamilySamples.Sample(name, Collections.<String>emptyList(),
+            Collections.<String>emptyList(), 1))));
+  }
 }
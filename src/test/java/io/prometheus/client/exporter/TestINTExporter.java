@@ -0,0 +1,696 @@
+package io.prometheus.client.exporter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.prometheus.client.Collector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.monitoring.packet.TelemetryReport;
+import org.onosproject.monitoring.packet.TelemetryReportView;
+import org.onosproject.monitoring.packet.TelemetryReportViewTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestINTExporter {
+
+  static final byte[] REPORT = TelemetryReportViewTest.BYTE_PACKET_INT_REPORT;
+  static final String FLOW = "10.0.10.1:5000:10.0.20.1:6000:17";
+
+  /**
+   * Report of the flow through switches 1 then 2, whose hops carry their ingress and egress time stamps.
+   */
+  static final byte[] TIME_STAMP_REPORT = {
+      // Telemetry Report Fixed Header
+      (byte) 0x10, (byte) 0x20, (byte) 0x00, (byte) 0x02, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00,
+      (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xcd,
+      // Ethernet
+      (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01,
+      (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02, (byte) 0x08, (byte) 0x00,
+      // IPv4, total length 76
+      (byte) 0x45, (byte) 0x04, (byte) 0x00, (byte) 0x4c, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+      (byte) 0x40, (byte) 0x11, (byte) 0x00, (byte) 0x00, (byte) 0x0a, (byte) 0x00, (byte) 0x0a, (byte) 0x01,
+      (byte) 0x0a, (byte) 0x00, (byte) 0x14, (byte) 0x01,
+      // UDP, length 56
+      (byte) 0x13, (byte) 0x88, (byte) 0x17, (byte) 0x70, (byte) 0x00, (byte) 0x38, (byte) 0x00, (byte) 0x00,
+      // INT shim and metadata headers, 4 instructions: switch id, port ids, ingress and egress time stamps
+      (byte) 0x01, (byte) 0x00, (byte) 0x0d, (byte) 0x00,
+      (byte) 0x00, (byte) 0x04, (byte) 0x10, (byte) 0x02, (byte) 0xcc, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+      // hop 0: switch 2, in through port 1, time stamps wrapped around
+      (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x03,
+      (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x10, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x30,
+      // hop 1: switch 1, out through port 2
+      (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x04, (byte) 0x00, (byte) 0x02,
+      (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xd0, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xf0,
+      // INT tail header
+      (byte) 0x11, (byte) 0x17, (byte) 0x70, (byte) 0x00,
+  };
+
+  INTExporter exporter;
+
+  @Before
+  public void init() {
+    exporter = new INTExporter();
+  }
+
+  @After
+  public void cleanup() {
+    exporter.stop();
+  }
+
+  void pushView() throws Exception {
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(REPORT), 0, REPORT.length));
+  }
+
+  List<Collector.MetricFamilySamples.Sample> samples(String name) {
+    List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<Collector.MetricFamilySamples.Sample>();
+    for (Collector.MetricFamilySamples family : Collections.list(exporter.getRegistry().metricFamilySamples())) {
+      if (family.name.equals(name)) {
+        samples.addAll(family.samples);
+      }
+    }
+    return samples;
+  }
+
+  @Test
+  public void testFlowLabels() throws Exception {
+    pushView();
+    pushView();
+
+    List<Collector.MetricFamilySamples.Sample> flowLatency = samples("flow_latency_duration");
+    assertThat(flowLatency).hasSize(1);
+    assertThat(flowLatency.get(0).labelValues).containsExactly("s2.s1.-" + FLOW);
+    assertThat(flowLatency.get(0).value).isEqualTo(0x30);
+
+    List<Collector.MetricFamilySamples.Sample> hopLatency = samples("hop_latency_duration_s2");
+    assertThat(hopLatency).hasSize(1);
+    assertThat(hopLatency.get(0).labelValues).containsExactly(FLOW);
+    assertThat(hopLatency.get(0).value).isEqualTo(0x10);
+  }
+
+  @Test
+  public void testViewMatchesDeserializer() throws Exception {
+    exporter.pushMetrics(TelemetryReport.deserializer().deserialize(REPORT, 0, REPORT.length));
+    List<Collector.MetricFamilySamples.Sample> fromReport = samples("flow_latency_duration");
+
+    pushView();
+    assertThat(samples("flow_latency_duration")).isEqualTo(fromReport);
+  }
+
+  @Test
+  public void testFlowKey() {
+    FlowTable flows = new FlowTable(100000, Long.MAX_VALUE, new FlowTable.EvictionListener() {
+      @Override
+      public void evicted(FlowTable.Flow flow, FlowTable.EvictionCause cause) {
+        throw new AssertionError("unexpected eviction of " + flow.label);
+      }
+    });
+    FlowTable.Flow flow = flows.flow(FlowTable.keyHigh(0x0a000a01, 0x0a001401), FlowTable.keyLow(5000, 6000, 17), 0);
+    assertThat(flow.label).isEqualTo(FLOW);
+    assertThat(flows.flow(FlowTable.keyHigh(0x0a000a01, 0x0a001401), FlowTable.keyLow(5000, 6000, 17), 0))
+        .isSameAs(flow);
+
+    // Ports and addresses with the sign bit set must not bleed into the neighbouring fields
+    flow = flows.flow(FlowTable.keyHigh(0xc0a80001, 0xffffffff), FlowTable.keyLow(65535, 443, 6), 0);
+    assertThat(flow.label).isEqualTo("192.168.0.1:65535:255.255.255.255:443:6");
+
+    for (int port = 0; port < 10000; port++) {
+      flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(port, 80, 6), 0);
+    }
+    assertThat(flows.size()).isEqualTo(10002);
+    assertThat(flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(1234, 80, 6), 0).label)
+        .isEqualTo("0.0.0.1:1234:0.0.0.2:80:6");
+  }
+
+  @Test
+  public void testFlowEviction() {
+    final List<String> idle = new ArrayList<String>();
+    final List<String> capacity = new ArrayList<String>();
+    // At most 16 flows
+    FlowTable flows = new FlowTable(16, 100, new FlowTable.EvictionListener() {
+      @Override
+      public void evicted(FlowTable.Flow flow, FlowTable.EvictionCause cause) {
+        (cause == FlowTable.EvictionCause.IDLE ? idle : capacity).add(flow.label);
+      }
+    });
+    for (int port = 0; port < 1000; port++) {
+      flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(port, 80, 6), 0);
+    }
+    assertThat(flows.size()).isLessThanOrEqualTo(16);
+    assertThat(capacity).hasSize(1000 - flows.size());
+    // The most recent flow is never the one evicted
+    assertThat(capacity).doesNotContain("0.0.0.1:999:0.0.0.2:80:6");
+
+    // Flows seen within the idle timeout survive the expiry, the other ones are removed
+    int live = flows.size();
+    FlowTable.Flow recent = flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(999, 80, 6), 1000);
+    assertThat(flows.expire(1050)).isEqualTo(live - 1);
+    assertThat(idle).hasSize(live - 1).doesNotContain(recent.label);
+    assertThat(flows.size()).isEqualTo(1);
+    assertThat(flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(999, 80, 6), 1060)).isSameAs(recent);
+    assertThat(flows.expire(1200)).isEqualTo(1);
+    assertThat(flows.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFlowCapBelowSegments() {
+    final List<String> capacity = new ArrayList<String>();
+    // Fewer flows than segments
+    FlowTable flows = new FlowTable(10, Long.MAX_VALUE, new FlowTable.EvictionListener() {
+      @Override
+      public void evicted(FlowTable.Flow flow, FlowTable.EvictionCause cause) {
+        capacity.add(flow.label);
+      }
+    });
+    for (int port = 0; port < 1000; port++) {
+      flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(port, 80, 6), port);
+      assertThat(flows.size()).isLessThanOrEqualTo(10);
+    }
+    assertThat(flows.size()).isEqualTo(10);
+    assertThat(capacity).hasSize(990);
+    // The least recently used flows of the whole table were evicted, whatever their segment
+    for (int port = 0; port < 990; port++) {
+      assertThat(capacity.get(port)).isEqualTo("0.0.0.1:" + port + ":0.0.0.2:80:6");
+    }
+
+    // A flow reported again is no longer the least recently used one
+    flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(990, 80, 6), 1000);
+    flows.flow(FlowTable.keyHigh(1, 2), FlowTable.keyLow(1000, 80, 6), 1001);
+    assertThat(capacity.get(990)).isEqualTo("0.0.0.1:991:0.0.0.2:80:6");
+    assertThat(flows.size()).isEqualTo(10);
+  }
+
+  @Test
+  public void testFlowSeriesRemoved() throws Exception {
+    exporter.stop();
+    exporter = new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY,
+        50, INTExporter.DEFAULT_MAX_FLOWS);
+    pushView();
+    assertThat(samples("flow_latency_duration")).hasSize(1);
+    assertThat(samples("int_collector_live_flow_series").get(0).value).isEqualTo(3);
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!samples("flow_latency_duration").isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(samples("flow_latency_duration")).isEmpty();
+    assertThat(samples("hop_latency_duration_s1")).isEmpty();
+    assertThat(samples("int_collector_live_flow_series").get(0).value).isEqualTo(0);
+    for (Collector.MetricFamilySamples.Sample sample : samples("int_collector_flow_evictions_total")) {
+      assertThat(sample.value).isEqualTo(sample.labelValues.get(0).equals("idle") ? 1 : 0);
+    }
+
+    // A flow that comes back gets its series again
+    pushView();
+    assertThat(samples("flow_latency_duration")).hasSize(1);
+  }
+
+  @Test
+  public void testPathSeriesRemoved() throws Exception {
+    exporter.stop();
+    exporter = new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY,
+        50, INTExporter.DEFAULT_MAX_FLOWS);
+    pushView();
+    assertThat(samples("path_reports_total")).hasSize(1);
+
+    // The path goes away with its last flow
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!samples("path_reports_total").isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(samples("path_reports_total")).isEmpty();
+    assertThat(samples("path_latency_distribution")).isEmpty();
+    while (samples("int_collector_live_paths").get(0).value != 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(samples("int_collector_live_paths").get(0).value).isEqualTo(0);
+
+    // A path that comes back starts over
+    pushView();
+    assertThat(samples("path_reports_total").get(0).value).isEqualTo(1);
+  }
+
+  @Test
+  public void testSwitchLabelLayout() throws Exception {
+    exporter.stop();
+    exporter = new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY,
+        INTExporter.DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS, INTExporter.DEFAULT_MAX_FLOWS,
+        INTExporter.MetricLayout.SWITCH_LABEL);
+    pushView();
+
+    assertThat(samples("hop_latency_duration_s1")).isEmpty();
+    List<Collector.MetricFamilySamples.Sample> hopLatency = samples("hop_latency_duration");
+    assertThat(hopLatency).hasSize(2);
+    assertThat(hopLatency.get(0).labelNames).containsExactly("switch_id", "flow");
+    assertThat(hopLatency.get(0).labelValues).containsExactly("2", FLOW);
+    assertThat(hopLatency.get(0).value).isEqualTo(0x10);
+    assertThat(hopLatency.get(1).labelValues).containsExactly("1", FLOW);
+    assertThat(hopLatency.get(1).value).isEqualTo(0x20);
+
+    List<Collector.MetricFamilySamples.Sample> flowLatency = samples("flow_latency_duration");
+    assertThat(flowLatency).hasSize(1);
+    assertThat(flowLatency.get(0).labelValues).containsExactly("s2.s1.-" + FLOW);
+
+    // Hop 0 leaves switch 2 through port 3
+    List<Collector.MetricFamilySamples.Sample> txUtilization = samples("egress_port_tx_utilization_percentage");
+    assertThat(txUtilization).hasSize(2);
+    assertThat(txUtilization.get(0).labelNames).containsExactly("switch_id", "port_id");
+    assertThat(txUtilization).extracting("labelValues").contains(Arrays.asList("2", "3"), Arrays.asList("1", "2"));
+  }
+
+  @Test
+  public void testPerSwitchFamilies() throws Exception {
+    pushView();
+
+    List<Collector.MetricFamilySamples.Sample> queueCongestion = samples("queue_congestion_status_percentage_s2");
+    assertThat(queueCongestion).hasSize(1);
+    assertThat(queueCongestion.get(0).labelNames).containsExactly("queueId");
+    List<Collector.MetricFamilySamples.Sample> txUtilization = samples("egress_port_tx_utilization_percentage_s2");
+    assertThat(txUtilization).hasSize(1);
+    assertThat(txUtilization.get(0).labelValues).containsExactly("3");
+    assertThat(samples("hop_latency_duration_s1").get(0).value).isEqualTo(0x20);
+  }
+
+  @Test
+  public void testLongDoubleTable() {
+    LongDoubleTable table = new LongDoubleTable();
+    for (long key = -1000; key < 1000; key++) {
+      table.set(key << 32, key);
+    }
+    table.set(0, 0.5);
+    assertThat(table.size()).isEqualTo(2000);
+    assertThat(table.get(0)).isEqualTo(0.5);
+    assertThat(table.get(-1000L << 32)).isEqualTo(-1000);
+    assertThat(table.get(999L << 32)).isEqualTo(999);
+    assertThat(table.get(1)).isNaN();
+  }
+
+  @Test
+  public void testQuantileSketch() {
+    Distribution distribution = new Distribution(1000);
+    for (int value = 0; value <= 100000; value++) {
+      distribution.observe(value, 0);
+    }
+    long[] counts = distribution.snapshot(1500);
+    for (double quantile : new double[] {0.5, 0.99, 0.999}) {
+      double exact = quantile * 100000;
+      assertThat(QuantileSketch.quantile(counts, 100001, quantile))
+          .isCloseTo(exact, within(exact * QuantileSketch.RELATIVE_ACCURACY));
+    }
+    assertThat(distribution.count()).isEqualTo(100001);
+    assertThat(distribution.sum()).isEqualTo(100000L * 100001 / 2.0);
+
+    // The values of the window before the previous one are no longer in the quantiles
+    assertThat(QuantileSketch.quantile(distribution.snapshot(2000), 0, 0.5)).isNaN();
+    distribution.observe(7, 2000);
+    counts = distribution.snapshot(2000);
+    assertThat(QuantileSketch.quantile(counts, 1, 0.5)).isCloseTo(7, within(7 * QuantileSketch.RELATIVE_ACCURACY));
+    assertThat(distribution.count()).isEqualTo(100002);
+  }
+
+  @Test
+  public void testHopLatencyDistribution() throws Exception {
+    pushView();
+    pushView();
+
+    List<Collector.MetricFamilySamples.Sample> hopLatency = samples("hop_latency_distribution");
+    assertThat(hopLatency).hasSize(12);
+    assertThat(hopLatency.get(0).labelNames).containsExactly("switch_id", "quantile");
+    assertThat(hopLatency.get(0).labelValues).containsExactly("1", "0.5");
+    assertThat(hopLatency.get(0).value).isCloseTo(0x20, within(0x20 * QuantileSketch.RELATIVE_ACCURACY));
+    assertThat(hopLatency.get(4).name).isEqualTo("hop_latency_distribution_count");
+    assertThat(hopLatency.get(4).value).isEqualTo(2);
+    assertThat(hopLatency.get(5).name).isEqualTo("hop_latency_distribution_sum");
+    assertThat(hopLatency.get(5).value).isEqualTo(0x40);
+    assertThat(hopLatency.get(9).labelValues).containsExactly("2", "0.999");
+    assertThat(hopLatency.get(9).value).isCloseTo(0x10, within(0x10 * QuantileSketch.RELATIVE_ACCURACY));
+    assertThat(samples("queue_occupancy_distribution")).hasSize(12);
+    assertThat(samples("queue_congestion_distribution")).hasSize(12);
+  }
+
+  @Test
+  public void testPeakTable() throws Exception {
+    final PeakTable table = new PeakTable();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] = new Thread(() -> {
+        for (int value = offset; value < 100000; value += 4) {
+          table.observe(value % 200, value);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    final long[] maxs = new long[200];
+    final long[] mins = new long[200];
+    table.collect((key, max, min) -> {
+      maxs[(int) key] = max;
+      mins[(int) key] = min;
+    });
+    assertThat(table.size()).isEqualTo(200);
+    for (int key = 0; key < 200; key++) {
+      assertThat(maxs[key]).isEqualTo(99800 + key);
+      assertThat(mins[key]).isEqualTo(key);
+    }
+
+    // Collecting resets the bounds
+    table.observe(1, 5);
+    final List<Long> collected = new ArrayList<Long>();
+    table.collect((key, max, min) -> collected.addAll(Arrays.asList(key, max, min)));
+    assertThat(collected).containsExactly(1L, 5L, 5L);
+    collected.clear();
+    table.collect((key, max, min) -> collected.add(key));
+    assertThat(collected).isEmpty();
+  }
+
+  @Test
+  public void testPeaksResetOnCollect() throws Exception {
+    pushView();
+
+    // Every collect resets the bounds, so look at the families of a single collect
+    List<Collector.MetricFamilySamples.Sample> hopLatencyMax = new ArrayList<Collector.MetricFamilySamples.Sample>();
+    List<Collector.MetricFamilySamples.Sample> queueCongestionMin = new ArrayList<Collector.MetricFamilySamples.Sample>();
+    for (Collector.MetricFamilySamples family : Collections.list(exporter.getRegistry().metricFamilySamples())) {
+      if (family.name.equals("hop_latency_max")) {
+        hopLatencyMax.addAll(family.samples);
+      } else if (family.name.equals("queue_congestion_status_min")) {
+        queueCongestionMin.addAll(family.samples);
+      }
+    }
+    assertThat(hopLatencyMax).hasSize(2);
+    assertThat(hopLatencyMax).extracting("labelValues")
+        .containsOnly(Collections.singletonList("1"), Collections.singletonList("2"));
+    assertThat(hopLatencyMax).extracting("value").containsOnly(16.0, 32.0);
+    assertThat(queueCongestionMin).hasSize(2);
+    assertThat(queueCongestionMin.get(0).labelNames).containsExactly("switch_id", "queueId");
+
+    assertThat(samples("hop_latency_max")).isEmpty();
+    assertThat(samples("hop_latency_duration_s1")).hasSize(1);
+  }
+
+  @Test
+  public void testLinkLatency() throws Exception {
+    // Without time stamps, there is no link latency
+    pushView();
+    assertThat(samples("link_latency_distribution")).isEmpty();
+
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(TIME_STAMP_REPORT), 0,
+        TIME_STAMP_REPORT.length));
+    exporter.pushMetrics(TelemetryReport.deserializer().deserialize(TIME_STAMP_REPORT, 0, TIME_STAMP_REPORT.length));
+
+    List<Collector.MetricFamilySamples.Sample> linkLatency = samples("link_latency_distribution");
+    assertThat(linkLatency).hasSize(6);
+    assertThat(linkLatency.get(0).labelNames)
+        .containsExactly("src_switch_id", "src_port_id", "dst_switch_id", "dst_port_id", "quantile");
+    assertThat(linkLatency.get(0).labelValues).containsExactly("1", "2", "2", "1", "0.5");
+    // From 0xfffffff0 on switch 1 to 0x10 on switch 2
+    assertThat(linkLatency.get(0).value).isCloseTo(0x20, within(0x20 * QuantileSketch.RELATIVE_ACCURACY));
+    assertThat(linkLatency.get(4).value).isEqualTo(2);
+    assertThat(linkLatency.get(5).value).isEqualTo(0x40);
+  }
+
+  @Test
+  public void testLinkSeriesRemoved() throws Exception {
+    exporter.stop();
+    exporter = new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY,
+        50, INTExporter.DEFAULT_MAX_FLOWS);
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(TIME_STAMP_REPORT), 0,
+        TIME_STAMP_REPORT.length));
+    assertThat(samples("link_latency_distribution")).hasSize(6);
+
+    // The link goes away once no latency was observed on it for the idle timeout
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!samples("link_latency_distribution").isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(samples("link_latency_distribution")).isEmpty();
+    while (samples("int_collector_live_links").get(0).value != 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(samples("int_collector_live_links").get(0).value).isEqualTo(0);
+
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(TIME_STAMP_REPORT), 0,
+        TIME_STAMP_REPORT.length));
+    assertThat(samples("link_latency_distribution")).hasSize(6);
+  }
+
+  @Test
+  public void testPathAggregates() throws Exception {
+    pushView();
+    exporter.pushMetrics(TelemetryReport.deserializer().deserialize(REPORT, 0, REPORT.length));
+    // Same flow and path, reported with other instructions
+    exporter.pushMetrics(TelemetryReport.deserializer().deserialize(TIME_STAMP_REPORT, 0, TIME_STAMP_REPORT.length));
+
+    List<Collector.MetricFamilySamples.Sample> pathReports = samples("path_reports_total");
+    assertThat(pathReports).hasSize(1);
+    assertThat(pathReports.get(0).labelNames).containsExactly("path");
+    assertThat(pathReports.get(0).labelValues).containsExactly("s2.s1");
+    assertThat(pathReports.get(0).value).isEqualTo(3);
+
+    List<Collector.MetricFamilySamples.Sample> pathLatency = samples("path_latency_distribution");
+    assertThat(pathLatency).hasSize(6);
+    assertThat(pathLatency.get(0).labelValues).containsExactly("s2.s1", "0.5");
+    assertThat(pathLatency.get(0).value).isCloseTo(0x30, within(0x30 * QuantileSketch.RELATIVE_ACCURACY));
+
+    double lastSeen = samples("path_last_seen_timestamp_seconds").get(0).value;
+    assertThat(lastSeen).isCloseTo(System.currentTimeMillis() / 1000.0, within(10.0));
+    assertThat(samples("flow_latency_duration").get(0).labelValues).containsExactly("s2.s1.-" + FLOW);
+  }
+
+  @Test
+  public void testTopFlows() {
+    TopFlows topFlows = new TopFlows(10);
+    // 10 heavy flows among 10000 mice
+    for (int round = 0; round < 100; round++) {
+      for (int flow = 0; flow < 10; flow++) {
+        topFlows.reported(flow, 0, 1);
+      }
+      for (int mouse = 0; mouse < 100; mouse++) {
+        topFlows.reported(round * 100 + mouse, 1, 1);
+      }
+    }
+    // A single report with a high latency
+    topFlows.reported(42, 42, 1000000);
+
+    TopFlows.Keys top = topFlows.top();
+    for (int flow = 0; flow < 10; flow++) {
+      assertThat(top.contains(flow, 0)).isTrue();
+    }
+    assertThat(top.contains(42, 42)).isTrue();
+    assertThat(top.contains(9999, 1)).isFalse();
+  }
+
+  @Test
+  public void testOnlyTopFlowsExported() throws Exception {
+    exporter.stop();
+    exporter = new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY,
+        INTExporter.DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS, INTExporter.DEFAULT_MAX_FLOWS,
+        INTExporter.MetricLayout.PER_SWITCH_FAMILIES, 1);
+    pushView();
+    pushView();
+    // Another flow, with a single report and a lower latency
+    byte[] other = REPORT.clone();
+    // From 10.0.10.2
+    other[41] = 0x02;
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(other), 0, other.length));
+
+    List<Collector.MetricFamilySamples.Sample> flowLatency = samples("flow_latency_duration");
+    assertThat(flowLatency).hasSize(1);
+    assertThat(flowLatency.get(0).labelValues).containsExactly("s2.s1.-" + FLOW);
+    assertThat(samples("hop_latency_duration_s1")).hasSize(1);
+    // The other flow is still counted in the path aggregates
+    assertThat(samples("path_reports_total").get(0).value).isEqualTo(3);
+  }
+
+  @Test
+  public void testLiveFlowsCountTopFlows() throws Exception {
+    exporter.stop();
+    exporter = new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY,
+        INTExporter.DEFAULT_FLOW_IDLE_TIMEOUT_MILLIS, INTExporter.DEFAULT_MAX_FLOWS,
+        INTExporter.MetricLayout.PER_SWITCH_FAMILIES, 1);
+    pushView();
+    pushView();
+    // 3 more flows than the top flow, from 10.0.10.2 to 10.0.10.4
+    for (int source = 2; source <= 4; source++) {
+      byte[] other = REPORT.clone();
+      other[41] = (byte) source;
+      exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(other), 0, other.length));
+    }
+
+    assertThat(samples("flow_latency_duration")).hasSize(1);
+    assertThat(samples("int_collector_live_flows").get(0).value).isEqualTo(1);
+    // The flow latency series and one hop latency series per switch of the path
+    assertThat(samples("int_collector_live_flow_series").get(0).value).isEqualTo(3);
+  }
+
+  @Test
+  public void testSequenceTracker() {
+    SequenceTracker tracker = new SequenceTracker();
+    tracker.report(0xfffffffd);
+    tracker.report(0xfffffffe);
+    // Wraps around, losing 0xffffffff and 0
+    tracker.report(1);
+    // 0 was late
+    tracker.report(0);
+    tracker.report(1);
+    // Restarted
+    tracker.report(0xffff0000);
+
+    assertThat(tracker.received.sum()).isEqualTo(6);
+    assertThat(tracker.lost.sum()).isEqualTo(1);
+    assertThat(tracker.wraps.sum()).isEqualTo(1);
+    assertThat(tracker.reordered.sum()).isEqualTo(1);
+    assertThat(tracker.duplicates.sum()).isEqualTo(1);
+    assertThat(tracker.resets.sum()).isEqualTo(1);
+    // 1 lost out of the 6 distinct reports expected
+    assertThat(tracker.lossRatio()).isEqualTo(1 / 6.0);
+
+    // Reading the ratio does not reset it
+    assertThat(tracker.lossRatio()).isEqualTo(1 / 6.0);
+
+    tracker.report(0xffff0001);
+    assertThat(tracker.lossRatio()).isEqualTo(1 / 7.0);
+    tracker.report(0xffff0003);
+    assertThat(tracker.lossRatio()).isEqualTo(2 / 9.0);
+  }
+
+  @Test
+  public void testSequenceReplay() {
+    SequenceTracker tracker = new SequenceTracker();
+    tracker.report(10);
+    tracker.report(11);
+    tracker.report(13);
+    // Replays of reports that were not lost are duplicates, and do not offset the loss of 12
+    tracker.report(10);
+    tracker.report(11);
+    assertThat(tracker.duplicates.sum()).isEqualTo(2);
+    assertThat(tracker.reordered.sum()).isEqualTo(0);
+    assertThat(tracker.lost.sum()).isEqualTo(1);
+
+    // 12 was late, and only fills its gap once
+    tracker.report(12);
+    tracker.report(12);
+    assertThat(tracker.reordered.sum()).isEqualTo(1);
+    assertThat(tracker.duplicates.sum()).isEqualTo(3);
+    assertThat(tracker.lost.sum()).isEqualTo(0);
+  }
+
+  @Test
+  public void testReportLoss() throws Exception {
+    pushView();
+    byte[] report = REPORT.clone();
+    // Sequence 0x100 then 0x104
+    report[7] = 0x04;
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(report), 0, report.length));
+    exporter.pushMetrics(TelemetryReport.deserializer().deserialize(report, 0, report.length));
+
+    // Reported by the last hop, switch 2, hardware 2
+    List<Collector.MetricFamilySamples.Sample> lost = samples("int_collector_sequence_lost_total");
+    assertThat(lost).hasSize(1);
+    assertThat(lost.get(0).labelNames).containsExactly("switch_id", "hw_id");
+    assertThat(lost.get(0).labelValues).containsExactly("2", "2");
+    assertThat(lost.get(0).value).isEqualTo(3);
+    assertThat(samples("int_collector_sequence_reports_total").get(0).value).isEqualTo(3);
+    assertThat(samples("int_collector_sequence_duplicates_total").get(0).value).isEqualTo(1);
+  }
+
+  @Test
+  public void testDropReportCounted() throws Exception {
+    byte[] drop = REPORT.clone();
+    // D bit only, the dropped packet still carries its INT metadata
+    drop[1] = (byte) 0x80;
+    TelemetryReportView view = new TelemetryReportView().wrap(ByteBuffer.wrap(drop), 0, drop.length);
+    // As the event loop and the worker of the event lane do
+    exporter.reportReceived(view);
+    exporter.processReport(view);
+
+    // Reported by the last hop, switch 2
+    List<Collector.MetricFamilySamples.Sample> drops = samples("packet_drop_reports_total");
+    assertThat(drops).hasSize(1);
+    assertThat(drops.get(0).labelNames).containsExactly("switch_id", "queue_id");
+    assertThat(drops.get(0).labelValues.get(0)).isEqualTo("2");
+    assertThat(drops.get(0).value).isEqualTo(1);
+    assertThat(samples("queue_congestion_reports_total").get(0).value).isEqualTo(0);
+    assertThat(samples("hop_latency_duration_s1").get(0).value).isEqualTo(0x20);
+
+    // Drop and congestion report of switch 5, queue 3, with a drop header and no packet
+    byte[] dropHeader = {
+        (byte) 0x11, (byte) 0xc0, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x05, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x02,
+        (byte) 0x03, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+    };
+    exporter.pushMetrics(TelemetryReport.deserializer().deserialize(dropHeader, 0, dropHeader.length));
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(dropHeader), 0, dropHeader.length));
+    List<String> queue = Arrays.asList("5", "3");
+    assertThat(samples("packet_drop_reports_total")).filteredOn("labelValues", queue)
+        .extracting("value").containsExactly(2.0);
+    assertThat(samples("queue_congestion_reports_total")).filteredOn("labelValues", queue)
+        .extracting("value").containsExactly(2.0);
+  }
+
+  @Test
+  public void testShardedMetrics() throws Exception {
+    pushView();
+    ShardedMetrics sharded = exporter.getShardedMetrics(4);
+
+    // Switch 1 only has its hop of the path s2.s1
+    List<Collector.MetricFamilySamples> switch1 = sharded.collectSwitch(1);
+    assertThat(samples(switch1, "hop_latency_duration_s1")).hasSize(1);
+    assertThat(samples(switch1, "hop_latency_duration_s2")).isEmpty();
+    assertThat(samples(switch1, "flow_latency_duration")).isEmpty();
+    assertThat(samples(switch1, "path_reports_total")).isEmpty();
+    assertThat(samples(switch1, "hop_latency_max")).extracting("labelValues")
+        .containsExactly(Collections.singletonList("1"));
+
+    // The flow and path series belong to switch 2, which sent the report
+    List<Collector.MetricFamilySamples> switch2 = sharded.collectSwitch(2);
+    assertThat(samples(switch2, "hop_latency_duration_s2")).hasSize(1);
+    assertThat(samples(switch2, "flow_latency_duration")).hasSize(1);
+    assertThat(samples(switch2, "path_reports_total")).hasSize(1);
+    assertThat(samples(switch2, "int_collector_sequence_reports_total")).hasSize(1);
+
+    // The bounds were reset by the collects of their switch only
+    pushView();
+    assertThat(samples(sharded.collectSwitch(1), "hop_latency_max")).hasSize(1);
+    assertThat(samples("hop_latency_max")).hasSize(1);
+  }
+
+  @Test
+  public void testShardsCoverEverySwitch() throws Exception {
+    pushView();
+    ShardedMetrics sharded = exporter.getShardedMetrics(3);
+    int hopLatencies = 0;
+    int flowLatencies = 0;
+    for (int shard = 0; shard < sharded.shards(); shard++) {
+      List<Collector.MetricFamilySamples> mfs = sharded.collectShard(shard);
+      hopLatencies += samples(mfs, "hop_latency_duration_s1").size() + samples(mfs, "hop_latency_duration_s2").size();
+      flowLatencies += samples(mfs, "flow_latency_duration").size();
+    }
+    assertThat(hopLatencies).isEqualTo(2);
+    assertThat(flowLatencies).isEqualTo(1);
+
+    assertThat(INTCollector.shard(-7, 3)).isBetween(0, 2);
+    assertThat(HTTPServer.shardSamples(sharded, "/metrics/shard/3")).isNull();
+    assertThat(HTTPServer.shardSamples(sharded, "/metrics/switch/s1")).isNull();
+    assertThat(HTTPServer.shardSamples(sharded, "/metrics/switch/1")).isNotEmpty();
+  }
+
+  static List<Collector.MetricFamilySamples.Sample> samples(List<Collector.MetricFamilySamples> mfs, String name) {
+    List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<Collector.MetricFamilySamples.Sample>();
+    for (Collector.MetricFamilySamples family : mfs) {
+      if (family.name.equals(name)) {
+        samples.addAll(family.samples);
+      }
+    }
+    return samples;
+  }
+}
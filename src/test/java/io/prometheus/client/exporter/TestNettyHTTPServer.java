@@ -0,0 +1,148 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestNettyHTTPServer {
+
+  NettyHTTPServer s;
+  CollectorRegistry registry;
+
+  @Before
+  public void init() throws IOException {
+    registry = new CollectorRegistry();
+    Gauge.build("a", "a help").register(registry);
+    Gauge.build("b", "a help").register(registry);
+    Gauge.build("c", "a help").register(registry);
+    s = NettyHTTPServer.builder().withRegistry(registry).withDaemonThreads(true).build();
+  }
+
+  @After
+  public void cleanup() {
+    s.stop();
+  }
+
+  String request(String suffix) throws IOException {
+    String url = "http://localhost:" + s.getPort() + "/metrics" + suffix;
+    URLConnection connection = new URL(url).openConnection();
+    connection.connect();
+    Scanner s = new Scanner(connection.getInputStream(), "UTF-8").useDelimiter("\\A");
+    return s.hasNext() ? s.next() : "";
+  }
+
+  String requestWithCompression(String suffix) throws IOException {
+    String url = "http://localhost:" + s.getPort() + "/metrics" + suffix;
+    URLConnection connection = new URL(url).openConnection();
+    connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+    connection.connect();
+    assertThat(connection.getHeaderField("Content-Encoding")).isEqualTo("gzip");
+    GZIPInputStream gzs = new GZIPInputStream(connection.getInputStream());
+    Scanner s = new Scanner(gzs).useDelimiter("\\A");
+    return s.hasNext() ? s.next() : "";
+  }
+
+  @Test
+  public void testSimpleRequest() throws IOException {
+    String response = request("");
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("b 0.0");
+    assertThat(response).contains("c 0.0");
+  }
+
+  @Test
+  public void testMultiName() throws IOException {
+    String response = request("?name[]=a&name[]=b");
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("b 0.0");
+    assertThat(response).doesNotContain("c 0.0");
+  }
+
+  @Test
+  public void testGzipCompression() throws IOException {
+    String response = requestWithCompression("");
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("b 0.0");
+    assertThat(response).contains("c 0.0");
+  }
+
+  @Test
+  public void testKeepAlive() throws IOException {
+    try (Socket socket = new Socket("localhost", s.getPort())) {
+      OutputStream os = socket.getOutputStream();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+          StandardCharsets.UTF_8));
+      for (int i = 0; i < 3; i++) {
+        os.write("GET /metrics?name[]=a HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        os.flush();
+        assertThat(reader.readLine()).isEqualTo("HTTP/1.1 200 OK");
+        int length = -1;
+        String header;
+        while (!(header = reader.readLine()).isEmpty()) {
+          if (header.toLowerCase().startsWith("content-length:")) {
+            length = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+          }
+        }
+        char[] body = new char[length];
+        int read = 0;
+        while (read < length) {
+          read += reader.read(body, read, length - read);
+        }
+        assertThat(new String(body)).contains("a 0.0");
+      }
+    }
+  }
+
+  @Test
+  public void testCachedExposition() throws IOException {
+    s.stop();
+    MetricsGeneration generation = new MetricsGeneration();
+    s = NettyHTTPServer.builder().withRegistry(registry).withGeneration(generation).build();
+    Gauge d = Gauge.build("d", "a help").register(registry);
+    d.set(1);
+    String response = request("");
+    assertThat(response).contains("d 1.0");
+    d.set(2);
+    assertThat(request("")).isEqualTo(response);
+    assertThat(requestWithCompression("")).isEqualTo(response);
+    generation.advance();
+    assertThat(request("")).contains("d 2.0");
+  }
+
+  @Test
+  public void testNotModified() throws IOException {
+    s.stop();
+    MetricsGeneration generation = new MetricsGeneration();
+    s = NettyHTTPServer.builder().withRegistry(registry).withGeneration(generation).build();
+    String url = "http://localhost:" + s.getPort() + "/metrics";
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    String etag = connection.getHeaderField("ETag");
+
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(304);
+
+    Gauge.build("d", "a help").register(registry);
+    generation.advance();
+    connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("If-None-Match", etag);
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+  }
+}
@@ -0,0 +1,168 @@
+package io.prometheus.client.exporter;
+
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+import org.onosproject.monitoring.packet.TelemetryReportView;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestPushScheduler {
+
+  final AtomicInteger pushes = new AtomicInteger();
+  final PushGateway pushGateway = new PushGateway("localhost:9091") {
+    @Override
+    public void pushAdd(CollectorRegistry registry, String job) {
+      pushes.incrementAndGet();
+    }
+  };
+
+  @Test
+  public void testPushOnUpdates() {
+    PushScheduler scheduler = new PushScheduler(pushGateway, new CollectorRegistry(), "job", 60000, 1000);
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(0);
+    scheduler.markDirty();
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(1);
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(1);
+    scheduler.stop();
+  }
+
+  @Test
+  public void testFlushOnInterval() throws Exception {
+    PushScheduler scheduler = new PushScheduler(pushGateway, new CollectorRegistry(), "job", 20, 1000);
+    scheduler.start();
+    scheduler.markDirty();
+    awaitPushes(1);
+    // Nothing changed since, so the next intervals do not push
+    Thread.sleep(100);
+    assertThat(pushes.get()).isEqualTo(1);
+    scheduler.markDirty();
+    awaitPushes(2);
+    scheduler.stop();
+  }
+
+  @Test
+  public void testFlushOnMaxDirty() throws Exception {
+    // The interval never elapses in the test
+    PushScheduler scheduler = new PushScheduler(pushGateway, new CollectorRegistry(), "job", 60000, 3);
+    scheduler.start();
+    scheduler.markDirty();
+    scheduler.markDirty();
+    Thread.sleep(100);
+    assertThat(pushes.get()).isEqualTo(0);
+    scheduler.markDirty();
+    awaitPushes(1);
+    scheduler.stop();
+    assertThat(pushes.get()).isEqualTo(1);
+  }
+
+  void awaitPushes(int expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (pushes.get() < expected && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(pushes.get()).isEqualTo(expected);
+  }
+
+  @Test
+  public void testPipelineReportDirtiesOnce() throws Exception {
+    HttpServer gateway = HttpServer.create(new InetSocketAddress(0), 0);
+    gateway.createContext("/", exchange -> {
+      pushes.incrementAndGet();
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    gateway.start();
+    // The interval never elapses in the test, so only the second report triggers a push
+    INTExporter exporter = new INTExporter("localhost:" + gateway.getAddress().getPort(), 60000, 2);
+    try {
+      TelemetryReportView report = new TelemetryReportView();
+      byte[] bytes = TestINTExporter.REPORT;
+      report.wrap(ByteBuffer.wrap(bytes), 0, bytes.length);
+      exporter.reportReceived(report);
+      exporter.processReport(report);
+      Thread.sleep(100);
+      assertThat(pushes.get()).isEqualTo(0);
+      exporter.reportReceived(report);
+      exporter.processReport(report);
+      awaitPushes(1);
+    } finally {
+      exporter.stop();
+      gateway.stop(0);
+    }
+  }
+
+  @Test
+  public void testSkipUnchangedGeneration() {
+    MetricsGeneration generation = new MetricsGeneration();
+    PushScheduler scheduler = new PushScheduler(pushGateway, new CollectorRegistry(), "job", 60000, 1000,
+        generation);
+    // Updates that did not change the metrics
+    scheduler.markDirty();
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(0);
+
+    generation.advance();
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(1);
+    scheduler.markDirty();
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(1);
+    scheduler.stop();
+    assertThat(pushes.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSkipIdleExporter() throws Exception {
+    INTExporter exporter = shortIdleTimeoutExporter();
+    PushScheduler scheduler = new PushScheduler(pushGateway, exporter.getRegistry(), "job", 60000, 1000,
+        exporter.getGeneration());
+    // The flow expiry runs every 10 ms without changing anything
+    Thread.sleep(100);
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(0);
+
+    pushReport(exporter);
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(1);
+    awaitFlowExpired(exporter);
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(2);
+
+    Thread.sleep(100);
+    scheduler.flush();
+    assertThat(pushes.get()).isEqualTo(2);
+    scheduler.stop();
+    exporter.stop();
+  }
+
+  /**
+   * Creates an exporter whose flows expire after 40 ms, checked every 10 ms.
+   */
+  static INTExporter shortIdleTimeoutExporter() {
+    return new INTExporter(null, INTExporter.DEFAULT_FLUSH_INTERVAL_MILLIS, INTExporter.DEFAULT_MAX_DIRTY, 40,
+        INTExporter.DEFAULT_MAX_FLOWS);
+  }
+
+  static void pushReport(INTExporter exporter) throws Exception {
+    byte[] report = TestINTExporter.REPORT;
+    exporter.pushMetrics(new TelemetryReportView().wrap(ByteBuffer.wrap(report), 0, report.length));
+  }
+
+  static void awaitFlowExpired(INTExporter exporter) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (exporter.getRegistry().getSampleValue("int_collector_flow_evictions_total", new String[] {"cause"},
+        new String[] {"idle"}) < 1 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertThat(exporter.getRegistry().getSampleValue("int_collector_live_flows")).isEqualTo(0);
+  }
+}
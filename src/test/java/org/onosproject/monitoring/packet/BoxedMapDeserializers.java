@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.monitoring.packet;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static org.onosproject.monitoring.packet.PacketUtils.checkHeaderLength;
+import static org.onosproject.monitoring.packet.PacketUtils.checkInput;
+
+/**
+ * Copy of the telemetry report parse chain as it was before the primitive
+ * dispatch tables: every layer looks its payload deserializer up in an
+ * {@link ImmutableMap} with a boxed key, with containsKey followed by get.
+ * <p>
+ * Only used as the baseline of {@link TelemetryReportBenchmark}. The layers
+ * without a dispatch map (TCP, P4Int) are the current ones.
+ */
+final class BoxedMapDeserializers {
+
+    private static final byte INT_DSCP = 0x1;
+    private static final short IP_HEADER_LENGTH = 20;
+
+    private static final Map<Short, BufferDeserializer<? extends IPacket>> ETHERTYPE_DESERIALIZER_MAP =
+            ImmutableMap.<Short, BufferDeserializer<? extends IPacket>>of(Ethernet.TYPE_IPV4, ipv4());
+    private static final Map<Byte, BufferDeserializer<? extends IPacket>> PROTOCOL_DESERIALIZER_MAP =
+            ImmutableMap.<Byte, BufferDeserializer<? extends IPacket>>of(
+                    IPv4.PROTOCOL_TCP, TCP.bufferDeserializer(), IPv4.PROTOCOL_UDP, udp());
+    private static final Map<Integer, BufferDeserializer<? extends IPacket>> PORT_DESERIALIZER_MAP =
+            ImmutableMap.<Integer, BufferDeserializer<? extends IPacket>>of(
+                    UDP.TELEMETRY_REPORT_PORT, telemetryReport());
+
+    private BoxedMapDeserializers() {
+    }
+
+    /**
+     * Deserializer of a telemetry report whose inner headers are dispatched through the boxed maps.
+     *
+     * @return telemetry report deserializer
+     */
+    static BufferDeserializer<TelemetryReport> telemetryReport() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH);
+
+            TelemetryReport reportPacket = new TelemetryReport();
+            int position = offset;
+
+            int firstWord = bb.getInt(position);
+            reportPacket.ver = (byte) (firstWord >> 28 & 0xf);
+            reportPacket.nextProto = (byte) (firstWord >> 24 & 0xf);
+            reportPacket.d = (byte) (firstWord >> 23 & 0x1);
+            reportPacket.q = (byte) (firstWord >> 22 & 0x1);
+            reportPacket.f = (byte) (firstWord >> 21 & 0x1);
+            reportPacket.reserved = (short) (firstWord >> 6 & 0x7fff);
+            reportPacket.hwId = (byte) (firstWord & 0x3f);
+
+            reportPacket.sequence = bb.getInt(position + 4);
+            reportPacket.ingressTstamp = bb.getInt(position + 8);
+            position += TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH;
+
+            if (reportPacket.nextProto == TelemetryReport.TYPE_TELEMETRY_DROP) {
+                checkHeaderLength(length, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH +
+                        TelemetryReport.TELEMETRY_DROP_HEADER_LENGTH);
+                reportPacket.switchId = bb.getInt(position);
+                reportPacket.ingressPortId = bb.getShort(position + 4);
+                reportPacket.egressPortId = bb.getShort(position + 6);
+                reportPacket.queueId = bb.get(position + 8);
+                reportPacket.dropReason = bb.get(position + 9);
+                reportPacket.pad = bb.getShort(position + 10);
+                position += TelemetryReport.TELEMETRY_DROP_HEADER_LENGTH;
+            } else if (reportPacket.nextProto == TelemetryReport.TYPE_TELEMETRY_SWITCH_LOCAL) {
+                checkHeaderLength(length, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH +
+                        TelemetryReport.TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH);
+                reportPacket.switchId = bb.getInt(position);
+                reportPacket.ingressPortId = bb.getShort(position + 4);
+                reportPacket.egressPortId = bb.getShort(position + 6);
+                int queueStatus = bb.getInt(position + 8);
+                reportPacket.queueId = ((byte) ((queueStatus & 0xFF000000) >> 24));
+                reportPacket.queueOccupancy = (queueStatus & 0x00FFFFFF);
+                reportPacket.egressTstamp = bb.getInt(position + 12);
+                position += TelemetryReport.TELEMETRY_SWITCH_LOCAL_HEADER_LENGTH;
+            }
+
+            // Inner Ethernet header
+            int remainingLen = offset + length - position;
+            if (remainingLen > 0) {
+                reportPacket.payload = ethernet().deserialize(bb, position, remainingLen);
+                reportPacket.payload.setParent(reportPacket);
+            }
+
+            return reportPacket;
+        };
+    }
+
+    static BufferDeserializer<Ethernet> ethernet() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, Ethernet.ETHERNET_HEADER_LENGTH);
+
+            byte[] addressBuffer = new byte[Ethernet.DATALAYER_ADDRESS_LENGTH];
+
+            Ethernet eth = new Ethernet();
+            int position = offset;
+            // Read destination MAC address into buffer
+            for (int i = 0; i < Ethernet.DATALAYER_ADDRESS_LENGTH; i++) {
+                addressBuffer[i] = bb.get(position++);
+            }
+            eth.setDestinationMACAddress(addressBuffer);
+
+            // Read source MAC address into buffer
+            for (int i = 0; i < Ethernet.DATALAYER_ADDRESS_LENGTH; i++) {
+                addressBuffer[i] = bb.get(position++);
+            }
+            eth.setSourceMACAddress(addressBuffer);
+
+            short ethType = bb.getShort(position);
+            position += 2;
+            if (ethType == Ethernet.TYPE_QINQ) {
+                checkHeaderLength(length, Ethernet.ETHERNET_HEADER_LENGTH + Ethernet.VLAN_HEADER_LENGTH +
+                        Ethernet.VLAN_HEADER_LENGTH);
+                final short tci = bb.getShort(position);
+                eth.setQinQPriorityCode((byte) (tci >> 13 & 0x07));
+                eth.setQinQVID((short) (tci & 0x0fff));
+                eth.setQinQTPID(Ethernet.TYPE_QINQ);
+                ethType = bb.getShort(position + 2);
+                position += Ethernet.VLAN_HEADER_LENGTH;
+            }
+            if (ethType == Ethernet.TYPE_VLAN) {
+                checkHeaderLength(length, Ethernet.ETHERNET_HEADER_LENGTH + Ethernet.VLAN_HEADER_LENGTH);
+                final short tci = bb.getShort(position);
+                eth.setPriorityCode((byte) (tci >> 13 & 0x07));
+                eth.setVlanID((short) (tci & 0x0fff));
+                ethType = bb.getShort(position + 2);
+                position += Ethernet.VLAN_HEADER_LENGTH;
+
+                if (ethType == Ethernet.TYPE_VLAN) {
+                    checkHeaderLength(length, Ethernet.ETHERNET_HEADER_LENGTH + Ethernet.VLAN_HEADER_LENGTH);
+                    eth.setQinQPriorityCode(eth.getPriorityCode());
+                    eth.setQinQVID(eth.getVlanID());
+                    eth.setQinQTPID(Ethernet.TYPE_VLAN);
+
+                    final short innerTci = bb.getShort(position);
+                    eth.setPriorityCode((byte) (innerTci >> 13 & 0x07));
+                    eth.setVlanID((short) (innerTci & 0x0fff));
+                    ethType = bb.getShort(position + 2);
+                    position += Ethernet.VLAN_HEADER_LENGTH;
+                }
+            } else {
+                eth.setVlanID(Ethernet.VLAN_UNTAGGED);
+            }
+            eth.setEtherType(ethType);
+
+            IPacket payload;
+            BufferDeserializer<? extends IPacket> deserializer;
+            if (ETHERTYPE_DESERIALIZER_MAP.containsKey(ethType)) {
+                deserializer = ETHERTYPE_DESERIALIZER_MAP.get(ethType);
+            } else {
+                deserializer = Data.bufferDeserializer();
+            }
+            payload = deserializer.deserialize(bb, position, offset + length - position);
+            payload.setParent(eth);
+            eth.setPayload(payload);
+
+            return eth;
+        };
+    }
+
+    static BufferDeserializer<IPv4> ipv4() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, IPv4.HEADER_LENGTH);
+
+            IPv4 ipv4 = new IPv4();
+
+            byte versionByte = bb.get(offset);
+            ipv4.headerLength = (byte) (versionByte & 0xf);
+            ipv4.setVersion((byte) (versionByte >> 4 & 0xf));
+            ipv4.setDiffServ(bb.get(offset + 1));
+            ipv4.totalLength = bb.getShort(offset + 2);
+            ipv4.identification = bb.getShort(offset + 4);
+            short flagsFragment = bb.getShort(offset + 6);
+            ipv4.flags = (byte) (flagsFragment >> 13 & 0x7);
+            ipv4.fragmentOffset = (short) (flagsFragment & 0x1fff);
+            ipv4.ttl = bb.get(offset + 8);
+            ipv4.protocol = bb.get(offset + 9);
+            ipv4.checksum = bb.getShort(offset + 10);
+            ipv4.sourceAddress = bb.getInt(offset + 12);
+            ipv4.destinationAddress = bb.getInt(offset + 16);
+            int position = offset + IPv4.HEADER_LENGTH;
+
+            if (ipv4.headerLength > 5) {
+                checkHeaderLength(length, ipv4.headerLength * 4);
+
+                int optionsLength = (ipv4.headerLength - 5) * 4;
+                ipv4.options = new byte[optionsLength];
+                for (int i = 0; i < optionsLength; i++) {
+                    ipv4.options[i] = bb.get(position++);
+                }
+            }
+
+            BufferDeserializer<? extends IPacket> deserializer;
+            if (PROTOCOL_DESERIALIZER_MAP.containsKey(ipv4.protocol)) {
+                deserializer = PROTOCOL_DESERIALIZER_MAP.get(ipv4.protocol);
+            } else {
+                deserializer = Data.bufferDeserializer();
+            }
+
+            int remainingLength = offset + length - position;
+            int payloadLength = ipv4.totalLength - ipv4.headerLength * 4;
+            int bytesToRead = (payloadLength <= remainingLength) ? payloadLength : remainingLength;
+            ipv4.payload = deserializer.deserialize(bb, position, bytesToRead);
+            ipv4.payload.setParent(ipv4);
+            ipv4.isTruncated = ipv4.totalLength != length;
+
+            return ipv4;
+        };
+    }
+
+    static BufferDeserializer<UDP> udp() {
+        return (bb, offset, length) -> {
+            checkInput(bb, offset, length, UDP.UDP_HEADER_LENGTH);
+
+            UDP udp = new UDP();
+
+            udp.sourcePort = (bb.getShort(offset) & 0xffff);
+            udp.destinationPort = (bb.getShort(offset + 2) & 0xffff);
+            udp.length = bb.getShort(offset + 4);
+            udp.checksum = bb.getShort(offset + 6);
+            int position = offset + UDP.UDP_HEADER_LENGTH;
+
+            byte dscp = 0;
+            int ipHeaderOffset = offset - IP_HEADER_LENGTH;
+            if (ipHeaderOffset >= 0) {
+                byte tos = bb.get(ipHeaderOffset + 1);
+                dscp = (byte) (tos >> 2 & 0x3f);
+            }
+
+            BufferDeserializer<? extends IPacket> deserializer;
+            if (PORT_DESERIALIZER_MAP.containsKey(udp.destinationPort)) {
+                deserializer = PORT_DESERIALIZER_MAP.get(udp.destinationPort);
+            } else if (PORT_DESERIALIZER_MAP.containsKey(udp.sourcePort)) {
+                deserializer = PORT_DESERIALIZER_MAP.get(udp.sourcePort);
+            } else if (dscp == INT_DSCP) {
+                deserializer = P4Int.bufferDeserializer();
+            } else {
+                deserializer = Data.bufferDeserializer();
+            }
+
+            udp.payload = deserializer.deserialize(bb, position, offset + length - position);
+            udp.payload.setParent(udp);
+            return udp;
+        };
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.monitoring.packet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for class {@link DeserializerTable}.
+ */
+public class DeserializerTableTest {
+
+    @Test
+    public void testRegisterAndGet() {
+        DeserializerTable table = new DeserializerTable();
+        BufferDeserializer<Data> data = Data.bufferDeserializer();
+        BufferDeserializer<P4Int> p4Int = P4Int.bufferDeserializer();
+
+        // Enough keys to grow the table several times
+        for (int port = 0; port < 100; port++) {
+            table.register(port * 977, data);
+        }
+        table.register(UDP.TELEMETRY_REPORT_PORT, p4Int);
+        table.register(Ethernet.TYPE_IPV4, p4Int);
+
+        for (int port = 0; port < 100; port++) {
+            if (port * 977 != UDP.TELEMETRY_REPORT_PORT) {
+                assertThat(table.get(port * 977) == data, is(true));
+            }
+        }
+        assertThat(table.get(UDP.TELEMETRY_REPORT_PORT) == p4Int, is(true));
+        // Negative shorts and their unsigned value are the same key
+        assertThat(table.get(Ethernet.TYPE_IPV4 & 0xffff) == p4Int, is(true));
+        assertThat(table.get(1), nullValue());
+
+        table.unregister(UDP.TELEMETRY_REPORT_PORT);
+        assertThat(table.get(UDP.TELEMETRY_REPORT_PORT), nullValue());
+        assertThat(table.get(977) == data, is(true));
+    }
+
+    @Test
+    public void testBoxedMapBaselineParsesTheSame() throws Exception {
+        byte[] report = TelemetryReportViewTest.BYTE_PACKET_INT_REPORT;
+        TelemetryReport parsed = TelemetryReport.deserializer().deserialize(report, 0, report.length);
+        // The baseline of the parse benchmarks decodes the same packet
+        assertThat(BoxedMapDeserializers.telemetryReport().deserialize(ByteBuffer.wrap(report), 0, report.length),
+                is(parsed));
+    }
+
+    @Test
+    public void testRuntimeRegistration() throws Exception {
+        byte[] report = TelemetryReportViewTest.BYTE_PACKET_INT_REPORT;
+        TelemetryReport parsed = TelemetryReport.deserializer().deserialize(report, 0, report.length);
+        assertThat(parsed.getPayload().getPayload().getPayload().getPayload() instanceof P4Int, is(true));
+
+        // Datagrams to port 6000 of the nested packet are now left undecoded
+        UDP.registerPortDeserializer(6000, Data.bufferDeserializer());
+        try {
+            parsed = TelemetryReport.bufferDeserializer().deserialize(ByteBuffer.wrap(report), 0, report.length);
+            assertThat(parsed.getPayload().getPayload().getPayload().getPayload() instanceof Data, is(true));
+        } finally {
+            UDP.unregisterPortDeserializer(6000);
+        }
+    }
+}
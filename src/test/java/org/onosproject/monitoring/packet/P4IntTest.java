@@ -17,6 +17,8 @@ package org.onosproject.monitoring.packet;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
@@ -41,6 +43,38 @@ public class P4IntTest {
             (byte) 0x06, (byte) 0x00, (byte) 0x16, (byte) 0x00 // next_proto, destination port, dscp
     };
 
+    private static byte[] bytePacketINTAllInstructions = {
+            // shim header
+            (byte) 0x01, (byte) 0x00, (byte) 0x17, (byte) 0x00, // type, reserved, length, reserved
+
+            // metadata header
+            (byte) 0x00, (byte) 0x08, (byte) 0x10, (byte) 0x02, // control, max_hop_cnt, total_hop_cnt
+            (byte) 0xff, (byte) 0x00, (byte) 0x00, (byte) 0x00, // instruction_bitmap, reserved
+
+            // hop 0
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02, // switch id
+            (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x02, // ingress port id, egress port id
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x03, // hop latency
+            (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x05, // queue ID, queue occupancy
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x06, // ingress timestamp
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x07, // egress timestamp
+            (byte) 0x08, (byte) 0x00, (byte) 0x00, (byte) 0x09, // queue ID, queue congestion
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x0a, // egress port tx utilization
+
+            // hop 1
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, // switch id
+            (byte) 0x00, (byte) 0x11, (byte) 0x00, (byte) 0x12, // ingress port id, egress port id
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x13, // hop latency
+            (byte) 0x14, (byte) 0x00, (byte) 0x00, (byte) 0x15, // queue ID, queue occupancy
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x16, // ingress timestamp
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x17, // egress timestamp
+            (byte) 0x18, (byte) 0x00, (byte) 0x00, (byte) 0x19, // queue ID, queue congestion
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x1a, // egress port tx utilization
+
+            // tail header
+            (byte) 0x11, (byte) 0x00, (byte) 0x16, (byte) 0x00 // next_proto, destination port, dscp
+    };
+
     private static Deserializer<P4Int> deserializer = P4Int.deserializer();
 
     /**
@@ -65,6 +99,45 @@ public class P4IntTest {
         assertThat(intPacket.getDscp(), is((byte) 0x00));
     }
 
+    /**
+     * Tests deserialize with every instruction set.
+     */
+    @Test
+    public void testDeserializeAllInstructions() throws Exception {
+        P4Int intPacket = deserializer.deserialize(bytePacketINTAllInstructions, 0,
+                                                   bytePacketINTAllInstructions.length);
+
+        assertThat(intPacket.getTotalHopCount(), is((byte) 0x02));
+        P4IntTransitHop hop = intPacket.getMetadata().get(1);
+        assertThat(hop.getSwitchId(), is(0x01));
+        assertThat(hop.getIngressPortId(), is((short) 0x11));
+        assertThat(hop.getEgressPortId(), is((short) 0x12));
+        assertThat(hop.getHopLatency(), is(0x13));
+        assertThat(hop.getQueueOccupancy(), is(0x15));
+        assertThat(hop.getIngressTimeStamp(), is(0x16));
+        assertThat(hop.getEgressTimeStamp(), is(0x17));
+        assertThat(hop.getQueueId(), is((byte) 0x18));
+        assertThat(hop.getQueueCongestion(), is(0x19));
+        assertThat(hop.getEgressPortTxUtil(), is(0x1a));
+        assertThat(intPacket.getNextProtocol(), is((byte) 0x11));
+    }
+
+    /**
+     * Tests that a hop can be read through its layout without decoding the previous ones.
+     */
+    @Test
+    public void testHopLayoutRandomAccess() throws Exception {
+        P4IntHopLayout layout = P4IntHopLayout.of((short) 0xff00);
+        ByteBuffer bb = ByteBuffer.wrap(bytePacketINTAllInstructions);
+        int hopOffset = layout.hopOffset(12, 1);
+
+        assertThat(layout.length(), is(32));
+        assertThat(layout.getSwitchId(bb, hopOffset), is(0x01));
+        assertThat(layout.getHopLatency(bb, hopOffset), is(0x13));
+        assertThat(layout.getQueueCongestion(bb, hopOffset), is(0x19));
+        assertThat(P4IntHopLayout.of((short) 0x9000).getQueueId(bb, layout.hopOffset(12, 0)), is((byte) 0x00));
+    }
+
     @Test
     public void testDeserializeBadInput() throws Exception {
         PacketTestUtils.testDeserializeBadInput(deserializer);
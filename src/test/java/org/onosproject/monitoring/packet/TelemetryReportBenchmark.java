@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.monitoring.packet;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the telemetry report parse path.
+ * <p>
+ * The dispatch benchmarks compare the boxed map lookups the parsers used to
+ * do for every layer (containsKey followed by get) with the primitive
+ * dispatch tables. The parse benchmarks measure the full report parse, and
+ * the boxed map ones the same parse through {@link BoxedMapDeserializers},
+ * a copy of the parse chain before the dispatch tables.
+ * <p>
+ * Run {@link #main(String[])} with the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TelemetryReportBenchmark {
+
+    private static final BufferDeserializer<Data> DESERIALIZER = Data.bufferDeserializer();
+    private static final BufferDeserializer<TelemetryReport> BOXED_MAP_REPORT =
+            BoxedMapDeserializers.telemetryReport();
+
+    private final Map<Short, BufferDeserializer<? extends IPacket>> etherTypeMap =
+            ImmutableMap.<Short, BufferDeserializer<? extends IPacket>>of(Ethernet.TYPE_IPV4, DESERIALIZER);
+    private final Map<Byte, BufferDeserializer<? extends IPacket>> protocolMap =
+            ImmutableMap.<Byte, BufferDeserializer<? extends IPacket>>of(
+                    IPv4.PROTOCOL_TCP, DESERIALIZER, IPv4.PROTOCOL_UDP, DESERIALIZER);
+    private final Map<Integer, BufferDeserializer<? extends IPacket>> portMap =
+            ImmutableMap.<Integer, BufferDeserializer<? extends IPacket>>of(UDP.TELEMETRY_REPORT_PORT, DESERIALIZER);
+
+    private final DeserializerTable etherTypeTable = new DeserializerTable();
+    private final BufferDeserializer<? extends IPacket>[] protocolTable = DeserializerTable.newArray(256);
+    private final DeserializerTable portTable = new DeserializerTable();
+
+    // Fields of the benchmarked report, read from non final fields so they are not constant folded
+    private short etherType;
+    private byte protocol;
+    private int sourcePort;
+    private int destinationPort;
+
+    private byte[] report;
+    private ByteBuffer directReport;
+    private final TelemetryReportView view = new TelemetryReportView();
+
+    @Setup
+    public void setup() {
+        etherTypeTable.register(Ethernet.TYPE_IPV4, DESERIALIZER);
+        protocolTable[IPv4.PROTOCOL_TCP] = DESERIALIZER;
+        protocolTable[IPv4.PROTOCOL_UDP] = DESERIALIZER;
+        portTable.register(UDP.TELEMETRY_REPORT_PORT, DESERIALIZER);
+
+        report = TelemetryReportViewTest.BYTE_PACKET_INT_REPORT.clone();
+        directReport = ByteBuffer.allocateDirect(report.length);
+        directReport.put(report).flip();
+
+        etherType = Ethernet.TYPE_IPV4;
+        protocol = IPv4.PROTOCOL_UDP;
+        sourcePort = 5000;
+        destinationPort = 6000;
+    }
+
+    @Benchmark
+    public Object dispatchBoxedMap() {
+        Object eth = etherTypeMap.containsKey(etherType) ? etherTypeMap.get(etherType) : null;
+        Object ip = protocolMap.containsKey(protocol) ? protocolMap.get(protocol) : null;
+        Object l4;
+        if (portMap.containsKey(destinationPort)) {
+            l4 = portMap.get(destinationPort);
+        } else if (portMap.containsKey(sourcePort)) {
+            l4 = portMap.get(sourcePort);
+        } else {
+            l4 = null;
+        }
+        return eth == ip ? l4 : eth;
+    }
+
+    @Benchmark
+    public Object dispatchPrimitiveTable() {
+        Object eth = etherTypeTable.get(etherType);
+        Object ip = protocolTable[protocol & 0xff];
+        Object l4 = portTable.get(destinationPort);
+        if (l4 == null) {
+            l4 = portTable.get(sourcePort);
+        }
+        return eth == ip ? l4 : eth;
+    }
+
+    @Benchmark
+    public TelemetryReport parseHeapArray() throws DeserializationException {
+        return TelemetryReport.deserializer().deserialize(report, 0, report.length);
+    }
+
+    @Benchmark
+    public TelemetryReport parseDirectBuffer() throws DeserializationException {
+        return TelemetryReport.bufferDeserializer().deserialize(directReport, 0, directReport.remaining());
+    }
+
+    @Benchmark
+    public TelemetryReport parseHeapArrayBoxedMap() throws DeserializationException {
+        return BOXED_MAP_REPORT.deserialize(ByteBuffer.wrap(report), 0, report.length);
+    }
+
+    @Benchmark
+    public TelemetryReport parseDirectBufferBoxedMap() throws DeserializationException {
+        return BOXED_MAP_REPORT.deserialize(directReport, 0, directReport.remaining());
+    }
+
+    @Benchmark
+    public int wrapView() throws DeserializationException {
+        return view.wrap(directReport, 0, directReport.remaining()).getHopLatency(0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TelemetryReportBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
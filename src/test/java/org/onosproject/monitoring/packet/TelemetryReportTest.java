@@ -17,6 +17,8 @@ package org.onosproject.monitoring.packet;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
@@ -121,6 +123,28 @@ public class TelemetryReportTest {
         assertThat(reportPacket.getEgressTstamp(), is((int) 0xcd));
     }
 
+    /**
+     * Tests deserialize from a direct buffer, with the report starting in the middle of it.
+     */
+    @Test
+    public void testBufferDeserializeSwitchLocalReport() throws Exception {
+        int offset = 5;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(offset + bytePacketSwitchLocalReport.length);
+        buffer.position(offset);
+        buffer.put(bytePacketSwitchLocalReport);
+        buffer.position(offset);
+
+        TelemetryReport reportPacket = TelemetryReport.bufferDeserializer()
+                .deserialize(buffer, offset, bytePacketSwitchLocalReport.length);
+
+        assertThat(reportPacket.getNextProto(), is((byte) 0x02));
+        assertThat(reportPacket.getSequence(), is(0xab));
+        assertThat(reportPacket.getSwitchId(), is(0x01));
+        assertThat(reportPacket.getQueueOccupancy(), is(0xab));
+        assertThat(reportPacket.getEgressTstamp(), is(0xcd));
+        assertThat(buffer.position(), is(offset));
+    }
+
     @Test
     public void testDeserializeBadInput() throws Exception {
         PacketTestUtils.testDeserializeBadInput(deserializer);
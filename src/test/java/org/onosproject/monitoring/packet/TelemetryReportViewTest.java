@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.monitoring.packet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static junit.framework.TestCase.fail;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for class {@link TelemetryReportView}.
+ */
+public class TelemetryReportViewTest {
+
+    public static final byte[] BYTE_PACKET_INT_REPORT = {
+            // Telemetry Report Fixed Header
+            (byte) 0x10, (byte) 0x20, (byte) 0x00, (byte) 0x02, // version, next protocol, F, hw_id
+            (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, // sequence
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xcd, // ingress timestamp
+
+            // Ethernet
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, // destination MAC
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02, // source MAC
+            (byte) 0x08, (byte) 0x00, // ethertype
+
+            // IPv4
+            (byte) 0x45, (byte) 0x04, (byte) 0x00, (byte) 0x44, // version, IHL, DSCP 1, total length 68
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, // identification, flags, fragment offset
+            (byte) 0x40, (byte) 0x11, (byte) 0x00, (byte) 0x00, // ttl, protocol UDP, checksum
+            (byte) 0x0a, (byte) 0x00, (byte) 0x0a, (byte) 0x01, // source 10.0.10.1
+            (byte) 0x0a, (byte) 0x00, (byte) 0x14, (byte) 0x01, // destination 10.0.20.1
+
+            // UDP
+            (byte) 0x13, (byte) 0x88, (byte) 0x17, (byte) 0x70, // source port 5000, destination port 6000
+            (byte) 0x00, (byte) 0x30, (byte) 0x00, (byte) 0x00, // length, checksum
+
+            // INT shim header
+            (byte) 0x01, (byte) 0x00, (byte) 0x0b, (byte) 0x00, // type, reserved, length, reserved
+            // INT metadata header
+            (byte) 0x00, (byte) 0x03, (byte) 0x10, (byte) 0x02, // control, max_hop_cnt, total_hop_cnt
+            (byte) 0xe0, (byte) 0x00, (byte) 0x00, (byte) 0x00, // instruction_bitmap, reserved
+            // hop 0
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x02, // switch id
+            (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x03, // ingress port id, egress port id
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x10, // hop latency
+            // hop 1
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, // switch id
+            (byte) 0x00, (byte) 0x04, (byte) 0x00, (byte) 0x02, // ingress port id, egress port id
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x20, // hop latency
+            // INT tail header
+            (byte) 0x11, (byte) 0x17, (byte) 0x70, (byte) 0x00, // next_proto, destination port, dscp
+    };
+
+    /**
+     * Tests that the view decodes the same values as the deserializer.
+     */
+    @Test
+    public void testWrapMatchesDeserializer() throws Exception {
+        TelemetryReport report = TelemetryReport.deserializer()
+                .deserialize(BYTE_PACKET_INT_REPORT, 0, BYTE_PACKET_INT_REPORT.length);
+        IPv4 ipv4 = (IPv4) report.getPayload().getPayload();
+        UDP udp = (UDP) ipv4.getPayload();
+        List<P4IntTransitHop> hops = ((P4Int) udp.getPayload()).getMetadata();
+
+        TelemetryReportView view = new TelemetryReportView()
+                .wrap(ByteBuffer.wrap(BYTE_PACKET_INT_REPORT), 0, BYTE_PACKET_INT_REPORT.length);
+
+        assertThat(view.hasTrackedFlow(), is(report.hasTrackedFlow()));
+        assertThat(view.hasDroppedPacket(), is(report.hasDroppedPacket()));
+        assertThat(view.getHwId(), is(report.getHwId()));
+        assertThat(view.getSequence(), is(report.getSequence()));
+        assertThat(view.getIngressTimeStamp(), is(report.getIngressTimeStamp()));
+        assertThat(view.isIpv4(), is(true));
+        assertThat(view.getSourceAddress(), is(ipv4.getSourceAddress()));
+        assertThat(view.getDestinationAddress(), is(ipv4.getDestinationAddress()));
+        assertThat(view.getProtocol(), is(ipv4.getProtocol()));
+        assertThat(view.getSourcePort(), is(udp.getSourcePort()));
+        assertThat(view.getDestinationPort(), is(udp.getDestinationPort()));
+        assertThat(view.hasIntMetadata(), is(true));
+        assertThat(view.getHopCount(), is(hops.size()));
+        for (int i = 0; i < hops.size(); i++) {
+            assertThat(view.getHopSwitchId(i), is(hops.get(i).getSwitchId()));
+            assertThat(view.getHopIngressPortId(i), is(hops.get(i).getIngressPortId()));
+            assertThat(view.getHopEgressPortId(i), is(hops.get(i).getEgressPortId()));
+            assertThat(view.getHopLatency(i), is(hops.get(i).getHopLatency()));
+            assertThat(view.getHopQueueCongestion(i), is(0));
+        }
+    }
+
+    /**
+     * Tests that a view can be reused for another report.
+     */
+    @Test
+    public void testRewrap() throws Exception {
+        TelemetryReportView view = new TelemetryReportView()
+                .wrap(ByteBuffer.wrap(BYTE_PACKET_INT_REPORT), 0, BYTE_PACKET_INT_REPORT.length);
+        byte[] header = new byte[TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH];
+        System.arraycopy(BYTE_PACKET_INT_REPORT, 0, header, 0, header.length);
+
+        view.wrap(ByteBuffer.wrap(header), 0, header.length);
+
+        assertThat(view.getSequence(), is(0x100));
+        assertThat(view.isIpv4(), is(false));
+        assertThat(view.hasIntMetadata(), is(false));
+        assertThat(view.getHopCount(), is(0));
+    }
+
+    @Test
+    public void testWrapTruncated() throws Exception {
+        TelemetryReportView view = new TelemetryReportView();
+        // Reports cut inside the INT headers must be rejected
+        int intOffset = BYTE_PACKET_INT_REPORT.length - 40;
+        for (int i = intOffset; i < BYTE_PACKET_INT_REPORT.length; i++) {
+            try {
+                view.wrap(ByteBuffer.wrap(BYTE_PACKET_INT_REPORT), 0, i);
+                if (view.hasIntMetadata()) {
+                    fail("DeserializationException was not thrown for length " + i);
+                }
+            } catch (DeserializationException e) {
+                // Thrown from the shared instance of its reason, without a stack trace
+                assertThat(e == DeserializationException.of(e.getReason()), is(true));
+                assertThat(e.getStackTrace().length, is(0));
+            }
+        }
+    }
+
+    @Test
+    public void testWrapFailureReasons() throws Exception {
+        TelemetryReportView view = new TelemetryReportView();
+        ByteBuffer report = ByteBuffer.wrap(BYTE_PACKET_INT_REPORT);
+        try {
+            view.wrap(report, 0, BYTE_PACKET_INT_REPORT.length + 1);
+            fail("DeserializationException was not thrown");
+        } catch (DeserializationException e) {
+            assertThat(e.getReason(), is(DeserializationException.Reason.BUFFER_BOUNDS));
+        }
+        try {
+            view.wrap(report, 0, TelemetryReport.TELEMETRY_REPORT_FIXED_HEADER_LENGTH - 1);
+            fail("DeserializationException was not thrown");
+        } catch (DeserializationException e) {
+            assertThat(e.getReason(), is(DeserializationException.Reason.TRUNCATED_HEADER));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.onosproject.monitoring.server;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.Test;
+import org.onosproject.monitoring.packet.DeserializationException;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for class {@link ParseFailures}.
+ */
+public class ParseFailuresTest {
+
+    private static final DeserializationException.Reason REASON = DeserializationException.Reason.values()[0];
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+    private final Counter parseFailures = Counter.build()
+            .name("int_collector_parse_failures_total")
+            .help("Number of malformed telemetry reports by failure reason and source address")
+            .labelNames("reason", "source")
+            .register(registry);
+
+    @Test
+    public void testSourcesBoundAcrossChannels() throws Exception {
+        ParseFailures failures = new ParseFailures(parseFailures, 8);
+        int channels = 4;
+        ExecutorService eventLoops = Executors.newFixedThreadPool(channels);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int channel = 0; channel < channels; channel++) {
+                int first = channel * 100;
+                eventLoops.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    // Every channel gets reports from its own spoofed sources
+                    for (int source = first; source < first + 100; source++) {
+                        failures.failed(new InetSocketAddress("10.0." + source / 256 + "." + source % 256, 1234),
+                                REASON);
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            eventLoops.shutdown();
+        }
+        assertThat(eventLoops.awaitTermination(10, TimeUnit.SECONDS), is(true));
+
+        // 8 sources and the other one, whatever the number of channels
+        assertThat(registry.getSampleValue("int_collector_parse_failures_total", new String[] {"reason", "source"},
+                new String[] {REASON.label(), ParseFailures.OTHER_SOURCE}), is(400.0 - 8));
+        int series = 0;
+        for (Counter.MetricFamilySamples family : parseFailures.collect()) {
+            for (Counter.MetricFamilySamples.Sample sample : family.samples) {
+                if (sample.labelValues.get(0).equals(REASON.label())) {
+                    series++;
+                }
+            }
+        }
+        assertThat(series, is(9));
+    }
+
+    @Test
+    public void testSameSourceSameSeries() {
+        ParseFailures failures = new ParseFailures(parseFailures, 1);
+        failures.failed(new InetSocketAddress("10.0.0.1", 1234), REASON);
+        failures.failed(new InetSocketAddress("10.0.0.1", 5678), REASON);
+        failures.failed(new InetSocketAddress("10.0.0.2", 1234), REASON);
+        failures.failed(null, REASON);
+        assertThat(registry.getSampleValue("int_collector_parse_failures_total", new String[] {"reason", "source"},
+                new String[] {REASON.label(), "10.0.0.1"}), is(2.0));
+        assertThat(registry.getSampleValue("int_collector_parse_failures_total", new String[] {"reason", "source"},
+                new String[] {REASON.label(), ParseFailures.OTHER_SOURCE}), is(2.0));
+    }
+}
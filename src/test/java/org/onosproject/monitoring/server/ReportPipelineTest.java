@@ -0,0 +1,253 @@
+package org.onosproject.monitoring.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.INTExporter;
+import org.junit.After;
+import org.junit.Test;
+import org.onosproject.monitoring.packet.TelemetryReportView;
+import org.onosproject.monitoring.packet.TelemetryReportViewTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for classes {@link ReportRing} and {@link ReportPipeline}.
+ */
+public class ReportPipelineTest {
+
+    private static final byte[] REPORT = TelemetryReportViewTest.BYTE_PACKET_INT_REPORT;
+    private static final byte[] CONGESTION_REPORT = REPORT.clone();
+
+    static {
+        // Q and F bits
+        CONGESTION_REPORT[1] = 0x60;
+    }
+
+    private static final String[] LANE = {"lane"};
+    private static final String[] FLOW_LANE = {"flow"};
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch taken = new CountDownLatch(1);
+    private final CountDownLatch congestion = new CountDownLatch(1);
+    private INTExporter exporter;
+    private ReportPipeline pipeline;
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        if (exporter != null) {
+            exporter.stop();
+        }
+    }
+
+    @Test
+    public void testRingOrder() {
+        ReportRing ring = new ReportRing(3);
+        assertThat(ring.capacity(), is(4));
+        List<Long> taken = new ArrayList<>();
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertThat(ring.offer(Unpooled.EMPTY_BUFFER, lap * 4 + i), is(true));
+            }
+            assertThat(ring.offer(Unpooled.EMPTY_BUFFER, -1), is(false));
+            assertThat(ring.size(), is(4));
+            while (ring.poll((report, enqueueNanos) -> taken.add(enqueueNanos))) {
+                // Drain the lap
+            }
+            assertThat(ring.size(), is(0));
+        }
+        for (int i = 0; i < taken.size(); i++) {
+            assertThat(taken.get(i), is((long) i));
+        }
+        assertThat(taken.size(), is(12));
+    }
+
+    @Test
+    public void testReportsReachExporter() throws Exception {
+        exporter = new INTExporter();
+        pipeline = new ReportPipeline(exporter, 2, 16, OverloadPolicy.DROP_NEWEST, 1, 16, registry);
+        ByteBuf report = Unpooled.wrappedBuffer(REPORT);
+        for (int i = 0; i < 10; i++) {
+            offer(report);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (report.refCnt() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        // Every queued reference was released by the workers
+        assertThat(report.refCnt(), is(1));
+        assertThat(exporter.getRegistry().getSampleValue("path_reports_total", new String[] {"path"},
+                new String[] {"s2.s1"}), is(10.0));
+        assertThat(registry.getSampleValue("int_collector_handoff_latency_seconds_count", LANE, FLOW_LANE),
+                is(10.0));
+        assertThat(queueDepth(), is(0.0));
+    }
+
+    @Test
+    public void testIdleWorkerWokenUp() throws Exception {
+        exporter = new INTExporter();
+        pipeline = new ReportPipeline(exporter, 1, 16, OverloadPolicy.DROP_NEWEST, 1, 16, registry);
+        // Halfway through a park of the idle worker
+        Thread.sleep(250);
+        ByteBuf report = Unpooled.wrappedBuffer(REPORT);
+        offer(report);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (report.refCnt() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(report.refCnt(), is(1));
+        // Unparked by the offer rather than at the end of its park
+        assertThat(registry.getSampleValue("int_collector_handoff_latency_seconds_sum", LANE, FLOW_LANE) < 0.02,
+                is(true));
+    }
+
+    @Test
+    public void testWorkerFailuresCounted() throws Exception {
+        CountDownLatch processed = new CountDownLatch(2);
+        exporter = new INTExporter() {
+            @Override
+            public void processReport(TelemetryReportView report) {
+                processed.countDown();
+                throw new IllegalStateException();
+            }
+        };
+        pipeline = new ReportPipeline(exporter, 1, 16, OverloadPolicy.DROP_NEWEST, 1, 16, registry);
+        ByteBuf report = Unpooled.wrappedBuffer(REPORT);
+        offer(report);
+        offer(report);
+        // The worker goes on after a failure
+        assertThat(processed.await(10, TimeUnit.SECONDS), is(true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (report.refCnt() > 1 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(registry.getSampleValue("int_collector_worker_failures_total", LANE, FLOW_LANE), is(2.0));
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        ByteBuf[] reports = fillBlockedPipeline(OverloadPolicy.DROP_NEWEST);
+        assertThat(dropped("queue_full"), is(1.0));
+        assertThat(dropped("oldest_evicted"), is(0.0));
+        // The report the worker holds and the queued ones are retained, the dropped one is not
+        assertThat(reports[0].refCnt(), is(2));
+        assertThat(reports[2].refCnt(), is(2));
+        assertThat(reports[3].refCnt(), is(1));
+    }
+
+    @Test
+    public void testDroppedReportsNotLost() throws Exception {
+        fillBlockedPipeline(OverloadPolicy.DROP_NEWEST);
+        assertThat(dropped("queue_full"), is(1.0));
+        // The sequence numbers were accounted for before the report was dropped
+        String[] source = {"2", "2"};
+        assertThat(exporter.getRegistry().getSampleValue("int_collector_sequence_reports_total",
+                new String[] {"switch_id", "hw_id"}, source), is(4.0));
+        assertThat(exporter.getRegistry().getSampleValue("int_collector_sequence_lost_total",
+                new String[] {"switch_id", "hw_id"}, source), is(0.0));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        ByteBuf[] reports = fillBlockedPipeline(OverloadPolicy.DROP_OLDEST);
+        assertThat(dropped("queue_full"), is(0.0));
+        assertThat(dropped("oldest_evicted"), is(1.0));
+        assertThat(reports[1].refCnt(), is(1));
+        assertThat(reports[3].refCnt(), is(2));
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        exporter = blockedExporter();
+        pipeline = new ReportPipeline(exporter, 1, 64, OverloadPolicy.SAMPLE, 1000000, 16, registry);
+        offer(Unpooled.wrappedBuffer(REPORT));
+        assertThat(taken.await(10, TimeUnit.SECONDS), is(true));
+        for (int i = 0; i < 200; i++) {
+            offer(Unpooled.wrappedBuffer(REPORT));
+        }
+        // Every report is queued until the queue is half full, then almost none
+        assertThat(queueDepth() >= 32, is(true));
+        assertThat(queueDepth() < 64, is(true));
+        assertThat(dropped("sampled") + queueDepth(), is(200.0));
+    }
+
+    @Test
+    public void testEventLane() throws Exception {
+        fillBlockedPipeline(OverloadPolicy.DROP_NEWEST);
+        offer(Unpooled.wrappedBuffer(CONGESTION_REPORT));
+        // The congestion report is not held up by the flow reports
+        assertThat(congestion.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(dropped("queue_full"), is(1.0));
+        assertThat(registry.getSampleValue("int_collector_dropped_reports_total", new String[] {"lane", "reason"},
+                new String[] {"event", "queue_full"}), is(0.0));
+    }
+
+    /**
+     * Blocks the only worker on a first report, then offers three more to a queue of two, with consecutive
+     * sequence numbers.
+     */
+    private ByteBuf[] fillBlockedPipeline(OverloadPolicy policy) throws Exception {
+        exporter = blockedExporter();
+        pipeline = new ReportPipeline(exporter, 1, 2, policy, 1, 16, registry);
+        ByteBuf[] reports = new ByteBuf[4];
+        for (int i = 0; i < reports.length; i++) {
+            byte[] report = REPORT.clone();
+            report[7] += i;
+            reports[i] = Unpooled.wrappedBuffer(report);
+        }
+        offer(reports[0]);
+        assertThat(taken.await(10, TimeUnit.SECONDS), is(true));
+        for (int i = 1; i < reports.length; i++) {
+            offer(reports[i]);
+        }
+        assertThat(queueDepth(), is(2.0));
+        return reports;
+    }
+
+    private INTExporter blockedExporter() {
+        return new INTExporter() {
+            @Override
+            public void processReport(TelemetryReportView report) {
+                if (report.hasCongestion()) {
+                    congestion.countDown();
+                    return;
+                }
+                taken.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private void offer(ByteBuf report) throws Exception {
+        TelemetryReportView reportView = new TelemetryReportView()
+                .wrap(report.nioBuffer(), 0, report.readableBytes());
+        // As the event loop does
+        exporter.reportReceived(reportView);
+        pipeline.offer(report, reportView);
+    }
+
+    private double queueDepth() {
+        return registry.getSampleValue("int_collector_queue_depth", LANE, FLOW_LANE);
+    }
+
+    private double dropped(String reason) {
+        Double value = registry.getSampleValue("int_collector_dropped_reports_total", new String[] {"lane", "reason"},
+                new String[] {"flow", reason});
+        return value != null ? value : 0;
+    }
+}